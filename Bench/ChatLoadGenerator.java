@@ -0,0 +1,307 @@
+package Bench;
+
+import Common.Histogram;
+import SSL.ChatMessage;
+import SSL.MessageType;
+import SSL.ProtocolClient;
+
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless load generator for a running SecureChatServer.
+ * Opens N TLS connections with {@link ProtocolClient} (one shared SSL context),
+ * logs them in and spreads them over R rooms following a Zipf distribution:
+ * room k gets a share proportional to 1 / k^skew (skew 0 = uniform).
+ * <p>
+ * Messages are sent open-loop: each one has an intended send time on a fixed
+ * schedule at the target rate, and a sender that falls behind (slow server,
+ * full TCP window) sends the late messages back to back instead of skipping
+ * them. Every message carries its intended and actual send times (32 hex
+ * digits at the end of the content); each receiving member records
+ * <ul>
+ *   <li>the corrected latency, from the intended send time: what a client
+ *       would have seen, queueing behind the stall included (coordinated
+ *       omission correction)</li>
+ *   <li>the uncorrected latency, from the actual send time</li>
+ * </ul>
+ * Progress goes to stderr every second, the final result to stdout as one JSON object.
+ *
+ * Usage: java Bench.ChatLoadGenerator &lt;host&gt; &lt;port&gt; [connections] [rooms] [skew] [rate]
+ *                                    [seconds] [messageBytes] [version]
+ * e.g.   java Bench.ChatLoadGenerator localhost 8443 2000 50 1.0 5000 30 64
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public class ChatLoadGenerator {
+    private static final int CONNECTOR_THREADS = 64;
+    private static final int SENDER_THREADS = 4;
+    private static final int STAMP_LENGTH = 32;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final long SETUP_TIMEOUT_SECONDS = 120;
+    private static final long DRAIN_MILLIS = 2000;
+
+    private final Histogram corrected = new Histogram();
+    private final Histogram uncorrected = new Histogram();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder expected = new LongAdder();
+    private final AtomicLong maxLagNanos = new AtomicLong();
+    private volatile CountDownLatch joined;
+
+    /** Intended send time from which messages are measured (after the warm-up) */
+    private volatile long measureFrom = Long.MAX_VALUE;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: java Bench.ChatLoadGenerator <host> <port> [connections] [rooms] [skew] " +
+                               "[rate] [seconds] [messageBytes] [version]");
+            System.exit(1);
+        }
+        String host = args[0];
+        int port = Integer.parseInt(args[1]);
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int rooms = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+        double skew = args.length > 4 ? Double.parseDouble(args[4]) : 1.0;
+        double rate = args.length > 5 ? Double.parseDouble(args[5]) : 1000;
+        int seconds = args.length > 6 ? Integer.parseInt(args[6]) : 30;
+        int messageBytes = args.length > 7 ? Integer.parseInt(args[7]) : 64;
+        int version = args.length > 8 ? Integer.parseInt(args[8]) : ChatMessage.VERSION_JSON;
+
+        new ChatLoadGenerator().run(host, port, connections, rooms, skew, rate, seconds, messageBytes, version);
+        System.exit(0);
+    }
+
+    private void run(String host, int port, int connections, int rooms, double skew, double rate,
+                     int seconds, int messageBytes, int version) throws Exception {
+        int[] roomOf = assignRooms(connections, rooms, skew, new Random(42));
+        int[] roomSizes = new int[rooms];
+        for (int room : roomOf) {
+            roomSizes[room]++;
+        }
+
+        // Connect, log in and join
+        System.err.printf("[LOAD] Connecting %d clients to %s:%d%n", connections, host, port);
+        SSLSocketFactory factory = ProtocolClient.trustAllSocketFactory();
+        ProtocolClient.Listener listener = new Receiver();
+        joined = new CountDownLatch(connections);
+        ProtocolClient[] clients = new ProtocolClient[connections];
+        ExecutorService connectors = Executors.newFixedThreadPool(CONNECTOR_THREADS);
+        List<Future<?>> setups = new ArrayList<>(connections);
+        long setupStart = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            final int index = i;
+            setups.add(connectors.submit(() -> {
+                ProtocolClient client = new ProtocolClient(host, port, version, listener);
+                client.connect(factory);
+                client.login("load" + index);
+                client.joinRoom("room" + roomOf[index]);
+                clients[index] = client;
+                return null;
+            }));
+        }
+        int failed = 0;
+        for (Future<?> setup : setups) {
+            try {
+                setup.get();
+            } catch (ExecutionException e) {
+                failed++;
+            }
+        }
+        connectors.shutdown();
+        // Each client counts down once its join is confirmed, failed clients never will
+        for (int i = 0; i < failed; i++) {
+            joined.countDown();
+        }
+        if (!joined.await(SETUP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            System.err.println("[LOAD] Timed out waiting for join confirmations");
+        }
+        System.err.printf("[LOAD] %d connected (%d failed) in %d ms, largest room %d members%n",
+                          connections - failed, failed, (System.nanoTime() - setupStart) / 1_000_000,
+                          Arrays.stream(roomSizes).max().orElse(0));
+
+        // Open-loop sending: each sender thread owns every SENDER_THREADS-th client
+        int senderThreads = Math.min(SENDER_THREADS, connections);
+        long interval = (long) (senderThreads * 1e9 / rate);
+        long warmupNanos = Math.min(5, seconds / 5) * 1_000_000_000L;
+        long start = System.nanoTime() + 100_000_000L;
+        long end = start + warmupNanos + seconds * 1_000_000_000L;
+        measureFrom = start + warmupNanos;
+        String filler = "x".repeat(Math.max(0, messageBytes - STAMP_LENGTH));
+
+        Thread[] senders = new Thread[senderThreads];
+        for (int t = 0; t < senderThreads; t++) {
+            List<Integer> owned = new ArrayList<>();
+            for (int i = t; i < connections; i += senderThreads) {
+                if (clients[i] != null) {
+                    owned.add(i);
+                }
+            }
+            long first = start + t * interval / senderThreads;
+            senders[t] = new Thread(() -> send(clients, owned, roomOf, roomSizes, filler, first, interval, end),
+                                    "load-sender-" + t);
+            senders[t].start();
+        }
+
+        long measuredStart = measureFrom;
+        long lastReceived = 0;
+        while (System.nanoTime() < end) {
+            Thread.sleep(1000);
+            long now = received.sum();
+            System.err.printf("[LOAD] sent=%d received=%d (+%d/s) max_lag_ms=%.1f%n",
+                              sent.sum(), now, now - lastReceived, maxLagNanos.get() / 1e6);
+            lastReceived = now;
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        Thread.sleep(DRAIN_MILLIS);
+        double measuredSeconds = (end - measuredStart) / 1e9;
+
+        for (ProtocolClient client : clients) {
+            if (client != null) {
+                try {
+                    client.close();
+                } catch (IOException e) {
+                    // Already gone
+                }
+            }
+        }
+
+        Histogram.Snapshot co = corrected.snapshot();
+        Histogram.Snapshot raw = uncorrected.snapshot();
+        System.out.println(String.format(Locale.ROOT,
+                "{\"connections\": %d, \"connected\": %d, \"rooms\": %d, \"skew\": %.2f, \"largest_room\": %d, " +
+                "\"message_bytes\": %d, \"version\": %d, \"target_rate\": %.0f, \"achieved_rate\": %.0f, " +
+                "\"seconds\": %.1f, \"sent\": %d, \"expected_deliveries\": %d, \"received\": %d, " +
+                "\"errors\": %d, \"disconnects\": %d, \"max_schedule_lag_ms\": %.2f, " +
+                "\"latency_p50_us\": %.1f, \"latency_p99_us\": %.1f, \"latency_p999_us\": %.1f, " +
+                "\"latency_max_us\": %.1f, \"uncorrected_p50_us\": %.1f, \"uncorrected_p99_us\": %.1f, " +
+                "\"uncorrected_p999_us\": %.1f, \"uncorrected_max_us\": %.1f}",
+                connections, connections - failed, rooms, skew, Arrays.stream(roomSizes).max().orElse(0),
+                messageBytes, version, rate, sent.sum() / measuredSeconds, measuredSeconds, sent.sum(),
+                expected.sum(), co.getCount(), errors.sum(), disconnects.sum(), maxLagNanos.get() / 1e6,
+                co.getPercentile(0.50) / 1e3, co.getPercentile(0.99) / 1e3, co.getPercentile(0.999) / 1e3,
+                co.getMax() / 1e3, raw.getPercentile(0.50) / 1e3, raw.getPercentile(0.99) / 1e3,
+                raw.getPercentile(0.999) / 1e3, raw.getMax() / 1e3));
+    }
+
+    /**
+     * Sends on a fixed schedule until the end time. A message is never skipped:
+     * when behind, the next ones go out immediately, each still stamped with
+     * its own intended time.
+     */
+    private void send(ProtocolClient[] clients, List<Integer> owned, int[] roomOf, int[] roomSizes,
+                      String filler, long first, long interval, long end) {
+        if (owned.isEmpty()) {
+            return;
+        }
+        Random random = new Random();
+        StringBuilder content = new StringBuilder(filler.length() + STAMP_LENGTH);
+        for (long intended = first; intended < end; intended += interval) {
+            long now;
+            while ((now = System.nanoTime()) < intended) {
+                LockSupport.parkNanos(intended - now);
+            }
+            long lag = now - intended;
+            if (lag > maxLagNanos.get()) {
+                maxLagNanos.set(lag);
+            }
+
+            int index = owned.get(random.nextInt(owned.size()));
+            content.setLength(0);
+            content.append(filler);
+            appendHex(content, intended);
+            appendHex(content, now);
+            try {
+                clients[index].sendMessage(content.toString());
+            } catch (IOException e) {
+                errors.increment();
+                continue;
+            }
+            if (intended >= measureFrom) {
+                sent.increment();
+                expected.add(roomSizes[roomOf[index]]);
+            }
+        }
+    }
+
+    /**
+     * Shared by all clients: counts join confirmations and records the latency
+     * of every broadcast received.
+     */
+    private class Receiver implements ProtocolClient.Listener {
+        @Override
+        public void onMessage(ChatMessage message) {
+            switch (message.getMessageType()) {
+                case JOIN_ROOM_REQUEST:
+                    joined.countDown();
+                    break;
+                case ERROR_RESPONSE:
+                    errors.increment();
+                    break;
+                case TEXT_MESSAGE:
+                    if ("server".equals(message.getSender())) {
+                        record(message.getContent());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void onClosed(IOException error) {
+            disconnects.increment();
+        }
+
+        private void record(String content) {
+            long now = System.nanoTime();
+            int stamps = content.length() - STAMP_LENGTH;
+            if (stamps < 0) {
+                return;
+            }
+            long intended = Long.parseUnsignedLong(content, stamps, stamps + 16, 16);
+            if (intended < measureFrom) {
+                return;
+            }
+            long actual = Long.parseUnsignedLong(content, stamps + 16, stamps + 32, 16);
+            received.increment();
+            corrected.record(now - intended);
+            uncorrected.record(now - actual);
+        }
+    }
+
+    /**
+     * Draws a room for each connection: room k (0-based) with probability
+     * proportional to 1 / (k + 1)^skew.
+     */
+    static int[] assignRooms(int connections, int rooms, double skew, Random random) {
+        double[] cumulative = new double[rooms];
+        double total = 0;
+        for (int k = 0; k < rooms; k++) {
+            total += 1 / Math.pow(k + 1, skew);
+            cumulative[k] = total;
+        }
+        int[] roomOf = new int[connections];
+        for (int i = 0; i < connections; i++) {
+            int room = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            roomOf[i] = Math.min(rooms - 1, room >= 0 ? room : -room - 1);
+        }
+        return roomOf;
+    }
+
+    private static void appendHex(StringBuilder out, long value) {
+        for (int shift = 60; shift >= 0; shift -= 4) {
+            out.append(HEX[(int) (value >>> shift) & 0xF]);
+        }
+    }
+}
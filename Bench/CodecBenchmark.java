@@ -0,0 +1,57 @@
+package Bench;
+
+import SSL.ChatMessage;
+import SSL.MessageType;
+
+/**
+ * Encode/decode throughput and bytes on the wire of the v1 (JSON) and
+ * v2 (binary) ChatMessage bodies across content sizes.
+ *
+ * Usage: java Bench.CodecBenchmark [iterations]
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public class CodecBenchmark {
+    private static final int[] CONTENT_SIZES = {10, 100, 1000, 10000};
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        for (int size : CONTENT_SIZES) {
+            String content = "x".repeat(size);
+            for (int version : new int[] {ChatMessage.VERSION_JSON, ChatMessage.VERSION_BINARY}) {
+                int rounds = Math.max(1000, iterations * 10 / size);
+                run(version, content, rounds / 2, false);   // Warm-up
+                run(version, content, rounds, true);
+            }
+        }
+    }
+
+    private static void run(int version, String content, int rounds, boolean report) {
+        long sink = 0;
+        byte[] frame = null;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            ChatMessage message = new ChatMessage(MessageType.TEXT_MESSAGE, "alice", content);
+            message.setRoomId("lobby");
+            frame = message.serialize(version);
+            sink += frame.length;
+        }
+        long encodeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            sink += ChatMessage.deserialize(frame).getContent().length();
+        }
+        long decodeNanos = System.nanoTime() - start;
+
+        if (sink == 42 || !report) {
+            return; // Warm-up, or keeps the loops from being optimised away
+        }
+        System.out.printf("version=%d content_bytes=%d frame_bytes=%d encode_ops_per_s=%.0f decode_ops_per_s=%.0f%n",
+                version, content.length(), frame.length,
+                rounds / (encodeNanos / 1e9), rounds / (decodeNanos / 1e9));
+    }
+}
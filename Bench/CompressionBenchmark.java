@@ -0,0 +1,129 @@
+package Bench;
+
+import SSL.ChatMessage;
+import SSL.MessageType;
+
+import java.util.Random;
+
+/**
+ * Bytes saved and CPU cost of per-frame compression, for the v1 (JSON) and
+ * v2 (binary) bodies across content kinds and sizes:
+ * <ul>
+ *   <li>chat: sentences drawn from a small vocabulary, like pasted conversation</li>
+ *   <li>log: repetitive log lines with varying numbers, like a pasted stack trace</li>
+ *   <li>random: letters and digits without repetition, the worst case: only the
+ *       entropy coding helps</li>
+ * </ul>
+ * CPU cost is the extra time of a compressed encode (resp. decode) over a
+ * plain one, per KB of original body. A room broadcast pays the compression
+ * once, whatever the number of members.
+ * Run with -Dchat.compression.level=N or -Dchat.compression.threshold=N to vary them.
+ *
+ * Usage: java Bench.CompressionBenchmark [iterations]
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public class CompressionBenchmark {
+    private static final int[] CONTENT_SIZES = {256, 1000, 4000, 10000};
+    private static final String[] KINDS = {"chat", "log", "random"};
+    private static final String[] WORDS = {
+        "the", "meeting", "is", "moved", "to", "tomorrow", "at", "ten", "please", "check",
+        "your", "calendar", "and", "let", "me", "know", "if", "that", "works", "for",
+        "everyone", "we", "still", "need", "the", "slides", "from", "last", "week", "thanks"
+    };
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        for (String kind : KINDS) {
+            for (int size : CONTENT_SIZES) {
+                String content = content(kind, size, new Random(size));
+                for (int version : new int[] {ChatMessage.VERSION_JSON, ChatMessage.VERSION_BINARY}) {
+                    int rounds = Math.max(1000, iterations * 10 / size);
+                    run(kind, version, content, rounds / 2, false);   // Warm-up
+                    run(kind, version, content, rounds, true);
+                }
+            }
+        }
+    }
+
+    private static void run(String kind, int version, String content, int rounds, boolean report) {
+        long sink = 0;
+        byte[] plain = null;
+        byte[] compressed = null;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            plain = message(content).serialize(version);
+            sink += plain.length;
+        }
+        long plainEncode = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            compressed = message(content).serialize(version, true);
+            sink += compressed.length;
+        }
+        long compressedEncode = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            sink += ChatMessage.deserialize(plain).getContent().length();
+        }
+        long plainDecode = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            sink += ChatMessage.deserialize(compressed).getContent().length();
+        }
+        long compressedDecode = System.nanoTime() - start;
+
+        if (sink == 42 || !report) {
+            return; // Warm-up, or keeps the loops from being optimised away
+        }
+        double kilobytes = (plain.length - ChatMessage.HEADER_SIZE) / 1024.0 * rounds;
+        System.out.printf("kind=%s version=%d content_bytes=%d frame_bytes=%d compressed_bytes=%d saved=%.1f%% " +
+                          "compress_ns_per_kb=%.0f decompress_ns_per_kb=%.0f%n",
+                kind, version, content.length(), plain.length, compressed.length,
+                100.0 * (plain.length - compressed.length) / plain.length,
+                Math.max(0, compressedEncode - plainEncode) / kilobytes,
+                Math.max(0, compressedDecode - plainDecode) / kilobytes);
+    }
+
+    private static ChatMessage message(String content) {
+        ChatMessage message = new ChatMessage(MessageType.TEXT_MESSAGE, "server", "[alice]: " + content);
+        message.setRoomId("lobby");
+        return message;
+    }
+
+    /**
+     * @param kind chat, log or random
+     * @param size content length, in characters
+     * @param random seeded source, so every run compresses the same content
+     * @return generated content
+     */
+    private static String content(String kind, int size, Random random) {
+        StringBuilder content = new StringBuilder(size + 64);
+        while (content.length() < size) {
+            switch (kind) {
+                case "chat":
+                    content.append(WORDS[random.nextInt(WORDS.length)])
+                           .append(random.nextInt(8) == 0 ? ". " : " ");
+                    break;
+                case "log":
+                    content.append("2026-10-16 12:").append(10 + random.nextInt(50)).append(':')
+                           .append(10 + random.nextInt(50)).append(" WARN [chat-loop-").append(random.nextInt(4))
+                           .append("] Slow consumer session=").append(Integer.toHexString(random.nextInt()))
+                           .append(" queued=").append(random.nextInt(1000)).append('\n');
+                    break;
+                default:
+                    content.append((char) ('A' + random.nextInt(26)))
+                           .append((char) ('a' + random.nextInt(26)))
+                           .append((char) ('0' + random.nextInt(10)));
+            }
+        }
+        content.setLength(size);
+        return content.toString();
+    }
+}
@@ -0,0 +1,177 @@
+package Bench;
+
+import Common.Log;
+import SSL.ChatMessage;
+import SSL.ConnectionExecutors;
+import SSL.ExecutionMode;
+import SSL.MessageType;
+import SSL.SecureChatServer;
+
+import javax.net.ssl.*;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Connect-storm benchmark for SecureChatServer execution modes.
+ * Starts the server in-process, opens N TLS connections as fast as possible
+ * (connect + handshake + login round trip), reports connect latency percentiles,
+ * then holds the connections idle and reports memory and threads per connection.
+ *
+ * Usage: java Bench.ConnectStormBenchmark <blocking|virtual|nio> <connections> [keystore] [password]
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public class ConnectStormBenchmark {
+    private static final int CONNECTOR_THREADS = 64;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: java Bench.ConnectStormBenchmark <blocking|virtual|nio> <connections> [keystore] [password]");
+            System.exit(1);
+        }
+        ExecutionMode mode = ExecutionMode.fromArgument(args[0]);
+        int connections = Integer.parseInt(args[1]);
+        String keystore = args.length > 2 ? args[2] : "server.jks";
+        String password = args.length > 3 ? args[3] : "password123";
+        if (mode == ExecutionMode.VIRTUAL && !ConnectionExecutors.virtualThreadsSupported()) {
+            System.err.println("Virtual threads require Java 21 or later");
+            System.exit(1);
+        }
+        int port = 20000 + new Random().nextInt(20000);
+
+        SecureChatServer server = new SecureChatServer(port, keystore, password, mode);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.launch();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "server-acceptor");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread.sleep(1000);
+
+        // Silence per-connection server logging during the measurement
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        long baselineMemory = usedMemory();
+        long baselineRss = residentSetKb();
+        int baselineThreads = Thread.activeCount();
+
+        SSLSocketFactory factory = trustAllContext().getSocketFactory();
+        ExecutorService connectors = Executors.newFixedThreadPool(CONNECTOR_THREADS);
+        List<Future<Long>> results = new ArrayList<>(connections);
+        List<SSLSocket> sockets = Collections.synchronizedList(new ArrayList<>());
+
+        long stormStart = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            final String username = "storm" + i;
+            results.add(connectors.submit(() -> {
+                long start = System.nanoTime();
+                SSLSocket socket = (SSLSocket) factory.createSocket("localhost", port);
+                socket.startHandshake();
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                out.write(new ChatMessage(MessageType.LOGIN_REQUEST, username, "login").serialize());
+                out.flush();
+                in.readByte();
+                in.readByte();
+                int length = in.readInt();
+                in.readInt();
+                in.skipNBytes(length);
+                sockets.add(socket);
+                return System.nanoTime() - start;
+            }));
+        }
+
+        long[] latencies = new long[connections];
+        int failures = 0;
+        int ok = 0;
+        for (Future<Long> result : results) {
+            try {
+                latencies[ok] = result.get();
+                ok++;
+            } catch (ExecutionException e) {
+                failures++;
+            }
+        }
+        long stormNanos = System.nanoTime() - stormStart;
+        connectors.shutdown();
+
+        Thread.sleep(1000);
+        long idleMemory = usedMemory();
+        long idleRss = residentSetKb();
+        int idleThreads = Thread.activeCount();
+
+        for (SSLSocket socket : sockets) {
+            socket.close();
+        }
+        server.shutdown();
+        Thread.sleep(500);
+
+        Log.flush();
+        System.setOut(console);
+        long[] sorted = Arrays.copyOf(latencies, ok);
+        Arrays.sort(sorted);
+        System.out.printf("mode=%s connections=%d failures=%d storm_ms=%d connects_per_s=%.0f " +
+                          "p50_ms=%.2f p99_ms=%.2f max_ms=%.2f " +
+                          "heap_bytes_per_conn=%d rss_kb_per_conn=%.1f threads_per_conn=%.2f%n",
+                mode, ok, failures, stormNanos / 1_000_000, ok / (stormNanos / 1e9),
+                percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 1.0),
+                ok == 0 ? 0 : (idleMemory - baselineMemory) / ok,
+                ok == 0 ? 0.0 : (idleRss - baselineRss) / (double) ok,
+                ok == 0 ? 0.0 : (idleThreads - baselineThreads) / (double) ok);
+        System.exit(0);
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private static long usedMemory() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * @return resident set size of this process in KB (Linux only, 0 elsewhere)
+     */
+    private static long residentSetKb() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException e) {
+            // Not on Linux
+        }
+        return 0;
+    }
+
+    private static SSLContext trustAllContext() throws Exception {
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        TrustManager[] trustAll = new TrustManager[]{
+            new X509TrustManager() {
+                public X509Certificate[] getAcceptedIssuers() { return null; }
+                public void checkClientTrusted(X509Certificate[] certs, String authType) { }
+                public void checkServerTrusted(X509Certificate[] certs, String authType) { }
+            }
+        };
+        sslContext.init(null, trustAll, new java.security.SecureRandom());
+        return sslContext;
+    }
+}
@@ -0,0 +1,262 @@
+package Bench;
+
+import Common.Histogram;
+import Common.Log;
+import SSL.ChatMessage;
+import SSL.ChatMetrics;
+import SSL.ChatProtocolServer;
+import SSL.ClientSession;
+import SSL.MessageType;
+import SSL.OutboundQueue;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end fan-out benchmark for ChatProtocolServer, without a network.
+ * For each combination of room size, concurrent senders and message size, logs
+ * the members into one room with in-memory sink streams, then has the senders
+ * push text messages through handleMessage in parallel.
+ * <p>
+ * Every sent frame carries its send time (16 hex digits at the end of the
+ * content, patched in place so the harness allocates nothing); each sink reads
+ * it back from the delivered broadcast frame and records the delivery latency.
+ * Writers run synchronously on the sending thread, so the allocation measured
+ * on the sender threads covers decoding, routing, encoding and writing.
+ * <p>
+ * Prints one JSON object per configuration on stdout (JSON Lines), progress on
+ * stderr. Room sizes, senders and message sizes are comma-separated lists;
+ * deliveries is the approximate number of delivered frames per configuration.
+ * Run once with -Dchat.metrics=false to measure the cost of the metrics.
+ *
+ * Usage: java Bench.FanOutBenchmark [roomSizes] [senders] [messageSizes] [deliveries] [version]
+ * e.g.   java Bench.FanOutBenchmark 1,10,100,1000,10000 1,2,4 32,256,4096 1000000 1
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public class FanOutBenchmark {
+    private static final String ROOM = "lobby";
+    private static final int MARKER_LENGTH = 16;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /** Latency histogram of the running measurement, null during setup and warm-up */
+    private static volatile Histogram latencies;
+
+    public static void main(String[] args) throws Exception {
+        int[] roomSizes = parseList(args.length > 0 ? args[0] : "1,10,100,1000,10000");
+        int[] senderCounts = parseList(args.length > 1 ? args[1] : "1,2,4");
+        int[] messageSizes = parseList(args.length > 2 ? args[2] : "32,256,4096");
+        long deliveries = args.length > 3 ? Long.parseLong(args[3]) : 1_000_000;
+        int version = args.length > 4 ? Integer.parseInt(args[4]) : ChatMessage.VERSION_JSON;
+
+        // Silence per-message server logging, results go to the real stdout
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        for (int roomSize : roomSizes) {
+            for (int senders : senderCounts) {
+                for (int messageSize : messageSizes) {
+                    System.err.printf("[BENCH] room=%d senders=%d size=%d%n", roomSize, senders, messageSize);
+                    String result = run(roomSize, senders, messageSize, deliveries, version);
+                    Log.flush();
+                    console.println(result);
+                    console.flush();
+                }
+            }
+        }
+        System.setOut(console);
+    }
+
+    /**
+     * Runs one configuration on a fresh server.
+     *
+     * @return the results as one JSON object
+     */
+    private static String run(int roomSize, int senderCount, int messageSize, long deliveries, int version)
+            throws InterruptedException {
+        ChatProtocolServer server = new ChatProtocolServer();
+        int members = Math.max(roomSize, senderCount);
+        int tail = version == ChatMessage.VERSION_JSON ? 2 : 2 + ROOM.length();
+
+        // The first senderCount members are the senders
+        ClientSession[] sessions = new ClientSession[senderCount];
+        OutboundQueue[] sinks = new OutboundQueue[members];
+        for (int i = 0; i < members; i++) {
+            OutboundQueue sink = sink(server.getMetrics(), tail);
+            sinks[i] = sink;
+            String username = "user" + i;
+            ClientSession session = server.handleMessage(
+                    new ChatMessage(MessageType.LOGIN_REQUEST, username, "login").serialize(version), sink, null);
+            server.handleMessage(
+                    new ChatMessage(MessageType.JOIN_ROOM_REQUEST, username, ROOM).serialize(version), sink, session);
+            if (i < senderCount) {
+                sessions[i] = session;
+            }
+        }
+
+        int messages = (int) Math.max(20, Math.min(1_000_000, deliveries / ((long) members * senderCount)));
+        int warmup = Math.max(10, messages / 4);
+        String content = "x".repeat(Math.max(0, messageSize - MARKER_LENGTH));
+
+        Sender[] senders = new Sender[senderCount];
+        for (int i = 0; i < senderCount; i++) {
+            ChatMessage message = new ChatMessage(MessageType.TEXT_MESSAGE, "user" + i,
+                                                  content + "0".repeat(MARKER_LENGTH));
+            byte[] frame = message.serialize(version);
+            // v1 bodies end with the closing quote and brace, v2 bodies with the content
+            int markerEnd = frame.length - (version == ChatMessage.VERSION_JSON ? 2 : 0);
+            senders[i] = new Sender(server, sessions[i], frame, markerEnd, warmup, messages);
+        }
+
+        CountDownLatch warmedUp = new CountDownLatch(senderCount);
+        CountDownLatch go = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(senderCount);
+        AtomicLong allocated = new AtomicLong();
+        for (int i = 0; i < senderCount; i++) {
+            Sender sender = senders[i];
+            Thread thread = new Thread(() -> {
+                sender.send(sender.warmup);
+                warmedUp.countDown();
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                long threadId = Thread.currentThread().getId();
+                long before = THREADS.getThreadAllocatedBytes(threadId);
+                sender.send(sender.messages);
+                allocated.addAndGet(THREADS.getThreadAllocatedBytes(threadId) - before);
+                done.countDown();
+            }, "sender-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        warmedUp.await();
+        long droppedBefore = droppedFrames(sinks);
+        Histogram histogram = new Histogram();
+        latencies = histogram;
+        long start = System.nanoTime();
+        go.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        latencies = null;
+
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        long sent = (long) messages * senderCount;
+        long delivered = snapshot.getCount();
+        double seconds = elapsed / 1e9;
+        return String.format(java.util.Locale.ROOT,
+                "{\"room_size\": %d, \"senders\": %d, \"message_bytes\": %d, \"version\": %d, " +
+                "\"metrics\": %b, \"messages\": %d, \"delivered_frames\": %d, \"dropped_frames\": %d, " +
+                "\"elapsed_s\": %.3f, \"msgs_per_s\": %.0f, \"frames_per_s\": %.0f, " +
+                "\"latency_p50_us\": %.2f, \"latency_p99_us\": %.2f, \"latency_p999_us\": %.2f, " +
+                "\"latency_max_us\": %.2f, \"alloc_bytes_per_msg\": %.1f, \"alloc_bytes_per_frame\": %.1f}",
+                members, senderCount, messageSize, version, ChatMetrics.ENABLED, sent, delivered,
+                droppedFrames(sinks) - droppedBefore, seconds, sent / seconds, delivered / seconds,
+                snapshot.getPercentile(0.50) / 1e3, snapshot.getPercentile(0.99) / 1e3,
+                snapshot.getPercentile(0.999) / 1e3, snapshot.getMax() / 1e3,
+                (double) allocated.get() / sent, delivered == 0 ? 0.0 : (double) allocated.get() / delivered);
+    }
+
+    /**
+     * One sending member: resends the same frame with a fresh send time.
+     */
+    private static final class Sender {
+        final ChatProtocolServer server;
+        final ClientSession session;
+        final byte[] frame;
+        final int markerEnd;
+        final int warmup;
+        final int messages;
+        final OutboundQueue replies;
+
+        Sender(ChatProtocolServer server, ClientSession session, byte[] frame, int markerEnd, int warmup, int messages) {
+            this.server = server;
+            this.session = session;
+            this.frame = frame;
+            this.markerEnd = markerEnd;
+            this.warmup = warmup;
+            this.messages = messages;
+            this.replies = new OutboundQueue(new DataOutputStream(OutputStream.nullOutputStream()), Runnable::run);
+        }
+
+        /**
+         * handleMessage decodes the frame before returning, so it can be patched again
+         */
+        void send(int count) {
+            for (int i = 0; i < count; i++) {
+                long now = System.nanoTime();
+                for (int digit = 0; digit < MARKER_LENGTH; digit++) {
+                    frame[markerEnd - 1 - digit] = HEX[(int) (now >>> (4 * digit)) & 0xF];
+                }
+                server.handleMessage(frame, replies, session);
+            }
+        }
+    }
+
+    /**
+     * @param metrics registry the queue reports its writes to
+     * @param tail bytes between the end of the content and the end of a broadcast frame
+     * @return an outbound queue drained synchronously into a latency-recording sink
+     */
+    private static OutboundQueue sink(ChatMetrics metrics, int tail) {
+        return new OutboundQueue(new DataOutputStream(new LatencySink(tail)), Runnable::run, metrics);
+    }
+
+    /**
+     * Discarding stream that records the latency of each delivered frame.
+     * DataOutputStream hands the queued frame array through unchanged: one write per frame.
+     */
+    private static final class LatencySink extends OutputStream {
+        private final int tail;
+
+        LatencySink(int tail) {
+            this.tail = tail;
+        }
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] frame, int offset, int length) {
+            Histogram histogram = latencies;
+            if (histogram == null || length < ChatMessage.HEADER_SIZE + tail + MARKER_LENGTH) {
+                return;
+            }
+            long sentAt = 0;
+            int markerStart = offset + length - tail - MARKER_LENGTH;
+            for (int i = markerStart; i < markerStart + MARKER_LENGTH; i++) {
+                int c = frame[i];
+                sentAt = (sentAt << 4) | (c <= '9' ? c - '0' : c - 'a' + 10);
+            }
+            histogram.record(System.nanoTime() - sentAt);
+        }
+    }
+
+    private static long droppedFrames(OutboundQueue[] sinks) {
+        long dropped = 0;
+        for (OutboundQueue sink : sinks) {
+            dropped += sink.getDroppedFrames();
+        }
+        return dropped;
+    }
+
+    private static int[] parseList(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+}
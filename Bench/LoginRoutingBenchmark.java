@@ -0,0 +1,96 @@
+package Bench;
+
+import Common.Log;
+import SSL.ChatMessage;
+import SSL.ChatProtocolServer;
+import SSL.ClientSession;
+import SSL.MessageType;
+import SSL.OutboundQueue;
+
+import java.io.*;
+
+/**
+ * Measures login and private-message routing cost as the number of online users grows.
+ * For each population size, logs in that many users, then times a further batch
+ * of logins and a batch of private messages to random recipients.
+ *
+ * Usage: java Bench.LoginRoutingBenchmark [maxUsers]
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public class LoginRoutingBenchmark {
+    private static final int BATCH = 2000;
+
+    public static void main(String[] args) {
+        int maxUsers = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+
+        PrintStream console = System.out;
+        PrintStream err = System.err;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+
+        // Warm-up pass so the timed batches run compiled code
+        for (int round = 0; round < 5; round++) {
+            measure(1000);
+        }
+
+        for (int users = 10; users <= maxUsers; users *= 10) {
+            long[] result = measure(users);
+            console.printf("users=%d login_ns=%d pm_route_ns=%d%n", users, result[0], result[1]);
+        }
+        Log.flush();
+        System.setErr(err);
+    }
+
+    /**
+     * Populates a fresh server with the given number of users and times one batch
+     * of logins and one batch of private messages.
+     *
+     * @param users online population
+     * @return {nanoseconds per login, nanoseconds per private message}
+     */
+    private static long[] measure(int users) {
+        ChatProtocolServer server = new ChatProtocolServer();
+        OutboundQueue sink = nullSink();
+        ClientSession senderSession = null;
+        for (int i = 0; i < users; i++) {
+            ClientSession session = login(server, "user" + i, sink);
+            if (i == 0) {
+                senderSession = session;
+            }
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BATCH; i++) {
+            login(server, "extra" + i, sink);
+        }
+        long loginNanos = (System.nanoTime() - start) / BATCH;
+
+        byte[][] privateMessages = new byte[BATCH][];
+        for (int i = 0; i < BATCH; i++) {
+            int recipient = (int) ((i * 2654435761L) % users);
+            privateMessages[i] = new ChatMessage(MessageType.PRIVATE_MESSAGE, "user0",
+                                                 "user" + recipient + ":hello").serialize();
+        }
+        start = System.nanoTime();
+        for (byte[] frame : privateMessages) {
+            server.handleMessage(frame, sink, senderSession);
+        }
+        long routeNanos = (System.nanoTime() - start) / BATCH;
+
+        return new long[] {loginNanos, routeNanos};
+    }
+
+    private static ClientSession login(ChatProtocolServer server, String username, OutboundQueue sink) {
+        byte[] frame = new ChatMessage(MessageType.LOGIN_REQUEST, username, "login").serialize();
+        return server.handleMessage(frame, sink, null);
+    }
+
+    /**
+     * @return an outbound queue drained synchronously into a discarding stream
+     */
+    private static OutboundQueue nullSink() {
+        return new OutboundQueue(new DataOutputStream(OutputStream.nullOutputStream()), Runnable::run);
+    }
+}
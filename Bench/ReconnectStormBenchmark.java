@@ -0,0 +1,153 @@
+package Bench;
+
+import Common.Histogram;
+import Common.Log;
+import SSL.ChatMessage;
+import SSL.ChatMetrics;
+import SSL.ExecutionMode;
+import SSL.MessageType;
+import SSL.SecureChatServer;
+import SSL.TlsContexts;
+
+import javax.net.ssl.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Reconnect-storm benchmark: the mass reconnect after a server deploy.
+ * Starts SecureChatServer in-process, connects N clients once, then has all of
+ * them reconnect (TCP connect + TLS handshake + login round trip) as fast as
+ * possible, twice:
+ * <ul>
+ *   <li>fresh - a new client SSLContext per connection, as ProtocolClient used
+ *       to do: every reconnect is a full handshake</li>
+ *   <li>reused - each client keeps its SSLContext across reconnects, as a client
+ *       process using {@link TlsContexts#sharedTrustAllClient()} does: reconnects
+ *       resume the previous session with its TLS 1.3 ticket</li>
+ * </ul>
+ * Each simulated client has its own context because a context keeps one ticket
+ * per server address: thousands of clients sharing a single context would
+ * mostly find the ticket already used by another connection.
+ * and reports handshakes per second, connect latency percentiles and the
+ * full/resumed handshake counts seen by the server.
+ *
+ * Usage: java Bench.ReconnectStormBenchmark [blocking|virtual|nio] [clients] [keystore] [password]
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public class ReconnectStormBenchmark {
+    private static final int CONNECTOR_THREADS = 16;
+
+    public static void main(String[] args) throws Exception {
+        ExecutionMode mode = args.length > 0 ? ExecutionMode.fromArgument(args[0]) : ExecutionMode.NIO;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        String keystore = args.length > 2 ? args[2] : "server.jks";
+        String password = args.length > 3 ? args[3] : "password123";
+        int port = 20000 + new Random().nextInt(20000);
+
+        SecureChatServer server = new SecureChatServer(port, keystore, password, mode);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.launch();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "server-acceptor");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread.sleep(1000);
+
+        // Silence per-connection server logging during the measurement
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        ExecutorService connectors = Executors.newFixedThreadPool(CONNECTOR_THREADS);
+        List<String> results = new ArrayList<>();
+        for (boolean reused : new boolean[] {false, true}) {
+            // First connection of every client (also warms up both sides), then the storm
+            SSLContext[] contexts = new SSLContext[clients];
+            storm(connectors, port, contexts, reused, server.getMetrics());
+            results.add(storm(connectors, port, contexts, reused, server.getMetrics()));
+        }
+        connectors.shutdown();
+        server.shutdown();
+
+        Log.flush();
+        System.setOut(console);
+        for (String result : results) {
+            System.out.println(result);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Connects every client once, closing each connection after the login response.
+     *
+     * @param contexts client contexts, filled on first use when reused
+     * @param reused true to connect with the client's previous context
+     * @return one result line
+     */
+    private static String storm(ExecutorService connectors, int port, SSLContext[] contexts, boolean reused,
+                                ChatMetrics metrics) throws Exception {
+        int clients = contexts.length;
+        long fullBefore = metrics.getFullHandshakeNanos().getCount();
+        long resumedBefore = metrics.getResumedHandshakeNanos().getCount();
+        Histogram latencies = new Histogram();
+        List<Future<Boolean>> results = new ArrayList<>(clients);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            final int index = i;
+            final String username = (reused ? "reused" : "fresh") + i;
+            results.add(connectors.submit(() -> {
+                long connectStart = System.nanoTime();
+                long handshakeStart = System.currentTimeMillis();
+                SSLContext context = reused && contexts[index] != null ? contexts[index]
+                                                                       : TlsContexts.newTrustAllClient();
+                contexts[index] = context;
+                try (SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket("localhost", port)) {
+                    socket.setTcpNoDelay(true);
+                    socket.startHandshake();
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    out.write(new ChatMessage(MessageType.LOGIN_REQUEST, username, "login").serialize());
+                    out.flush();
+                    // Reading the response also takes in the session ticket sent after the handshake
+                    in.readByte();
+                    in.readByte();
+                    int length = in.readInt();
+                    in.readInt();
+                    in.skipNBytes(length);
+                    latencies.record(System.nanoTime() - connectStart);
+                    return TlsContexts.isResumed(socket.getSession(), handshakeStart);
+                }
+            }));
+        }
+
+        int failures = 0;
+        int resumed = 0;
+        for (Future<Boolean> result : results) {
+            try {
+                if (result.get()) {
+                    resumed++;
+                }
+            } catch (ExecutionException e) {
+                failures++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        Thread.sleep(200);  // Let the server account the last handshakes
+
+        Histogram.Snapshot snapshot = latencies.snapshot();
+        return String.format(Locale.ROOT,
+                "client_context=%s clients=%d failures=%d storm_ms=%d handshakes_per_s=%.0f " +
+                "p50_ms=%.2f p99_ms=%.2f max_ms=%.2f client_resumed=%d server_full=%d server_resumed=%d",
+                reused ? "reused" : "fresh", clients - failures, failures, elapsed / 1_000_000,
+                (clients - failures) / (elapsed / 1e9), snapshot.getPercentile(0.50) / 1e6,
+                snapshot.getPercentile(0.99) / 1e6, snapshot.getMax() / 1e6, resumed,
+                metrics.getFullHandshakeNanos().getCount() - fullBefore,
+                metrics.getResumedHandshakeNanos().getCount() - resumedBefore);
+    }
+}
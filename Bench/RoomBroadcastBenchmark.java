@@ -0,0 +1,83 @@
+package Bench;
+
+import Common.Log;
+import SSL.ChatMessage;
+import SSL.ChatMetrics;
+import SSL.ChatProtocolServer;
+import SSL.ClientSession;
+import SSL.MessageType;
+import SSL.OutboundQueue;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Large-room broadcast benchmark for ChatProtocolServer.
+ * Logs M in-memory members into one room, then has one of them send K text
+ * messages and reports time and bytes allocated per broadcast message.
+ * Run once with -Dchat.metrics=false to measure the cost of the metrics.
+ *
+ * Usage: java Bench.RoomBroadcastBenchmark [members] [messages]
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public class RoomBroadcastBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int members = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        ChatProtocolServer server = new ChatProtocolServer();
+        ClientSession senderSession = null;
+        for (int i = 0; i < members; i++) {
+            OutboundQueue sink = nullSink(server.getMetrics());
+            ClientSession session = server.handleMessage(
+                    new ChatMessage(MessageType.LOGIN_REQUEST, "user" + i, "login").serialize(), sink, null);
+            server.handleMessage(
+                    new ChatMessage(MessageType.JOIN_ROOM_REQUEST, "user" + i, "lobby").serialize(), sink, session);
+            if (i == 0) {
+                senderSession = session;
+            }
+        }
+
+        OutboundQueue senderOut = nullSink(server.getMetrics());
+        byte[] frame = new ChatMessage(MessageType.TEXT_MESSAGE, "user0",
+                "The quick brown fox jumps over the lazy dog").serialize();
+
+        // Warm-up
+        for (int i = 0; i < messages / 4; i++) {
+            server.handleMessage(frame, senderOut, senderSession);
+        }
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            server.handleMessage(frame, senderOut, senderSession);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        Log.flush();
+        System.setOut(console);
+        System.out.printf("members=%d messages=%d metrics=%s msgs_per_s=%.0f deliveries_per_s=%.0f " +
+                          "bytes_per_msg=%d bytes_per_delivery=%.1f%n",
+                members, messages, ChatMetrics.ENABLED ? "on" : "off", messages / (elapsed / 1e9),
+                (double) messages * members / (elapsed / 1e9),
+                allocated / messages, (double) allocated / messages / members);
+    }
+
+    /**
+     * @param metrics registry the queue reports its writes to
+     * @return an outbound queue drained synchronously into a discarding stream
+     */
+    private static OutboundQueue nullSink(ChatMetrics metrics) {
+        return new OutboundQueue(new DataOutputStream(OutputStream.nullOutputStream()), Runnable::run, metrics);
+    }
+}
@@ -0,0 +1,173 @@
+package Bench;
+
+import Common.Log;
+import SSL.ChatMessage;
+import SSL.ChatMetrics;
+import SSL.ChatProtocolServer;
+import SSL.ClientSession;
+import SSL.MessageType;
+import SSL.OutboundQueue;
+
+import java.io.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Multi-room throughput benchmark comparing the room engines of ChatProtocolServer.
+ * Spreads S sender threads over R rooms of M in-memory members each; every
+ * sender sends K text messages to its room. Reports messages and deliveries
+ * per second once every delivery has reached the members' queues, which for
+ * the sharded engine includes draining the shard mailboxes.
+ * Run with -Dchat.rooms.shards=N to vary the number of shards.
+ *
+ * Usage: java Bench.RoomEngineBenchmark [engines] [rooms] [members] [senders] [messages]
+ *        engines is a comma-separated list of direct and sharded
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public class RoomEngineBenchmark {
+    private static final long TIMEOUT_NANOS = 120_000_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        String[] engines = (args.length > 0 ? args[0] : "direct,sharded").split(",");
+        int rooms = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int members = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int senders = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors() * 2;
+        int messages = args.length > 4 ? Integer.parseInt(args[4]) : 20_000;
+
+        if (!ChatMetrics.ENABLED) {
+            throw new IllegalStateException("Deliveries are counted by the metrics: run without -Dchat.metrics=false");
+        }
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        for (String engine : engines) {
+            run(engine, rooms, members, senders, messages / 4, null);    // Warm-up
+            run(engine, rooms, members, senders, messages, console);
+        }
+        Log.flush();
+    }
+
+    /**
+     * Builds a fresh server, then times all senders sending concurrently.
+     *
+     * @param engine room engine name
+     * @param rooms number of rooms
+     * @param members listening members per room
+     * @param senders sender threads, spread round-robin over the rooms
+     * @param messages messages per sender
+     * @param report where to print the result line, or null for a warm-up run
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static void run(String engine, int rooms, int members, int senders, int messages,
+                            PrintStream report) throws InterruptedException {
+        ChatProtocolServer server = new ChatProtocolServer(engine);
+        ChatMetrics metrics = server.getMetrics();
+        for (int r = 0; r < rooms; r++) {
+            for (int m = 0; m < members; m++) {
+                OutboundQueue sink = nullSink(metrics);
+                ClientSession session = login(server, "member" + r + "_" + m, sink);
+                join(server, "member" + r + "_" + m, "room" + r, sink, session);
+            }
+        }
+
+        ClientSession[] sessions = new ClientSession[senders];
+        OutboundQueue[] outs = new OutboundQueue[senders];
+        long expected = 0;
+        for (int s = 0; s < senders; s++) {
+            outs[s] = nullSink(metrics);
+            sessions[s] = login(server, "sender" + s, outs[s]);
+            join(server, "sender" + s, "room" + (s % rooms), outs[s], sessions[s]);
+        }
+        for (int s = 0; s < senders; s++) {
+            int room = s % rooms;
+            int roomSize = members + (senders / rooms) + (room < senders % rooms ? 1 : 0);
+            expected += (long) messages * roomSize;
+        }
+        byte[] frame = new ChatMessage(MessageType.TEXT_MESSAGE, "sender",
+                "The quick brown fox jumps over the lazy dog").serialize();
+
+        // One probe per sender: the sharded engine runs it after the joins of its room
+        long baseline = metrics.getDeliveries();
+        for (int s = 0; s < senders; s++) {
+            server.handleMessage(frame, outs[s], sessions[s]);
+        }
+        awaitDeliveries(metrics, baseline + expected / messages, System.nanoTime());
+        baseline = metrics.getDeliveries();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[senders];
+        for (int s = 0; s < senders; s++) {
+            ClientSession session = sessions[s];
+            OutboundQueue out = outs[s];
+            threads[s] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < messages; i++) {
+                    server.handleMessage(frame, out, session);
+                }
+            }, "sender-" + s);
+            threads[s].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long sent = System.nanoTime() - begin;
+        awaitDeliveries(metrics, baseline + expected, begin);
+        long elapsed = System.nanoTime() - begin;
+        server.shutdown();
+
+        if (report != null) {
+            long total = (long) senders * messages;
+            report.printf("engine=%s shards=%s rooms=%d members=%d senders=%d messages=%d " +
+                          "handler_ms=%.0f total_ms=%.0f msgs_per_s=%.0f deliveries_per_s=%.0f%n",
+                    engine, engine.equals("sharded") ? System.getProperty("chat.rooms.shards",
+                            String.valueOf(Runtime.getRuntime().availableProcessors())) : "-",
+                    rooms, members, senders, total, sent / 1e6, elapsed / 1e6,
+                    total / (elapsed / 1e9), expected / (elapsed / 1e9));
+        }
+    }
+
+    /**
+     * Waits until the fan-out delivery count reaches a target. Parks between
+     * checks rather than spinning, so the shard threads keep their cores.
+     *
+     * @param metrics registry of the server
+     * @param target delivery count to wait for
+     * @param begin start of the wait, for the timeout
+     */
+    private static void awaitDeliveries(ChatMetrics metrics, long target, long begin) {
+        while (metrics.getDeliveries() < target) {
+            if (System.nanoTime() - begin > TIMEOUT_NANOS) {
+                throw new IllegalStateException("Timed out: " + metrics.getDeliveries()
+                                                + " of " + target + " deliveries");
+            }
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    private static ClientSession login(ChatProtocolServer server, String username, OutboundQueue sink) {
+        return server.handleMessage(
+                new ChatMessage(MessageType.LOGIN_REQUEST, username, "login").serialize(), sink, null);
+    }
+
+    private static void join(ChatProtocolServer server, String username, String room,
+                             OutboundQueue sink, ClientSession session) {
+        server.handleMessage(
+                new ChatMessage(MessageType.JOIN_ROOM_REQUEST, username, room).serialize(), sink, session);
+    }
+
+    /**
+     * @param metrics registry the queue reports its writes to
+     * @return an outbound queue drained synchronously into a discarding stream
+     */
+    private static OutboundQueue nullSink(ChatMetrics metrics) {
+        return new OutboundQueue(new DataOutputStream(OutputStream.nullOutputStream()), Runnable::run, metrics);
+    }
+}
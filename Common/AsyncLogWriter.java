@@ -0,0 +1,182 @@
+package Common;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background writer behind {@link Log}.
+ * Logging threads publish records into a bounded lock-free ring buffer (each
+ * slot carries a sequence number, so producers only contend on one CAS and never
+ * block); a single daemon thread drains it in batches to System.out / System.err.
+ * When the ring is full, records are dropped and counted rather than stalling the
+ * caller: a chat handler must never wait on the console.
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+final class AsyncLogWriter implements Runnable {
+    private static final long IDLE_PARK_NANOS = 10_000_000L;
+
+    private final Slot[] ring;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();   // Next sequence claimed by a producer
+    private long head;                                  // Next sequence to drain, guarded by this
+    private final LongAdder dropped = new LongAdder();
+    private long droppedReported;
+
+    private final Thread thread;
+    private volatile boolean parked;
+
+    /**
+     * One ring entry. A slot is free for sequence s when its sequence equals s,
+     * and holds the record of s once its sequence equals s + 1.
+     */
+    private static final class Slot {
+        volatile long sequence;
+        LogLevel level;
+        String message;
+        Throwable error;
+    }
+
+    /**
+     * Creates the ring and starts the writer thread.
+     *
+     * @param capacity number of slots, rounded up to a power of two
+     */
+    AsyncLogWriter(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.ring = new Slot[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Slot();
+            ring[i].sequence = i;
+        }
+
+        this.thread = new Thread(this, "log-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "log-flush"));
+    }
+
+    /**
+     * Publishes a record without blocking.
+     *
+     * @param level record level
+     * @param message formatted message
+     * @param error optional throwable whose stack trace follows the message
+     * @return false if the ring was full and the record was dropped
+     */
+    boolean publish(LogLevel level, String message, Throwable error) {
+        long position = tail.get();
+        while (true) {
+            Slot slot = ring[(int) position & mask];
+            long difference = slot.sequence - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slot.level = level;
+                    slot.message = message;
+                    slot.error = error;
+                    slot.sequence = position + 1;   // Publishes the fields to the writer
+                    if (parked) {
+                        LockSupport.unpark(thread);
+                    }
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                dropped.increment();
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Writes the published records, at most one lap of the ring. Called by the
+     * writer thread, and through {@link #flush()} to empty the ring synchronously.
+     *
+     * @return number of records written
+     */
+    synchronized int drain() {
+        StringBuilder out = new StringBuilder();
+        StringBuilder err = new StringBuilder();
+        int count = 0;
+
+        while (count < ring.length) {     // One lap per batch, so output starts early
+            Slot slot = ring[(int) head & mask];
+            if (slot.sequence != head + 1) {
+                break;
+            }
+            StringBuilder target = slot.level.compareTo(LogLevel.WARN) >= 0 ? err : out;
+            target.append(slot.message).append(System.lineSeparator());
+            if (slot.error != null) {
+                StringWriter trace = new StringWriter();
+                slot.error.printStackTrace(new PrintWriter(trace));
+                target.append(trace);
+            }
+            slot.message = null;
+            slot.error = null;
+            slot.sequence = head + ring.length;     // Frees the slot for the next lap
+            head++;
+            count++;
+        }
+
+        long droppedTotal = dropped.sum();
+        if (droppedTotal != droppedReported) {
+            err.append("[LOG] ").append(droppedTotal - droppedReported)
+               .append(" messages dropped (ring full)").append(System.lineSeparator());
+            droppedReported = droppedTotal;
+        }
+
+        if (out.length() > 0) {
+            System.out.print(out);
+            System.out.flush();
+        }
+        if (err.length() > 0) {
+            System.err.print(err);
+            System.err.flush();
+        }
+        return count;
+    }
+
+    /**
+     * Drains until nothing published is left.
+     */
+    void flush() {
+        while (drain() > 0) {
+            // Keep draining full laps
+        }
+    }
+
+    /**
+     * Drains the ring, parking while it is empty.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            if (drain() > 0) {
+                continue;
+            }
+            parked = true;
+            if (isEmpty()) {    // Re-check: a producer may have published before seeing parked
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            parked = false;
+        }
+    }
+
+    /**
+     * @return records dropped because the ring was full
+     */
+    long getDropped() {
+        return dropped.sum();
+    }
+
+    private synchronized boolean isEmpty() {
+        return ring[(int) head & mask].sequence != head + 1;
+    }
+}
@@ -0,0 +1,189 @@
+package Common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative values (latencies in nanoseconds, fan-out
+ * sizes...) with log-linear buckets: values below 8 are exact, larger values fall
+ * into 8 sub-buckets per power of two, so any percentile is within 12.5% of the
+ * true value over the whole long range in a fixed 488 buckets.
+ * Recording is one atomic increment in a bucket array striped by thread, plus a
+ * LongAdder for the sum: concurrent handler threads do not share a cache line.
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public class Histogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (63 - SUB_BITS + 1) * SUB_BUCKETS;
+    private static final int STRIPES =
+        Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+
+    private final AtomicLongArray[] stripes;
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Constructs an empty histogram.
+     */
+    public Histogram() {
+        this.stripes = new AtomicLongArray[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    /**
+     * Records one value. Negative values count as 0.
+     *
+     * @param value value to record
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        stripes[stripe].incrementAndGet(bucketOf(value));
+        sum.add(value);
+
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Takes a consistent-enough view for reporting; recording may continue meanwhile.
+     *
+     * @return the current counts, sum and max
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long count = stripe.get(i);
+                counts[i] += count;
+                total += count;
+            }
+        }
+        return new Snapshot(counts, total, sum.sum(), max.get());
+    }
+
+    /**
+     * Index of the bucket holding a value.
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Largest value held by a bucket.
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        long lower = (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+        return lower + (1L << (exponent - SUB_BITS)) - 1;
+    }
+
+    /**
+     * Immutable view of a histogram at one point in time.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * @return number of recorded values
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return sum of recorded values
+         */
+        public long getSum() {
+            return sum;
+        }
+
+        /**
+         * @return largest recorded value
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @return mean of recorded values, 0 if empty
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * Returns the value below which the given fraction of recorded values fall,
+         * rounded up to its bucket bound (never above the recorded max).
+         *
+         * @param quantile fraction between 0 and 1, e.g. 0.99
+         * @return the percentile value, 0 if empty
+         */
+        public long getPercentile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(i), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * Summary in microseconds, for nanosecond latencies.
+         *
+         * @return "count=.. p50=..us p99=..us p999=..us max=..us"
+         */
+        public String toMicrosString() {
+            return String.format("count=%d p50=%.1fus p99=%.1fus p999=%.1fus max=%.1fus", count,
+                    getPercentile(0.5) / 1e3, getPercentile(0.99) / 1e3,
+                    getPercentile(0.999) / 1e3, max / 1e3);
+        }
+
+        /**
+         * Summary for plain values such as fan-out sizes.
+         *
+         * @return "count=.. mean=.. p50=.. p99=.. max=.."
+         */
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.1f p50=%d p99=%d max=%d", count, getMean(),
+                    getPercentile(0.5), getPercentile(0.99), max);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package Common;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Logging facade shared by the SSL, TCP and UDP servers.
+ * Each logger belongs to a category ("protocol", "server", "tcp"...) with its own
+ * level. Messages are handed to a background writer through a lock-free ring
+ * buffer, so a handler thread never takes the System.out lock or waits on a
+ * console write. Per-message tracing sits at TRACE/DEBUG, which is off by default:
+ * guard those calls with {@link #isDebugEnabled()} so that a disabled message
+ * costs one field read and no string building.
+ * <p>
+ * System properties:
+ * <ul>
+ *   <li>log.level=INFO - default level of every category</li>
+ *   <li>log.level.&lt;category&gt;=DEBUG - level of one category</li>
+ *   <li>log.async=false - write synchronously on the calling thread</li>
+ *   <li>log.buffer=8192 - ring buffer slots</li>
+ * </ul>
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public final class Log {
+    private static final LogLevel DEFAULT_LEVEL =
+        LogLevel.fromArgument(System.getProperty("log.level", "INFO"));
+    private static final Map<String, Log> LOGGERS = new ConcurrentHashMap<>();
+    private static final AsyncLogWriter WRITER = Boolean.parseBoolean(System.getProperty("log.async", "true"))
+        ? new AsyncLogWriter(Integer.getInteger("log.buffer", 8192)) : null;
+
+    private final String category;
+    private volatile int threshold;     // Ordinal of the lowest enabled level
+
+    private Log(String category, LogLevel level) {
+        this.category = category;
+        this.threshold = level.ordinal();
+    }
+
+    /**
+     * Returns the logger of a category, creating it on first use.
+     *
+     * @param category category name, also the suffix of its log.level property
+     * @return the shared logger of the category
+     */
+    public static Log get(String category) {
+        return LOGGERS.computeIfAbsent(category, name -> {
+            String level = System.getProperty("log.level." + name);
+            return new Log(name, level != null ? LogLevel.fromArgument(level) : DEFAULT_LEVEL);
+        });
+    }
+
+    /**
+     * Changes the level of this category at runtime.
+     *
+     * @param level new level
+     */
+    public void setLevel(LogLevel level) {
+        threshold = level.ordinal();
+    }
+
+    /**
+     * @return the category of this logger
+     */
+    public String getCategory() {
+        return category;
+    }
+
+    /**
+     * @param level level to test
+     * @return true if messages of that level are written
+     */
+    public boolean isEnabled(LogLevel level) {
+        return level.ordinal() >= threshold;
+    }
+
+    /**
+     * @return true if per-frame tracing is written
+     */
+    public boolean isTraceEnabled() {
+        return threshold <= 0;
+    }
+
+    /**
+     * @return true if per-message details are written
+     */
+    public boolean isDebugEnabled() {
+        return threshold <= 1;
+    }
+
+    /**
+     * @param message per-frame trace, built only behind {@link #isTraceEnabled()}
+     */
+    public void trace(String message) {
+        log(LogLevel.TRACE, message, null);
+    }
+
+    /**
+     * @param message per-message detail, built only behind {@link #isDebugEnabled()}
+     */
+    public void debug(String message) {
+        log(LogLevel.DEBUG, message, null);
+    }
+
+    /**
+     * @param message lifecycle message
+     */
+    public void info(String message) {
+        log(LogLevel.INFO, message, null);
+    }
+
+    /**
+     * @param message recoverable problem
+     */
+    public void warn(String message) {
+        log(LogLevel.WARN, message, null);
+    }
+
+    /**
+     * @param message failure
+     */
+    public void error(String message) {
+        log(LogLevel.ERROR, message, null);
+    }
+
+    /**
+     * @param message failure
+     * @param error cause, printed with its stack trace
+     */
+    public void error(String message, Throwable error) {
+        log(LogLevel.ERROR, message, error);
+    }
+
+    /**
+     * Writes a message if its level is enabled. WARN and ERROR go to System.err,
+     * the rest to System.out, exactly as the text was passed.
+     *
+     * @param level message level
+     * @param message message text
+     * @param error optional throwable
+     */
+    public void log(LogLevel level, String message, Throwable error) {
+        if (level.ordinal() < threshold) {
+            return;
+        }
+        if (WRITER != null) {
+            WRITER.publish(level, message, error);
+            return;
+        }
+        if (level.compareTo(LogLevel.WARN) >= 0) {
+            System.err.println(message);
+        } else {
+            System.out.println(message);
+        }
+        if (error != null) {
+            error.printStackTrace();
+        }
+    }
+
+    /**
+     * Blocks until every message logged so far has been written.
+     * Useful before exiting or before swapping System.out.
+     */
+    public static void flush() {
+        if (WRITER != null) {
+            WRITER.flush();
+        }
+    }
+
+    /**
+     * @return messages dropped because the ring buffer was full
+     */
+    public static long getDroppedMessages() {
+        return WRITER != null ? WRITER.getDropped() : 0;
+    }
+}
@@ -0,0 +1,33 @@
+package Common;
+
+/**
+ * Severity of a log message, from the most verbose to the most severe.
+ * A logger set to a level emits messages of that level and above.
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public enum LogLevel {
+    TRACE,  // Every frame (per-message tracing)
+    DEBUG,  // Per-message details: broadcasts, private messages, echoed lines
+    INFO,   // Lifecycle: startup, connections, logins, room changes
+    WARN,   // Recoverable problems: delivery failures, malformed frames
+    ERROR,  // Failures that end a connection or the server
+    OFF;    // Nothing
+
+    /**
+     * Parses a level name (case insensitive).
+     *
+     * @param value level name such as "debug"
+     * @return the matching level
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static LogLevel fromArgument(String value) {
+        for (LogLevel level : values()) {
+            if (level.name().equalsIgnoreCase(value.trim())) {
+                return level;
+            }
+        }
+        throw new IllegalArgumentException("Unknown log level: " + value);
+    }
+}
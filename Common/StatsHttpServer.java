@@ -0,0 +1,155 @@
+package Common;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Optional HTTP endpoint exposing live server statistics, built on the JDK's
+ * com.sun.net.httpserver (no external dependency).
+ * <ul>
+ *   <li>GET /metrics - Prometheus text format</li>
+ *   <li>GET /stats - the same values as JSON</li>
+ *   <li>GET /health - "OK" while the server runs</li>
+ * </ul>
+ * Requests are served by one dedicated daemon thread, and collectors only read
+ * counters, volatile snapshots and concurrent maps: a scrape never takes a lock
+ * an I/O thread could be waiting on.
+ * <p>
+ * Enabled by the system property stats.port (e.g. -Dstats.port=9100).
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public class StatsHttpServer {
+    private static final Log LOG = Log.get("stats");
+
+    /** System property holding the port of the endpoint */
+    public static final String PORT_PROPERTY = "stats.port";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Consumer<StatsSnapshot> collector;
+    private final long startedAt;
+
+    /**
+     * Binds the endpoint without starting it.
+     *
+     * @param port port to listen on, 0 for any free port
+     * @param collector fills a snapshot with the server's statistics on each request
+     * @throws IOException if the port cannot be bound
+     */
+    public StatsHttpServer(int port, Consumer<StatsSnapshot> collector) throws IOException {
+        this.collector = collector;
+        this.startedAt = System.currentTimeMillis();
+        this.server = HttpServer.create(new InetSocketAddress(port), 16);
+        this.executor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "stats-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/metrics", exchange ->
+                respond(exchange, "text/plain; version=0.0.4; charset=utf-8", true));
+        server.createContext("/stats", exchange ->
+                respond(exchange, "application/json; charset=utf-8", false));
+        server.createContext("/health", exchange ->
+                send(exchange, 200, "text/plain; charset=utf-8", "OK\n"));
+    }
+
+    /**
+     * Starts the endpoint if the stats.port property is set.
+     *
+     * @param collector fills a snapshot with the server's statistics
+     * @return the running endpoint, or null if disabled or the port could not be bound
+     */
+    public static StatsHttpServer startIfConfigured(Consumer<StatsSnapshot> collector) {
+        Integer port = Integer.getInteger(PORT_PROPERTY);
+        if (port == null) {
+            return null;
+        }
+        try {
+            StatsHttpServer stats = new StatsHttpServer(port, collector);
+            stats.start();
+            return stats;
+        } catch (IOException e) {
+            LOG.error("[STATS] Cannot bind stats endpoint on port " + port + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Starts serving requests.
+     */
+    public void start() {
+        server.start();
+        LOG.info("[STATS] Endpoint on http://localhost:" + getPort() + "/metrics (JSON: /stats)");
+    }
+
+    /**
+     * Stops the endpoint and its thread.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the bound port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Collects a fresh snapshot and sends it in the requested format.
+     */
+    private void respond(HttpExchange exchange, String contentType, boolean prometheus) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            send(exchange, 405, "text/plain; charset=utf-8", "Method not allowed\n");
+            return;
+        }
+        String body;
+        try {
+            StatsSnapshot snapshot = new StatsSnapshot();
+            collectProcess(snapshot);
+            collector.accept(snapshot);
+            body = prometheus ? snapshot.toPrometheus() : snapshot.toJson();
+        } catch (RuntimeException e) {
+            LOG.error("[STATS] Collection failed", e);
+            send(exchange, 500, "text/plain; charset=utf-8", "Collection failed\n");
+            return;
+        }
+        send(exchange, 200, contentType, body);
+    }
+
+    /**
+     * Adds the JVM figures every server shares.
+     */
+    private void collectProcess(StatsSnapshot snapshot) {
+        Runtime runtime = Runtime.getRuntime();
+        snapshot.gauge("process_uptime_seconds", "Seconds since the endpoint started",
+                       (System.currentTimeMillis() - startedAt) / 1000.0);
+        snapshot.gauge("jvm_memory_used_bytes", "Heap in use", runtime.totalMemory() - runtime.freeMemory());
+        snapshot.gauge("jvm_memory_max_bytes", "Maximum heap", runtime.maxMemory());
+        snapshot.gauge("jvm_threads", "Live threads", ManagementFactory.getThreadMXBean().getThreadCount());
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body)
+            throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package Common;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Point-in-time set of server statistics, filled by a collector on each scrape
+ * and rendered either as Prometheus text (version 0.0.4) or as JSON.
+ * Metrics are grouped in families sharing a name, a type and a help line; a
+ * family has at most one label ("room", "type"...).
+ * Not thread-safe: one instance per scrape.
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public final class StatsSnapshot {
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+    private static final String[] QUANTILE_LABELS = {"0.5", "0.99", "0.999"};
+    private static final String[] QUANTILE_KEYS = {"p50", "p99", "p999"};
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    /**
+     * One metric family: every sample of one name.
+     */
+    private static final class Family {
+        final String name;
+        final String type;
+        final String help;
+        final String label;
+        final List<Sample> samples = new ArrayList<>();
+
+        Family(String name, String type, String help, String label) {
+            this.name = name;
+            this.type = type;
+            this.help = help;
+            this.label = label;
+        }
+    }
+
+    /**
+     * One value. Summary samples carry a quantile or a _sum/_count suffix.
+     */
+    private static final class Sample {
+        final String labelValue;
+        final String quantile;
+        final String suffix;
+        final String jsonKey;
+        final double value;
+
+        Sample(String labelValue, String quantile, String suffix, String jsonKey, double value) {
+            this.labelValue = labelValue;
+            this.quantile = quantile;
+            this.suffix = suffix;
+            this.jsonKey = jsonKey;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Adds a monotonically increasing value.
+     *
+     * @param name metric name, ending in _total by convention
+     * @param help one-line description
+     * @param value current value
+     * @return this snapshot
+     */
+    public StatsSnapshot counter(String name, String help, double value) {
+        return counter(name, help, null, null, value);
+    }
+
+    /**
+     * Adds one labelled sample of a counter family.
+     *
+     * @param name metric name
+     * @param help one-line description
+     * @param label label name, or null
+     * @param labelValue label value, or null
+     * @param value current value
+     * @return this snapshot
+     */
+    public StatsSnapshot counter(String name, String help, String label, String labelValue, double value) {
+        family(name, "counter", help, label).samples.add(new Sample(labelValue, null, "", null, value));
+        return this;
+    }
+
+    /**
+     * Adds a value that can go up and down.
+     *
+     * @param name metric name
+     * @param help one-line description
+     * @param value current value
+     * @return this snapshot
+     */
+    public StatsSnapshot gauge(String name, String help, double value) {
+        return gauge(name, help, null, null, value);
+    }
+
+    /**
+     * Adds one labelled sample of a gauge family.
+     *
+     * @param name metric name
+     * @param help one-line description
+     * @param label label name, or null
+     * @param labelValue label value, or null
+     * @param value current value
+     * @return this snapshot
+     */
+    public StatsSnapshot gauge(String name, String help, String label, String labelValue, double value) {
+        family(name, "gauge", help, label).samples.add(new Sample(labelValue, null, "", null, value));
+        return this;
+    }
+
+    /**
+     * Adds a histogram as a summary (p50, p99, p999, sum, count) plus a
+     * &lt;name&gt;_max gauge.
+     *
+     * @param name metric name, e.g. chat_dispatch_seconds
+     * @param help one-line description
+     * @param label label name, or null
+     * @param labelValue label value, or null
+     * @param histogram histogram snapshot
+     * @param divisor recorded units per exported unit, e.g. 1e9 for nanoseconds to seconds
+     * @return this snapshot
+     */
+    public StatsSnapshot summary(String name, String help, String label, String labelValue,
+                                 Histogram.Snapshot histogram, double divisor) {
+        Family family = family(name, "summary", help, label);
+        for (int i = 0; i < QUANTILES.length; i++) {
+            family.samples.add(new Sample(labelValue, QUANTILE_LABELS[i], "", QUANTILE_KEYS[i],
+                                          histogram.getPercentile(QUANTILES[i]) / divisor));
+        }
+        family.samples.add(new Sample(labelValue, null, "_sum", "sum", histogram.getSum() / divisor));
+        family.samples.add(new Sample(labelValue, null, "_count", "count", histogram.getCount()));
+        return gauge(name + "_max", "Largest value of " + name, label, labelValue, histogram.getMax() / divisor);
+    }
+
+    private Family family(String name, String type, String help, String label) {
+        Family family = families.get(name);
+        if (family == null) {
+            family = new Family(name, type, help, label);
+            families.put(name, family);
+        } else if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + family.type + ", not a " + type);
+        }
+        return family;
+    }
+
+    /**
+     * Renders the Prometheus text exposition format.
+     *
+     * @return one HELP/TYPE header per family followed by its samples
+     */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder();
+        for (Family family : families.values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Sample sample : family.samples) {
+                out.append(family.name).append(sample.suffix);
+                boolean labelled = family.label != null && sample.labelValue != null;
+                if (labelled || sample.quantile != null) {
+                    out.append('{');
+                    if (labelled) {
+                        out.append(family.label).append("=\"");
+                        appendPrometheusEscaped(out, sample.labelValue);
+                        out.append('"');
+                    }
+                    if (sample.quantile != null) {
+                        out.append(labelled ? "," : "").append("quantile=\"").append(sample.quantile).append('"');
+                    }
+                    out.append('}');
+                }
+                out.append(' ').append(format(sample.value)).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Renders a JSON object keyed by metric name. Unlabelled values are numbers,
+     * labelled families are objects keyed by label value, and summaries are
+     * objects with p50/p99/p999/sum/count fields.
+     *
+     * @return the JSON document
+     */
+    public String toJson() {
+        StringBuilder out = new StringBuilder("{");
+        boolean firstFamily = true;
+        for (Family family : families.values()) {
+            out.append(firstFamily ? "\n  " : ",\n  ");
+            firstFamily = false;
+            appendJsonString(out, family.name);
+            out.append(": ");
+
+            if (family.label == null) {
+                appendJsonValues(out, family.samples, 0, family.samples.size());
+                continue;
+            }
+
+            out.append('{');
+            int start = 0;
+            while (start < family.samples.size()) {
+                String labelValue = family.samples.get(start).labelValue;
+                int end = start + 1;
+                while (end < family.samples.size() && sameLabel(family.samples.get(end).labelValue, labelValue)) {
+                    end++;
+                }
+                out.append(start == 0 ? "" : ", ");
+                appendJsonString(out, labelValue == null ? "" : labelValue);
+                out.append(": ");
+                appendJsonValues(out, family.samples, start, end);
+                start = end;
+            }
+            out.append('}');
+        }
+        return out.append("\n}\n").toString();
+    }
+
+    /**
+     * Writes the samples of one label value: a bare number, or an object for summaries.
+     */
+    private static void appendJsonValues(StringBuilder out, List<Sample> samples, int start, int end) {
+        if (end - start == 1 && samples.get(start).jsonKey == null) {
+            out.append(formatJson(samples.get(start).value));
+            return;
+        }
+        out.append('{');
+        for (int i = start; i < end; i++) {
+            Sample sample = samples.get(i);
+            out.append(i == start ? "" : ", ");
+            appendJsonString(out, sample.jsonKey != null ? sample.jsonKey : String.valueOf(i - start));
+            out.append(": ").append(formatJson(sample.value));
+        }
+        out.append('}');
+    }
+
+    private static boolean sameLabel(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    private static String formatJson(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : format(value);
+    }
+
+    private static void appendPrometheusEscaped(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    private static void appendJsonString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+}
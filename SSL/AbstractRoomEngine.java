@@ -0,0 +1,119 @@
+package SSL;
+
+import Common.Log;
+
+import java.util.Arrays;
+
+/**
+ * Fan-out shared by the room engines: both end up offering one message to an
+ * array of members, only the thread and the room structure differ. Also hands
+ * out the dense room handles, reusing those of reclaimed rooms.
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+abstract class AbstractRoomEngine implements RoomEngine {
+    protected static final Log LOG = Log.get("protocol");
+
+    protected final ChatMetrics metrics;
+
+    private int[] freeHandles = new int[16];    // Guarded by this
+    private int freeCount;                      // Guarded by this
+    private int nextHandle;                     // Guarded by this
+
+    /**
+     * @param metrics registry receiving fan-out metrics
+     */
+    protected AbstractRoomEngine(ChatMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the handle of a reclaimed room if any, otherwise a new one
+     */
+    protected synchronized int allocateHandle() {
+        return freeCount > 0 ? freeHandles[--freeCount] : nextHandle++;
+    }
+
+    /**
+     * Makes the handle of a reclaimed room available again.
+     *
+     * @param handle handle of the reclaimed room
+     */
+    protected synchronized void releaseHandle(int handle) {
+        if (freeCount == freeHandles.length) {
+            freeHandles = Arrays.copyOf(freeHandles, freeCount * 2);
+        }
+        freeHandles[freeCount++] = handle;
+    }
+
+    /**
+     * Offers a room broadcast to the first count members.
+     * Encoded (and compressed) once per protocol version, member writes share
+     * the read-only frames.
+     *
+     * @param roomName room the message is broadcast to
+     * @param message message as sent to the members
+     * @param members member array, possibly longer than count
+     * @param count number of members
+     * @return members whose queue accepted the frame
+     */
+    protected int deliver(String roomName, ChatMessage message, ClientSession[] members, int count) {
+        BroadcastEvent event = new BroadcastEvent();
+        event.begin();
+
+        int delivered = 0;
+        long bytes = 0;
+        for (int i = 0; i < count; i++) {
+            ClientSession member = members[i];
+            byte[] frame = member.frameFor(message);
+            if (member.getOutbound().offer(frame, false)) {
+                delivered++;
+                bytes += frame.length;
+            } else {
+                LOG.warn("[BROADCAST ERROR] Failed for " + member.getUsername());
+            }
+        }
+
+        if (ChatMetrics.ENABLED) {
+            metrics.recordFanOut(delivered, count - delivered);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.room = roomName;
+            event.members = count;
+            event.delivered = delivered;
+            event.bytes = bytes;
+            event.commit();
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("[BROADCAST] Delivered to " + delivered + " members");
+        }
+        return delivered;
+    }
+
+    /**
+     * Sends a system notification to the first count members except one.
+     *
+     * @param roomName room name
+     * @param members member array, possibly longer than count
+     * @param count number of members
+     * @param notification message to send
+     * @param exclude session to skip (the one the notification is about)
+     */
+    protected void notifyMembers(String roomName, ClientSession[] members, int count,
+                                 String notification, ClientSession exclude) {
+        ChatMessage msg = new ChatMessage(MessageType.TEXT_MESSAGE, "system",
+                                          "[SYSTEM] " + notification);
+        msg.setRoomId(roomName);
+
+        for (int i = 0; i < count; i++) {
+            ClientSession member = members[i];
+            if (member != exclude
+                    && !member.getOutbound().offer(member.frameFor(msg), true)) {
+                LOG.warn("[NOTIFY ERROR] " + member.getUsername());
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package SSL;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Body codec of protocol version 2.
+ * Layout (big-endian, strings are UTF-8):
+ * <pre>
+ *   timestamp  8 bytes   milliseconds since the epoch
+ *   flags      1 byte    bit 0: room present, bit 1: recipient present
+ *   sender     2 bytes length + bytes
+ *   content    4 bytes length + bytes
+ *   room       2 bytes length + bytes   (if flag bit 0)
+ *   recipient  2 bytes length + bytes   (if flag bit 1)
+ * </pre>
+ * Unlike the v1 JSON body, any content (quotes, backslashes, newlines) is carried
+ * verbatim and no field is searched for: each one is read exactly once.
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+final class BinaryBodyCodec {
+    private static final int FLAG_ROOM = 0x01;
+    private static final int FLAG_RECIPIENT = 0x02;
+    private static final int MAX_SHORT_FIELD = 0xFFFF;
+
+    private BinaryBodyCodec() {
+    }
+
+    /**
+     * Encodes the body behind a reserved header area. Strings are UTF-8 encoded
+     * straight into a borrowed scratch array, which is copied once into an
+     * exact-size frame.
+     *
+     * @param message message to encode
+     * @param headerSize bytes left free at the start of the frame for the header
+     * @return frame holding headerSize reserved bytes followed by the body
+     * @throws IllegalArgumentException if sender, room or recipient exceed 65535 bytes
+     */
+    static byte[] encode(ChatMessage message, int headerSize) {
+        String sender = message.getSender();
+        String content = message.getContent();
+        String room = message.getRoomId();
+        String recipient = message.getRecipient();
+        int bound = headerSize + 8 + 1 + 2 + 4 + maxUtf8Size(sender) + maxUtf8Size(content);
+        int longest = Math.max(length(sender), length(content));
+        int flags = 0;
+        if (room != null) {
+            flags |= FLAG_ROOM;
+            bound += 2 + maxUtf8Size(room);
+            longest = Math.max(longest, room.length());
+        }
+        if (recipient != null) {
+            flags |= FLAG_RECIPIENT;
+            bound += 2 + maxUtf8Size(recipient);
+            longest = Math.max(longest, recipient.length());
+        }
+
+        byte[] body = BufferPool.borrowScratch(bound);
+        char[] chars = BufferPool.borrowScratchChars(longest);
+        try {
+            int position = headerSize;
+            long timestamp = message.getTimestamp();
+            writeInt(body, position, (int) (timestamp >>> 32));
+            writeInt(body, position + 4, (int) timestamp);
+            body[position + 8] = (byte) flags;
+            position = putShortField(body, position + 9, sender, chars);
+
+            int contentLength = writeUtf8(content, chars, body, position + 4) - (position + 4);
+            writeInt(body, position, contentLength);
+            position += 4 + contentLength;
+
+            if (room != null) {
+                position = putShortField(body, position, room, chars);
+            }
+            if (recipient != null) {
+                position = putShortField(body, position, recipient, chars);
+            }
+            return Arrays.copyOf(body, position);
+        } finally {
+            BufferPool.returnScratchChars(chars);
+            BufferPool.returnScratch(body);
+        }
+    }
+
+    /**
+     * Decodes a body in place.
+     *
+     * @param type message type from the header
+     * @param data array holding the body
+     * @param offset index of the first body byte
+     * @param length body length
+     * @return the decoded message, with protocol version 2
+     * @throws IllegalArgumentException if a field runs past the body
+     */
+    static ChatMessage decode(MessageType type, byte[] data, int offset, int length) {
+        int end = offset + length;
+        int position = offset;
+
+        require(position, 9, end);
+        long timestamp = ((long) ChatMessage.readInt(data, position) << 32)
+                       | (ChatMessage.readInt(data, position + 4) & 0xFFFFFFFFL);
+        int flags = data[position + 8];
+        position += 9;
+
+        require(position, 2, end);
+        int senderLength = readShort(data, position);
+        position += 2;
+        require(position, senderLength, end);
+        String sender = new String(data, position, senderLength, StandardCharsets.UTF_8);
+        position += senderLength;
+
+        require(position, 4, end);
+        int contentLength = ChatMessage.readInt(data, position);
+        position += 4;
+        if (contentLength < 0) {
+            throw new IllegalArgumentException("Invalid content length: " + contentLength);
+        }
+        require(position, contentLength, end);
+        String content = new String(data, position, contentLength, StandardCharsets.UTF_8);
+        position += contentLength;
+
+        ChatMessage message = new ChatMessage(type, sender, content);
+        message.setProtocolVersion(ChatMessage.VERSION_BINARY);
+        message.setTimestamp(timestamp);
+
+        if ((flags & FLAG_ROOM) != 0) {
+            require(position, 2, end);
+            int roomLength = readShort(data, position);
+            position += 2;
+            require(position, roomLength, end);
+            message.setRoomId(new String(data, position, roomLength, StandardCharsets.UTF_8));
+            position += roomLength;
+        }
+        if ((flags & FLAG_RECIPIENT) != 0) {
+            require(position, 2, end);
+            int recipientLength = readShort(data, position);
+            position += 2;
+            require(position, recipientLength, end);
+            message.setRecipient(new String(data, position, recipientLength, StandardCharsets.UTF_8));
+        }
+        return message;
+    }
+
+    /**
+     * Writes a 2-byte length followed by the UTF-8 bytes of a string.
+     *
+     * @return index just past the field
+     */
+    private static int putShortField(byte[] body, int position, String value, char[] chars) {
+        int end = writeUtf8(value, chars, body, position + 2);
+        int length = end - position - 2;
+        if (length > MAX_SHORT_FIELD) {
+            throw new IllegalArgumentException("Field too long: " + length + " bytes");
+        }
+        body[position] = (byte) (length >> 8);
+        body[position + 1] = (byte) length;
+        return end;
+    }
+
+    /**
+     * Encodes a string as UTF-8 like String.getBytes does (an unpaired surrogate
+     * becomes '?'), without the intermediate array. A null string writes nothing.
+     *
+     * @param chars scratch array at least as long as the string
+     * @return index just past the last byte written
+     */
+    private static int writeUtf8(String value, char[] chars, byte[] dest, int position) {
+        if (value == null) {
+            return position;
+        }
+        int length = value.length();
+        value.getChars(0, length, chars, 0);
+        for (int i = 0; i < length; i++) {
+            char c = chars[i];
+            if (c < 0x80) {
+                dest[position++] = (byte) c;
+            } else if (c < 0x800) {
+                dest[position++] = (byte) (0xC0 | (c >> 6));
+                dest[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                       && Character.isLowSurrogate(chars[i + 1])) {
+                int codePoint = Character.toCodePoint(c, chars[++i]);
+                dest[position++] = (byte) (0xF0 | (codePoint >> 18));
+                dest[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                dest[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                dest[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                dest[position++] = '?';
+            } else {
+                dest[position++] = (byte) (0xE0 | (c >> 12));
+                dest[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                dest[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Upper bound of a string once UTF-8 encoded: 3 bytes per UTF-16 unit.
+     */
+    private static int maxUtf8Size(String value) {
+        return length(value) * 3;
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    private static void writeInt(byte[] data, int index, int value) {
+        data[index] = (byte) (value >> 24);
+        data[index + 1] = (byte) (value >> 16);
+        data[index + 2] = (byte) (value >> 8);
+        data[index + 3] = (byte) value;
+    }
+
+    private static int readShort(byte[] data, int index) {
+        return ((data[index] & 0xFF) << 8) | (data[index + 1] & 0xFF);
+    }
+
+    /**
+     * Checks that a field fits in the body. Compares lengths rather than adding
+     * them: a length near Integer.MAX_VALUE must not wrap around and pass.
+     *
+     * @param position index of the field
+     * @param needed field length, never negative
+     * @param end index just past the body
+     */
+    private static void require(int position, int needed, int end) {
+        if (needed > end - position) {
+            throw new IllegalArgumentException("Truncated v2 body");
+        }
+    }
+}
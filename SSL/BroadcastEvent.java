@@ -0,0 +1,39 @@
+package SSL;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JFR event spanning the fan-out of one message to a room, so tail latency
+ * can be attributed to a room and its size.
+ * Recorded only above the threshold (1 ms by default).
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+@Name("chat.Broadcast")
+@Label("Chat Broadcast")
+@Category({"Chat", "Protocol"})
+@Description("Fan-out of one text message to the members of a room")
+@StackTrace(false)
+@Threshold("1 ms")
+class BroadcastEvent extends jdk.jfr.Event {
+    @Label("Room")
+    String room;
+
+    @Label("Members")
+    int members;
+
+    @Label("Delivered")
+    @Description("Members whose outbound queue accepted the frame")
+    int delivered;
+
+    @Label("Bytes Queued")
+    @DataAmount
+    long bytes;
+}
@@ -0,0 +1,363 @@
+package SSL;
+
+import Common.Log;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of reusable ByteBuffers in power-of-two size classes, plus a few
+ * scratch arrays for the codecs.
+ * Connections take their read/write buffers from a pool when they open and give
+ * them back when they close, so a connect/disconnect cycle or a message no longer
+ * costs fresh arrays. Sizes fixed for the life of the process, such as the
+ * SSLEngine packet size (about 16.7 KB), get an exact size class of their own:
+ * rounded up to a power of two they would nearly double per-connection memory.
+ * Pools are lock-free and may be shared between threads; each event loop owns
+ * one, optionally backed by direct buffers.
+ * <p>
+ * Scratch arrays are borrowed and returned around each encoding. They live in
+ * a small striped table shared by all threads rather than in thread-locals, so
+ * thousands of virtual threads cost no more scratch memory than an event loop,
+ * and an array grown for one huge message is not kept.
+ * <p>
+ * System properties:
+ * <ul>
+ *   <li>chat.buffers.direct=true - event loops keep network buffers off-heap</li>
+ *   <li>chat.buffers.debug=true - record where each buffer was acquired and report
+ *       double releases and buffers never released (leaks)</li>
+ * </ul>
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public class BufferPool {
+    private static final Log LOG = Log.get("buffers");
+
+    /** Whether event loops allocate their network buffers off-heap */
+    public static final boolean DIRECT = Boolean.getBoolean("chat.buffers.direct");
+    /** Whether acquisitions are tracked for leak detection */
+    public static final boolean DEBUG = Boolean.getBoolean("chat.buffers.debug");
+
+    private static final int MIN_SHIFT = 9;             // Smallest class: 512 bytes
+    private static final int MAX_SHIFT = 20;            // Largest pooled class: 1 MB
+    private static final int MAX_FREE_PER_CLASS = 256;
+    private static final int POWER_CLASSES = MAX_SHIFT - MIN_SHIFT + 1;
+    private static final int MAX_EXACT_CLASSES = 4;     // Exact sizes pooled, in classes after the powers of two
+
+    private static final BufferPool SHARED = new BufferPool("shared", false);
+    /** Slots of the striped per-thread tables: a power of two, at least twice the cores */
+    static final int STRIPES = Math.max(4, 1 << (32 - Integer.numberOfLeadingZeros(
+            2 * Runtime.getRuntime().availableProcessors() - 1)));
+    private static final int MAX_SCRATCH_LENGTH = 65536;   // Larger scratch is left to the GC
+    private static final AtomicReferenceArray<byte[]> SCRATCH = new AtomicReferenceArray<>(STRIPES);
+    private static final AtomicReferenceArray<char[]> SCRATCH_CHARS = new AtomicReferenceArray<>(STRIPES);
+
+    private final String name;
+    private final boolean direct;
+    private final Queue<ByteBuffer>[] free;
+    private final AtomicInteger[] freeCounts;
+    private final int[] exactCapacities;                // Written under this before exactCount
+    private volatile int exactCount;
+    private final Map<ByteBuffer, Throwable> outstanding;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Constructs an empty pool.
+     *
+     * @param name name used in statistics and leak reports
+     * @param direct true to allocate direct buffers
+     */
+    public BufferPool(String name, boolean direct) {
+        this.name = name;
+        this.direct = direct;
+        int classes = POWER_CLASSES + MAX_EXACT_CLASSES;
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Queue<ByteBuffer>[] queues = new Queue[classes];
+        this.free = queues;
+        this.freeCounts = new AtomicInteger[classes];
+        for (int i = 0; i < classes; i++) {
+            free[i] = new ConcurrentLinkedQueue<>();
+            freeCounts[i] = new AtomicInteger();
+        }
+        this.exactCapacities = new int[MAX_EXACT_CLASSES];
+        this.outstanding = DEBUG ? Collections.synchronizedMap(new IdentityHashMap<>()) : null;
+    }
+
+    /**
+     * @return the process-wide heap pool used by blocking connections and clients
+     */
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Takes a cleared buffer of at least the requested capacity.
+     * Requests above the largest size class are served with a plain allocation.
+     *
+     * @param minCapacity minimum capacity in bytes
+     * @return a buffer in write mode (position 0, limit = capacity)
+     */
+    public ByteBuffer acquire(int minCapacity) {
+        int sizeClass = sizeClass(minCapacity);
+        return take(sizeClass, sizeClass >= 0 ? 1 << (sizeClass + MIN_SHIFT) : minCapacity);
+    }
+
+    /**
+     * Takes a cleared buffer of exactly the requested capacity, for a size that
+     * stays the same for the life of the process. The first few distinct sizes
+     * get a size class of their own; later ones are served by {@link #acquire(int)}.
+     *
+     * @param capacity capacity in bytes
+     * @return a buffer in write mode (position 0, limit = capacity)
+     */
+    public ByteBuffer acquireExact(int capacity) {
+        int sizeClass = classOf(capacity, true);
+        return sizeClass >= 0 ? take(sizeClass, capacity) : acquire(capacity);
+    }
+
+    /**
+     * @param sizeClass size class to poll, or -1 for an unpooled size
+     * @param capacity capacity of the buffers of that class
+     * @return a cleared pooled buffer, or a new one
+     */
+    private ByteBuffer take(int sizeClass, int capacity) {
+        ByteBuffer buffer = null;
+        if (sizeClass >= 0) {
+            buffer = free[sizeClass].poll();
+        }
+
+        if (buffer != null) {
+            freeCounts[sizeClass].decrementAndGet();
+            hits.increment();
+            buffer.clear();
+        } else {
+            misses.increment();
+            buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        }
+
+        if (outstanding != null) {
+            outstanding.put(buffer, new Throwable("Buffer of " + buffer.capacity()
+                                                  + " bytes acquired from pool " + name));
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. The caller must not touch it afterwards.
+     *
+     * @param buffer buffer previously returned by {@link #acquire(int)} or
+     *               {@link #acquireExact(int)} on this pool, or null
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        if (outstanding != null && outstanding.remove(buffer) == null) {
+            LOG.error("[LEAK] Buffer released twice or not from pool " + name,
+                      new IllegalStateException("Invalid release"));
+            return;
+        }
+
+        int sizeClass = classOf(buffer.capacity(), false);
+        if (sizeClass < 0 || buffer.isDirect() != direct) {
+            return; // Oversized or foreign buffer: leave it to the GC
+        }
+        if (freeCounts[sizeClass].incrementAndGet() > MAX_FREE_PER_CLASS) {
+            freeCounts[sizeClass].decrementAndGet();
+            return;
+        }
+        free[sizeClass].offer(buffer);
+    }
+
+    /**
+     * Replaces a buffer with a larger one from the pool, preserving its content.
+     *
+     * @param buffer buffer to enlarge (released to the pool)
+     * @param minCapacity minimum new capacity
+     * @param readMode true if the buffer is currently flipped for reading
+     * @return the new buffer in the same mode
+     */
+    public ByteBuffer enlarge(ByteBuffer buffer, int minCapacity, boolean readMode) {
+        ByteBuffer larger = acquire(Math.max(minCapacity, buffer.capacity() * 2));
+        if (!readMode) {
+            buffer.flip();
+        }
+        larger.put(buffer);
+        if (readMode) {
+            larger.flip();
+        }
+        release(buffer);
+        return larger;
+    }
+
+    /**
+     * Borrows a scratch array for an encoder. The caller owns it until it hands
+     * it back with {@link #returnScratch(byte[])}, normally in a finally block.
+     *
+     * @param minLength minimum length
+     * @return a scratch array, with arbitrary content
+     */
+    static byte[] borrowScratch(int minLength) {
+        byte[] scratch = SCRATCH.getAndSet(stripe(), null);
+        if (scratch == null || scratch.length < minLength) {
+            SHARED.misses.increment();
+            return new byte[Math.max(minLength, scratch != null ? scratch.length * 2 : 1024)];
+        }
+        SHARED.hits.increment();
+        return scratch;
+    }
+
+    /**
+     * Hands back an array from {@link #borrowScratch(int)}. The caller must not
+     * touch it afterwards.
+     *
+     * @param scratch the borrowed array
+     */
+    static void returnScratch(byte[] scratch) {
+        if (scratch.length <= MAX_SCRATCH_LENGTH) {
+            SCRATCH.compareAndSet(stripe(), null, scratch);
+        }
+    }
+
+    /**
+     * Borrows a scratch char array, with the same rules as {@link #borrowScratch(int)}.
+     *
+     * @param minLength minimum length
+     * @return a scratch char array, with arbitrary content
+     */
+    static char[] borrowScratchChars(int minLength) {
+        char[] scratch = SCRATCH_CHARS.getAndSet(stripe(), null);
+        if (scratch == null || scratch.length < minLength) {
+            return new char[Math.max(minLength, scratch != null ? scratch.length * 2 : 256)];
+        }
+        return scratch;
+    }
+
+    /**
+     * Hands back an array from {@link #borrowScratchChars(int)}.
+     *
+     * @param scratch the borrowed array
+     */
+    static void returnScratchChars(char[] scratch) {
+        if (scratch.length <= MAX_SCRATCH_LENGTH) {
+            SCRATCH_CHARS.compareAndSet(stripe(), null, scratch);
+        }
+    }
+
+    /**
+     * Stripe of the calling thread in a table of {@link #STRIPES} slots; a thread
+     * mostly finds what it returned last, unless another thread shares its slot.
+     * Also used by {@link FrameCompression}. Thread.threadId() needs Java 19;
+     * getId() returns the same value and is not deprecated in Java 17.
+     *
+     * @return slot index of the calling thread
+     */
+    static int stripe() {
+        return (int) Thread.currentThread().getId() & (STRIPES - 1);
+    }
+
+    /**
+     * @return pool name used in statistics
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return acquisitions served from the pool (including scratch reuse for the shared pool)
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return acquisitions that needed a new allocation
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return buffers acquired but not released yet (only tracked in debug mode, else -1)
+     */
+    public int getOutstanding() {
+        return outstanding != null ? outstanding.size() : -1;
+    }
+
+    /**
+     * Prints where every still-outstanding buffer was acquired. Call once all
+     * connections are closed; anything reported then is a leak. No-op unless
+     * chat.buffers.debug is set.
+     */
+    public void reportLeaks() {
+        if (outstanding == null) {
+            return;
+        }
+        synchronized (outstanding) {
+            for (Throwable site : outstanding.values()) {
+                LOG.error("[LEAK] Buffer never released, acquired at:", site);
+            }
+        }
+    }
+
+    /**
+     * @return one-line statistics of this pool
+     */
+    @Override
+    public String toString() {
+        return "BufferPool{" + name + ", direct=" + direct + ", hits=" + getHits()
+             + ", misses=" + getMisses()
+             + (outstanding != null ? ", outstanding=" + outstanding.size() : "") + "}";
+    }
+
+    /**
+     * @param capacity exact buffer capacity
+     * @param register true to give the capacity an exact class if it has none and one is left
+     * @return the power-of-two or exact class of that capacity, or -1 if it has none
+     */
+    private int classOf(int capacity, boolean register) {
+        int sizeClass = sizeClass(capacity);
+        if (sizeClass >= 0 && capacity == 1 << (sizeClass + MIN_SHIFT)) {
+            return sizeClass;
+        }
+        int count = exactCount;
+        for (int i = 0; i < count; i++) {
+            if (exactCapacities[i] == capacity) {
+                return POWER_CLASSES + i;
+            }
+        }
+        if (!register || capacity > 1 << MAX_SHIFT) {
+            return -1;
+        }
+        synchronized (this) {
+            for (int i = count; i < exactCount; i++) {
+                if (exactCapacities[i] == capacity) {
+                    return POWER_CLASSES + i;
+                }
+            }
+            if (exactCount == MAX_EXACT_CLASSES) {
+                return -1;
+            }
+            exactCapacities[exactCount] = capacity;
+            return POWER_CLASSES + exactCount++;
+        }
+    }
+
+    /**
+     * @return index of the smallest power-of-two class holding the capacity, or -1 if too large
+     */
+    private static int sizeClass(int capacity) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(capacity, 1 << MIN_SHIFT) - 1);
+        return shift > MAX_SHIFT ? -1 : shift - MIN_SHIFT;
+    }
+}
@@ -0,0 +1,244 @@
+package SSL;
+
+import Common.Log;
+
+import javax.net.ssl.*;
+import java.io.IOException;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single-threaded Selector loop serving many SSLEngine connections.
+ * Connections are registered from the acceptor thread; every read, TLS
+ * unwrap/wrap and frame dispatch of a connection then happens on this loop.
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public class ChatEventLoop implements Runnable {
+    private static final Log LOG = Log.get("connection");
+
+    private final Selector selector;
+    private final SSLContext sslContext;
+    private final ChatProtocolServer protocolHandler;
+    private final HandshakeStage handshakeStage;
+    private final Queue<Runnable> pendingTasks;
+    private final BufferPool buffers;
+    private final AtomicInteger connections;
+    private final String name;
+    private Thread thread;
+    private volatile boolean isRunning;
+
+    /**
+     * Constructs an event loop with its own selector.
+     *
+     * @param name thread name of the loop
+     * @param sslContext context used to create server-side engines
+     * @param protocolHandler shared protocol handler
+     * @param handshakeStage stage running the handshake tasks of the engines
+     * @throws IOException if the selector cannot be opened
+     */
+    public ChatEventLoop(String name, SSLContext sslContext, ChatProtocolServer protocolHandler,
+                         HandshakeStage handshakeStage) throws IOException {
+        this.name = name;
+        this.sslContext = sslContext;
+        this.protocolHandler = protocolHandler;
+        this.handshakeStage = handshakeStage;
+        this.selector = Selector.open();
+        this.pendingTasks = new ConcurrentLinkedQueue<>();
+        this.buffers = new BufferPool(name, BufferPool.DIRECT);
+        this.connections = new AtomicInteger();
+    }
+
+    /**
+     * Starts the loop thread.
+     */
+    public void start() {
+        isRunning = true;
+        thread = new Thread(this, name);
+        thread.start();
+    }
+
+    /**
+     * Hands an accepted channel over to this loop.
+     * Safe to call from any thread.
+     *
+     * @param channel freshly accepted client channel, already admitted by the handshake stage
+     */
+    public void register(SocketChannel channel) {
+        execute(() -> {
+            SSLEngineConnection connection = null;
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+
+                SSLEngine engine = sslContext.createSSLEngine();
+                engine.setUseClientMode(false);
+
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                connection = new SSLEngineConnection(this, channel, key, engine, protocolHandler);
+                key.attach(connection);
+                connection.beginHandshake();
+            } catch (IOException e) {
+                LOG.warn("[ERROR] Cannot register channel: " + e.getMessage());
+                if (connection != null) {
+                    connection.close();     // Also returns its buffers and admission slot
+                } else {
+                    closeQuietly(channel);
+                    handshakeStage.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return pool of network buffers of the connections on this loop
+     */
+    public BufferPool getBuffers() {
+        return buffers;
+    }
+
+    /**
+     * @return stage running the handshake tasks of this loop's connections
+     */
+    HandshakeStage getHandshakeStage() {
+        return handshakeStage;
+    }
+
+    /**
+     * @return loop thread name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return connections currently served by this loop
+     */
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    /**
+     * Tracks a connection from buffer acquisition to buffer release.
+     *
+     * @param opened true when a connection is created, false once its buffers are released
+     */
+    void connectionChanged(boolean opened) {
+        if (opened) {
+            connections.incrementAndGet();
+        } else {
+            connections.decrementAndGet();
+        }
+    }
+
+    /**
+     * Queues a task to run on the loop thread and wakes the selector.
+     *
+     * @param task task to run
+     */
+    public void execute(Runnable task) {
+        pendingTasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Runs the select loop until {@link #shutdown()} is called.
+     */
+    @Override
+    public void run() {
+        while (isRunning) {
+            try {
+                selector.select();
+                runPendingTasks();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    processKey(key);
+                }
+            } catch (IOException e) {
+                LOG.warn("[ERROR] Event loop " + name + ": " + e.getMessage());
+            } catch (ClosedSelectorException e) {
+                break;
+            }
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            SSLEngineConnection connection = (SSLEngineConnection) key.attachment();
+            if (connection != null) {
+                connection.close();
+            }
+        }
+        runPendingTasks();  // Buffer releases queued by close()
+        buffers.reportLeaks();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOG.warn("[ERROR] Closing selector: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Dispatches readiness events of one key to its connection.
+     *
+     * @param key the selected key
+     */
+    private void processKey(SelectionKey key) {
+        SSLEngineConnection connection = (SSLEngineConnection) key.attachment();
+        if (connection == null) {
+            return;
+        }
+        try {
+            if (key.isValid() && key.isReadable()) {
+                connection.onReadable();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.onWritable();
+            }
+        } catch (IOException e) {
+            LOG.info("[DISCONNECTION] " + e.getMessage());
+            connection.close();
+        } catch (CancelledKeyException e) {
+            connection.close();
+        } catch (RuntimeException e) {
+            // A bug or a hostile input on one connection must not end the loop serving all others
+            LOG.error("[ERROR] Event loop " + name + ": closing connection after unexpected failure", e);
+            connection.close();
+        }
+    }
+
+    /**
+     * Runs tasks queued from other threads (registrations, flush requests).
+     */
+    private void runPendingTasks() {
+        Runnable task;
+        while ((task = pendingTasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LOG.warn("[ERROR] Event loop task: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stops the loop and closes all of its connections.
+     */
+    public void shutdown() {
+        isRunning = false;
+        selector.wakeup();
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Nothing more to release
+        }
+    }
+}
@@ -1,17 +1,27 @@
 package SSL;
 
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
 
 /**
  * Represents a chat message in the custom protocol.
- * Uses hybrid approach: binary header + JSON body for efficient transmission.
+ * Uses hybrid approach: binary header + body for efficient transmission.
+ * The header's version byte selects the body format: 1 = JSON, 2 = binary
+ * (see {@link BinaryBodyCodec}). The two high bits of the type byte are flags:
+ * a compressed body and, on login frames, compression support
+ * (see {@link FrameCompression}).
  * Supports serialization and deserialization for network communication.
  * 
  * @author Arthur Jouve & Ewan Zahra Thenault
  * @version 1.0
  */
 public class ChatMessage {
+    /** Size of the binary header: version(1) + type(1) + length(4) + timestamp(4) */
+    public static final int HEADER_SIZE = 10;
+    /** Protocol version with a JSON body */
+    public static final int VERSION_JSON = 1;
+    /** Protocol version with a length-prefixed binary body */
+    public static final int VERSION_BINARY = 2;
+    
     private MessageType messageType;
     private int protocolVersion;
     private long timestamp;
@@ -19,6 +29,15 @@ public class ChatMessage {
     private String recipient;
     private String content;
     private String roomId;
+    private boolean acceptsCompression;
+    private boolean compressed;             // Received as a compressed frame
+    // Encoded frames, cached until a field changes. Volatile so that threads
+    // fanning the same message out (room shards, cluster links) may encode it
+    // concurrently: each writes an identical frame, and readers see it whole
+    private volatile byte[] jsonFrame;
+    private volatile byte[] binaryFrame;
+    private volatile byte[] compressedJsonFrame;
+    private volatile byte[] compressedBinaryFrame;
     
     /**
      * Constructs a ChatMessage with the specified type, sender and content.
@@ -30,81 +49,239 @@ public class ChatMessage {
      */
     public ChatMessage(MessageType messageType, String sender, String content) {
         this.messageType = messageType;
-        this.protocolVersion = 1;
+        this.protocolVersion = VERSION_JSON;
         this.timestamp = System.currentTimeMillis();
         this.sender = sender;
         this.content = content;
     }
     
     /**
-     * Serializes the message to a byte array for network transmission.
-     * Format: Binary header (10 bytes) + JSON body (variable size).
+     * Serializes the message to a byte array for network transmission,
+     * using this message's protocol version.
+     * Format: Binary header (10 bytes) + body (variable size).
      * Header contains: version(1) + type(1) + length(4) + timestamp(4).
      * 
-     * @return byte array representation of the message
+     * @return byte array representation of the message (shared, do not modify)
      */
     public byte[] serialize() {
-        // Create JSON body
-        String json = "{\"type\":\"" + messageType + "\",\"sender\":\"" + sender + 
-                      "\",\"content\":\"" + content + "\"}";
-        byte[] bodyBytes = json.getBytes(StandardCharsets.UTF_8);
-        
-        // Create binary header (10 bytes)
-        ByteBuffer buffer = ByteBuffer.allocate(10 + bodyBytes.length);
-        buffer.put((byte) protocolVersion);              // 1 byte: protocol version
-        buffer.put((byte) messageType.ordinal());        // 1 byte: message type
-        buffer.putInt(bodyBytes.length);                 // 4 bytes: body length
+        return serialize(protocolVersion);
+    }
+    
+    /**
+     * Serializes the message for a peer speaking the given protocol version.
+     * The frame is encoded once per version and cached, so a broadcast to
+     * members with mixed versions costs at most one encoding per version.
+     * Safe to call from several threads once the fields are set; threads
+     * racing on the first call may each encode the frame.
+     * 
+     * @param version VERSION_JSON or VERSION_BINARY
+     * @return byte array representation of the message (shared, do not modify)
+     */
+    public byte[] serialize(int version) {
+        if (version == VERSION_BINARY) {
+            byte[] frame = binaryFrame;
+            if (frame == null) {
+                frame = BinaryBodyCodec.encode(this, HEADER_SIZE);
+                writeHeader(frame, VERSION_BINARY, frame.length - HEADER_SIZE);
+                binaryFrame = frame;
+            }
+            return frame;
+        }
+        byte[] frame = jsonFrame;
+        if (frame == null) {
+            frame = JsonBodyCodec.encode(this, HEADER_SIZE);
+            writeHeader(frame, VERSION_JSON, frame.length - HEADER_SIZE);
+            jsonFrame = frame;
+        }
+        return frame;
+    }
+    
+    /**
+     * Serializes the message for a peer, compressing the body if the peer
+     * negotiated compression and the body is over chat.compression.threshold.
+     * Like the plain frames, the compressed frame is built once per version and
+     * cached: a broadcast deflates once, not once per recipient.
+     * 
+     * @param version VERSION_JSON or VERSION_BINARY
+     * @param compress true if the peer accepts compressed frames
+     * @return byte array representation of the message (shared, do not modify)
+     */
+    public byte[] serialize(int version, boolean compress) {
+        if (!compress || !FrameCompression.ENABLED) {
+            return serialize(version);
+        }
+        byte[] cached = version == VERSION_BINARY ? compressedBinaryFrame : compressedJsonFrame;
+        if (cached != null) {
+            return cached;
+        }
+        int encodedVersion = version == VERSION_BINARY ? VERSION_BINARY : VERSION_JSON;
+        byte[] plain = serialize(encodedVersion);
+        byte[] frame = FrameCompression.compress(plain, HEADER_SIZE);
+        if (frame == null) {
+            frame = plain;      // Small or incompressible body: sent as is
+        } else {
+            writeHeader(frame, encodedVersion, frame.length - HEADER_SIZE, FrameCompression.FLAG_COMPRESSED);
+        }
+        if (encodedVersion == VERSION_BINARY) {
+            compressedBinaryFrame = frame;
+        } else {
+            compressedJsonFrame = frame;
+        }
+        return frame;
+    }
+    
+    /**
+     * Writes the binary header (10 bytes) at the start of a frame.
+     * 
+     * @param frame destination frame
+     * @param version protocol version written in the header
+     * @param bodyLength length of the body that follows
+     */
+    private void writeHeader(byte[] frame, int version, int bodyLength) {
+        writeHeader(frame, version, bodyLength, 0);
+    }
+    
+    /**
+     * Writes the binary header with extra flags in the type byte.
+     * 
+     * @param frame destination frame
+     * @param version protocol version written in the header
+     * @param bodyLength length of the body that follows
+     * @param flags FrameCompression flags or'ed into the type byte
+     */
+    private void writeHeader(byte[] frame, int version, int bodyLength, int flags) {
+        if (acceptsCompression) {
+            flags |= FrameCompression.FLAG_ACCEPTS_COMPRESSION;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(frame, 0, HEADER_SIZE);
+        buffer.put((byte) version);                      // 1 byte: protocol version
+        buffer.put((byte) (messageType.ordinal() | flags));  // 1 byte: message type + flags
+        buffer.putInt(bodyLength);                       // 4 bytes: body length
         buffer.putInt((int) (timestamp / 1000));         // 4 bytes: timestamp
-        buffer.put(bodyBytes);                           // variable: JSON body
-        
-        return buffer.array();
     }
     
     /**
      * Deserializes a byte array into a ChatMessage object.
-     * Parses the binary header to extract metadata and decodes the JSON body.
+     * Parses the binary header to extract metadata and decodes the body.
      * 
      * @param data the byte array containing the serialized message
      * @return the reconstructed ChatMessage object
      */
     public static ChatMessage deserialize(byte[] data) {
-        ByteBuffer buffer = ByteBuffer.wrap(data);
+        return decode(data, 0, data.length);
+    }
+    
+    /**
+     * Decodes one frame in place from a region of a larger array (typically a
+     * reusable per-connection read buffer). Only the field strings are allocated.
+     * 
+     * @param data array holding the frame
+     * @param offset index of the first header byte
+     * @param length number of bytes available from offset
+     * @return the decoded message
+     * @throws IllegalArgumentException if the frame is truncated, has an unknown type
+     *         or a corrupt compressed body
+     */
+    public static ChatMessage decode(byte[] data, int offset, int length) {
+        return decode(data, offset, length, FrameCompression.MAX_ORIGINAL_LENGTH);
+    }
+    
+    /**
+     * Decodes one frame in place, bounding the size a compressed body may
+     * inflate to, so a small frame cannot expand past the reader's body limit.
+     * 
+     * @param data array holding the frame
+     * @param offset index of the first header byte
+     * @param length number of bytes available from offset
+     * @param maxBodyLength largest body accepted once inflated
+     * @return the decoded message
+     * @throws IllegalArgumentException if the frame is truncated, has an unknown type,
+     *         a corrupt compressed body or one inflating past maxBodyLength
+     */
+    public static ChatMessage decode(byte[] data, int offset, int length, int maxBodyLength) {
+        if (length < HEADER_SIZE) {
+            throw new IllegalArgumentException("Truncated header: " + length + " bytes");
+        }
         
         // Parse binary header
-        int version = buffer.get();
-        int typeOrdinal = buffer.get();
-        int bodyLength = buffer.getInt();
-        long timestamp = buffer.getInt() * 1000L;
+        int version = data[offset];
+        int typeCode = data[offset + 1] & 0xFF;
+        int bodyLength = readInt(data, offset + 2);
+        long timestamp = readInt(data, offset + 6) * 1000L;
+        if (bodyLength < 0 || bodyLength > length - HEADER_SIZE) {
+            throw new IllegalArgumentException("Invalid body length: " + bodyLength);
+        }
+        MessageType type = MessageType.fromCode(typeCode & FrameCompression.TYPE_MASK);
+        if (version != VERSION_BINARY && version != VERSION_JSON) {
+            throw new IllegalArgumentException("Unsupported protocol version: " + version);
+        }
         
-        // Parse JSON body
-        byte[] bodyBytes = new byte[bodyLength];
-        buffer.get(bodyBytes);
-        String json = new String(bodyBytes, StandardCharsets.UTF_8);
+        byte[] body = data;
+        int bodyOffset = offset + HEADER_SIZE;
+        if ((typeCode & FrameCompression.FLAG_COMPRESSED) != 0) {
+            body = FrameCompression.decompress(data, bodyOffset, bodyLength, maxBodyLength);
+            bodyOffset = 0;
+            bodyLength = body.length;
+        }
         
-        // Extract fields from JSON
-        String sender = extractField(json, "sender");
-        String content = extractField(json, "content");
-        
-        // Reconstruct message
-        ChatMessage msg = new ChatMessage(MessageType.values()[typeOrdinal], sender, content);
-        msg.setTimestamp(timestamp);
+        ChatMessage msg;
+        if (version == VERSION_BINARY) {
+            msg = BinaryBodyCodec.decode(type, body, bodyOffset, bodyLength);
+        } else {
+            // Tokenize the JSON body straight from the frame bytes
+            msg = JsonBodyCodec.decode(type, body, bodyOffset, bodyLength);
+            msg.setTimestamp(timestamp);
+        }
+        msg.acceptsCompression = (typeCode & FrameCompression.FLAG_ACCEPTS_COMPRESSION) != 0;
+        msg.compressed = (typeCode & FrameCompression.FLAG_COMPRESSED) != 0;
         
         return msg;
     }
     
     /**
-     * Extracts a field value from a JSON string.
-     * Simple JSON parsing for key-value pairs.
+     * Decodes the frame starting at the buffer's position and advances the
+     * position past it. Heap buffers are decoded in place without copying.
+     * 
+     * @param buffer buffer in read mode holding at least one complete frame
+     * @return the decoded message
+     */
+    public static ChatMessage decode(ByteBuffer buffer) {
+        return decode(buffer, FrameCompression.MAX_ORIGINAL_LENGTH);
+    }
+    
+    /**
+     * Decodes the frame starting at the buffer's position and advances the
+     * position past it, bounding the size a compressed body may inflate to.
      * 
-     * @param json the JSON string to parse
-     * @param field the field name to extract
-     * @return the field value, or empty string if not found
+     * @param buffer buffer in read mode holding at least one complete frame
+     * @param maxBodyLength largest body accepted once inflated
+     * @return the decoded message
      */
-    private static String extractField(String json, String field) {
-        String pattern = "\"" + field + "\":\"";
-        int start = json.indexOf(pattern) + pattern.length();
-        int end = json.indexOf("\"", start);
-        return json.substring(start, end);
+    public static ChatMessage decode(ByteBuffer buffer, int maxBodyLength) {
+        int frameLength = HEADER_SIZE + buffer.getInt(buffer.position() + 2);
+        ChatMessage msg;
+        if (buffer.hasArray()) {
+            msg = decode(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(),
+                         maxBodyLength);
+        } else {
+            byte[] copy = new byte[Math.min(Math.max(frameLength, HEADER_SIZE), buffer.remaining())];
+            buffer.get(buffer.position(), copy);
+            msg = decode(copy, 0, copy.length, maxBodyLength);
+        }
+        buffer.position(buffer.position() + frameLength);
+        return msg;
+    }
+    
+    /**
+     * Reads a big-endian int from an array.
+     * 
+     * @param data source array
+     * @param index index of the most significant byte
+     * @return the int value
+     */
+    static int readInt(byte[] data, int index) {
+        return ((data[index] & 0xFF) << 24) | ((data[index + 1] & 0xFF) << 16)
+             | ((data[index + 2] & 0xFF) << 8) | (data[index + 3] & 0xFF);
     }
     
     /**
@@ -140,6 +317,61 @@ public class ChatMessage {
         return content;
     }
     
+    /**
+     * @return the protocol version (VERSION_JSON or VERSION_BINARY)
+     */
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+    
+    /**
+     * Sets the protocol version used by {@link #serialize()}.
+     * 
+     * @param protocolVersion VERSION_JSON or VERSION_BINARY
+     */
+    public void setProtocolVersion(int protocolVersion) {
+        this.protocolVersion = protocolVersion;
+    }
+    
+    /**
+     * @return true if the sender set the compression flag (login negotiation)
+     */
+    public boolean acceptsCompression() {
+        return acceptsCompression;
+    }
+    
+    /**
+     * @return true if the message was decoded from a compressed frame
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+    
+    /**
+     * Sets the compression flag written in the header: on a LOGIN_REQUEST it
+     * offers compression, on a LOGIN_RESPONSE it accepts the offer.
+     * 
+     * @param acceptsCompression true to set the flag
+     */
+    public void setAcceptsCompression(boolean acceptsCompression) {
+        this.acceptsCompression = acceptsCompression;
+        invalidateFrames();
+    }
+    
+    /**
+     * @return the recipient username, or null if not a private message
+     */
+    public String getRecipient() {
+        return recipient;
+    }
+    
+    /**
+     * @return the room identifier, or null if not set
+     */
+    public String getRoomId() {
+        return roomId;
+    }
+    
     /**
      * @return the timestamp in milliseconds
      */
@@ -154,6 +386,7 @@ public class ChatMessage {
      */
     public void setTimestamp(long timestamp) {
         this.timestamp = timestamp;
+        invalidateFrames();
     }
     
     /**
@@ -163,6 +396,7 @@ public class ChatMessage {
      */
     public void setRecipient(String recipient) {
         this.recipient = recipient;
+        invalidateFrames();
     }
     
     /**
@@ -172,6 +406,17 @@ public class ChatMessage {
      */
     public void setRoomId(String roomId) {
         this.roomId = roomId;
+        invalidateFrames();
+    }
+    
+    /**
+     * Drops cached encodings after a field change.
+     */
+    private void invalidateFrames() {
+        jsonFrame = null;
+        binaryFrame = null;
+        compressedJsonFrame = null;
+        compressedBinaryFrame = null;
     }
     
     /**
@@ -0,0 +1,282 @@
+package SSL;
+
+import Common.Histogram;
+import Common.StatsSnapshot;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hot-path metrics of one chat server: frames per {@link MessageType}, decode
+ * and dispatch latency, broadcast fan-out, delivery failures, write latency and
+ * TLS handshakes (full or resumed).
+ * Counters are striped LongAdders and latencies lock-free {@link Histogram}s,
+ * so handler threads and event loops record without contending.
+ * Clock reads are kept to one pair per received frame; outbound drains, which
+ * can run once per delivered frame, are timed on a sample and their frames
+ * counted per session only ({@link OutboundQueue#getFramesWritten()}).
+ * Setting -Dchat.metrics=false turns every call site into a constant-false branch.
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public class ChatMetrics {
+    /** Whether metrics are recorded at all */
+    public static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("chat.metrics"));
+    /** Frames written by a session between two timed drains */
+    static final int WRITE_SAMPLE = Math.max(1, Integer.getInteger("chat.metrics.write.sample", 64));
+
+    private static final MessageType[] TYPES = MessageType.values();
+
+    private final Histogram[] dispatchNanos;     // Counts double as per-type frame counters
+    private final Histogram decodeNanos = new Histogram();
+    private final Histogram fanOut = new Histogram();
+    private final Histogram writeNanos = new Histogram();
+    private final Histogram framesPerWrite = new Histogram();
+    private final LongAdder malformed = new LongAdder();
+    private final LongAdder directDeliveries = new LongAdder();    // Broadcast ones are the fan-out sum
+    private final LongAdder deliveryFailures = new LongAdder();
+    private final LongAdder droppedFrames = new LongAdder();
+    private final Histogram fullHandshakeNanos = new Histogram();
+    private final Histogram resumedHandshakeNanos = new Histogram();
+
+    /**
+     * Constructs an empty registry.
+     */
+    public ChatMetrics() {
+        dispatchNanos = new Histogram[TYPES.length];
+        for (int i = 0; i < TYPES.length; i++) {
+            dispatchNanos[i] = new Histogram();
+        }
+    }
+
+    /**
+     * @param nanos time spent decoding one frame
+     */
+    public void recordDecode(long nanos) {
+        decodeNanos.record(nanos);
+    }
+
+    /**
+     * Counts a frame that could not be decoded.
+     */
+    public void recordMalformed() {
+        malformed.increment();
+    }
+
+    /**
+     * Counts a handled frame and its dispatch time. For TEXT_MESSAGE this is the
+     * full broadcastToRoom time, fan-out included.
+     *
+     * @param type frame type
+     * @param nanos time spent in the protocol handler
+     */
+    public void recordDispatch(MessageType type, long nanos) {
+        dispatchNanos[type.ordinal()].record(nanos);
+    }
+
+    /**
+     * Records one completed TLS handshake.
+     *
+     * @param resumed true if an earlier session was resumed
+     * @param nanos time from the first handshake byte to completion
+     */
+    public void recordHandshake(boolean resumed, long nanos) {
+        (resumed ? resumedHandshakeNanos : fullHandshakeNanos).record(nanos);
+    }
+
+    /**
+     * Records one room broadcast.
+     *
+     * @param delivered members whose queue accepted the frame
+     * @param failed members whose queue refused it
+     */
+    void recordFanOut(int delivered, int failed) {
+        fanOut.record(delivered);
+        if (failed > 0) {
+            deliveryFailures.add(failed);
+        }
+    }
+
+    /**
+     * Records one direct delivery (private message, response, notification).
+     *
+     * @param delivered true if the recipient's queue accepted the frame
+     */
+    void recordDelivery(boolean delivered) {
+        if (delivered) {
+            directDeliveries.increment();
+        } else {
+            deliveryFailures.increment();
+        }
+    }
+
+    /**
+     * Records one sampled drain of a session's outbound queue.
+     *
+     * @param nanos time spent writing and flushing its frames
+     */
+    void recordWrite(long nanos) {
+        writeNanos.record(nanos);
+    }
+
+    /**
+     * Records one write of an outbound queue to its client stream.
+     *
+     * @param frames frames coalesced into the write
+     */
+    void recordBatch(int frames) {
+        framesPerWrite.record(frames);
+    }
+
+    /**
+     * Counts a frame discarded by an outbound queue's overflow policy.
+     */
+    void recordDropped() {
+        droppedFrames.increment();
+    }
+
+    /**
+     * @param type frame type
+     * @return frames of that type handled so far
+     */
+    public long getReceived(MessageType type) {
+        return dispatchNanos[type.ordinal()].snapshot().getCount();
+    }
+
+    /**
+     * @param type frame type
+     * @return dispatch latency histogram of that type, in nanoseconds
+     */
+    public Histogram getDispatchNanos(MessageType type) {
+        return dispatchNanos[type.ordinal()];
+    }
+
+    /**
+     * @return decode latency histogram, in nanoseconds
+     */
+    public Histogram getDecodeNanos() {
+        return decodeNanos;
+    }
+
+    /**
+     * @return members reached per room broadcast
+     */
+    public Histogram getFanOut() {
+        return fanOut;
+    }
+
+    /**
+     * @return frames coalesced per outbound write
+     */
+    public Histogram getFramesPerWrite() {
+        return framesPerWrite;
+    }
+
+    /**
+     * @return write-and-flush time of sampled outbound queue drains, in nanoseconds
+     */
+    public Histogram getWriteNanos() {
+        return writeNanos;
+    }
+
+    /**
+     * @return frames that could not be decoded
+     */
+    public long getMalformed() {
+        return malformed.sum();
+    }
+
+    /**
+     * @return frames accepted by recipients' outbound queues
+     */
+    public long getDeliveries() {
+        return fanOut.snapshot().getSum() + directDeliveries.sum();
+    }
+
+    /**
+     * @return frames refused by recipients' outbound queues
+     */
+    public long getDeliveryFailures() {
+        return deliveryFailures.sum();
+    }
+
+    /**
+     * @return frames discarded by overflow policies
+     */
+    public long getDroppedFrames() {
+        return droppedFrames.sum();
+    }
+
+    /**
+     * @return durations of full handshakes
+     */
+    public Histogram.Snapshot getFullHandshakeNanos() {
+        return fullHandshakeNanos.snapshot();
+    }
+
+    /**
+     * @return durations of resumed handshakes
+     */
+    public Histogram.Snapshot getResumedHandshakeNanos() {
+        return resumedHandshakeNanos.snapshot();
+    }
+
+    /**
+     * Adds every metric to a stats snapshot; latencies are exported in seconds.
+     *
+     * @param out snapshot being collected
+     */
+    public void collect(StatsSnapshot out) {
+        for (MessageType type : TYPES) {
+            Histogram.Snapshot dispatch = dispatchNanos[type.ordinal()].snapshot();
+            out.counter("chat_frames_received_total", "Frames handled per message type",
+                        "type", type.name(), dispatch.getCount());
+            out.summary("chat_dispatch_seconds", "Protocol handler time per frame",
+                        "type", type.name(), dispatch, 1e9);
+        }
+        out.summary("chat_decode_seconds", "Frame decode time", null, null, decodeNanos.snapshot(), 1e9);
+        out.summary("chat_fanout_members", "Members reached per room broadcast", null, null,
+                    fanOut.snapshot(), 1);
+        out.summary("chat_write_seconds", "Write and flush time of sampled outbound drains", null, null,
+                    writeNanos.snapshot(), 1e9);
+        out.summary("chat_frames_per_write", "Frames coalesced per outbound write", null, null,
+                    framesPerWrite.snapshot(), 1);
+        out.counter("chat_malformed_frames_total", "Frames that could not be decoded", getMalformed());
+        out.counter("chat_deliveries_total", "Frames accepted by outbound queues", getDeliveries());
+        out.counter("chat_delivery_failures_total", "Frames refused by outbound queues", getDeliveryFailures());
+        out.counter("chat_dropped_frames_total", "Frames discarded by overflow policies", getDroppedFrames());
+        Histogram.Snapshot full = getFullHandshakeNanos();
+        Histogram.Snapshot resumed = getResumedHandshakeNanos();
+        out.counter("chat_tls_handshakes_total", "Completed TLS handshakes", "kind", "full", full.getCount());
+        out.counter("chat_tls_handshakes_total", "Completed TLS handshakes", "kind", "resumed", resumed.getCount());
+        out.summary("chat_tls_handshake_seconds", "TLS handshake time", "kind", "full", full, 1e9);
+        out.summary("chat_tls_handshake_seconds", "TLS handshake time", "kind", "resumed", resumed, 1e9);
+    }
+
+    /**
+     * Formats every metric, one "[METRICS]" line each.
+     *
+     * @return multi-line report
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        for (MessageType type : TYPES) {
+            Histogram.Snapshot dispatch = dispatchNanos[type.ordinal()].snapshot();
+            if (dispatch.getCount() > 0) {
+                report.append("[METRICS] dispatch ").append(type).append(' ')
+                      .append(dispatch.toMicrosString()).append('\n');
+            }
+        }
+        report.append("[METRICS] decode ").append(decodeNanos.snapshot().toMicrosString())
+              .append(" malformed=").append(getMalformed()).append('\n');
+        report.append("[METRICS] fan-out ").append(fanOut.snapshot())
+              .append(" deliveries=").append(getDeliveries())
+              .append(" failures=").append(getDeliveryFailures()).append('\n');
+        report.append("[METRICS] write ").append(writeNanos.snapshot().toMicrosString())
+              .append(" dropped=").append(getDroppedFrames()).append('\n');
+        report.append("[METRICS] frames/write ").append(framesPerWrite.snapshot()).append('\n');
+        report.append("[METRICS] handshake full ").append(getFullHandshakeNanos().toMicrosString())
+              .append(" | resumed ").append(getResumedHandshakeNanos().toMicrosString());
+        return report.toString();
+    }
+}
@@ -1,6 +1,9 @@
 package SSL;
 
-import java.io.*;
+import Common.Log;
+import Common.StatsSnapshot;
+
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -13,302 +16,416 @@ import java.util.concurrent.*;
  * @version 1.0
  */
 public class ChatProtocolServer {
-    private Map<String, ClientSession> activeSessions;
-    private Map<String, ChatRoom> chatRooms;
-    private Map<String, DataOutputStream> clientOutputStreams;
+    private static final Log LOG = Log.get("protocol");
+    
+    private final SessionTable activeSessions;
+    private final Map<String, ClientSession> sessionsByUsername;
+    private final ChatMetrics metrics;
+    private final RoomEngine rooms;
+    private final ClusterBackplane cluster;     // Null unless chat.cluster.node is set
     
     /**
-     * Constructs a ChatProtocolServer with empty session and room maps.
+     * Constructs a ChatProtocolServer without sessions and with the room
+     * engine named by the system property chat.rooms (direct or sharded).
      */
     public ChatProtocolServer() {
-        this.activeSessions = new ConcurrentHashMap<>();
-        this.chatRooms = new ConcurrentHashMap<>();
-        this.clientOutputStreams = new ConcurrentHashMap<>();
+        this(System.getProperty("chat.rooms", "direct"));
+    }
+    
+    /**
+     * Constructs a ChatProtocolServer without sessions.
+     * 
+     * @param roomEngine "direct" (rooms shared by the handler threads) or
+     *                   "sharded" (rooms owned by single-threaded shards)
+     */
+    public ChatProtocolServer(String roomEngine) {
+        this.activeSessions = new SessionTable();
+        this.sessionsByUsername = new ConcurrentHashMap<>();
+        this.metrics = new ChatMetrics();
+        this.rooms = RoomEngine.fromArgument(roomEngine, metrics);
+        this.cluster = ClusterBackplane.fromProperties(new ClusterListener());
+    }
+    
+    /**
+     * Joins the cluster configured by the chat.cluster.* system properties, if any.
+     * 
+     * @throws IOException if the peer port cannot be bound
+     */
+    public void start() throws IOException {
+        if (cluster != null) {
+            cluster.start();
+        }
+    }
+    
+    /**
+     * Gets the hot-path metrics of this server, shared with the transports
+     * so decode and write latencies land in the same registry.
+     * 
+     * @return the metrics registry
+     */
+    public ChatMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Resolves a session handle, such as the one logged at login.
+     * 
+     * @param handle session handle
+     * @return the session, or null if it has logged out
+     */
+    public ClientSession getSession(long handle) {
+        return activeSessions.get(handle);
+    }
+    
+    /**
+     * Adds sessions, rooms, outbound queue depths and the hot-path metrics to a
+     * stats snapshot. Only reads the session table and volatile room figures,
+     * so it never waits on a handler or a room shard.
+     * 
+     * @param out snapshot being collected
+     */
+    public void collectStats(StatsSnapshot out) {
+        long queued = 0;
+        int deepest = 0;
+        for (ClientSession session : activeSessions.snapshot()) {
+            int depth = session.getOutbound().size();
+            queued += depth;
+            deepest = Math.max(deepest, depth);
+        }
+        out.gauge("chat_sessions", "Authenticated sessions", activeSessions.size());
+        out.gauge("chat_outbound_queued_frames", "Frames waiting in all outbound queues", queued);
+        out.gauge("chat_outbound_queue_max_depth", "Deepest outbound queue", deepest);
+        
+        rooms.collect(out);
+        if (cluster != null) {
+            cluster.collect(out);
+        }
+        
+        if (ChatMetrics.ENABLED) {
+            metrics.collect(out);
+        }
     }
     
     /**
-     * Processes a protocol message and returns updated session ID.
+     * Processes a protocol message and returns the updated session.
      * This is the main entry point for message handling.
      * 
+     * Responses are queued on the client's outbound queue, never written inline.
+     * 
      * @param messageData raw serialized message bytes
-     * @param output client's output stream for responses
-     * @param currentSessionId current session ID (null if not authenticated)
-     * @return updated session ID after processing
+     * @param output client's outbound queue for responses
+     * @param currentSession session of the connection (null if not authenticated)
+     * @return session of the connection after processing
      */
-    public String handleMessage(byte[] messageData, DataOutputStream output, String currentSessionId) {
+    public ClientSession handleMessage(byte[] messageData, OutboundQueue output, ClientSession currentSession) {
+        ChatMessage message;
         try {
-            ChatMessage message = ChatMessage.deserialize(messageData);
-            
-            System.out.println("[PROTOCOL] Type: " + message.getMessageType() + 
-                             ", From: " + message.getSender());
+            message = ChatMessage.deserialize(messageData);
+        } catch (RuntimeException e) {
+            rejectMalformed(output, e);
+            return currentSession;
+        }
+        return handleMessage(message, output, currentSession);
+    }
+    
+    /**
+     * Processes an already decoded message and returns the updated session.
+     * Used by transports that decode frames in place from their read buffer.
+     * 
+     * @param message decoded message
+     * @param output client's outbound queue for responses
+     * @param currentSession session of the connection (null if not authenticated)
+     * @return session of the connection after processing
+     */
+    public ClientSession handleMessage(ChatMessage message, OutboundQueue output, ClientSession currentSession) {
+        // Only a session that negotiated compression at login may send compressed frames
+        if (message.isCompressed() && (currentSession == null || !currentSession.acceptsCompression())) {
+            rejectMalformed(output, new IllegalArgumentException("Compressed frame without negotiated compression"));
+            return currentSession;
+        }
+        
+        // Without a recording, begin/end are no-ops and the event is never allocated
+        DispatchEvent event = new DispatchEvent();
+        event.begin();
+        long start = ChatMetrics.ENABLED ? System.nanoTime() : 0;
+        
+        ClientSession session = dispatch(message, output, currentSession);
+        
+        if (ChatMetrics.ENABLED) {
+            metrics.recordDispatch(message.getMessageType(), System.nanoTime() - start);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.messageType = message.getMessageType().name();
+            event.sender = message.getSender();
+            ChatRoom room = session != null ? session.getCurrentRoom() : null;
+            event.room = room != null ? room.getRoomId() : message.getRoomId();
+            event.commit();
+        }
+        return session;
+    }
+    
+    /**
+     * Routes a decoded message to its handler.
+     * 
+     * @param message decoded message
+     * @param output client's outbound queue for responses
+     * @param currentSession session of the connection (null if not authenticated)
+     * @return session of the connection after processing
+     */
+    private ClientSession dispatch(ChatMessage message, OutboundQueue output, ClientSession currentSession) {
+        try {
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("[PROTOCOL] Type: " + message.getMessageType() + 
+                          ", From: " + message.getSender());
+            }
             
             switch (message.getMessageType()) {
                 case LOGIN_REQUEST:
                     return processLogin(message, output);
                     
                 case JOIN_ROOM_REQUEST:
-                    processJoinRoom(message, currentSessionId, output);
+                    processJoinRoom(message, currentSession, output);
                     break;
                     
                 case TEXT_MESSAGE:
-                    broadcastToRoom(message, currentSessionId);
+                    broadcastToRoom(message, currentSession);
                     break;
                     
                 case PRIVATE_MESSAGE:
-                    sendPrivateMessage(message, currentSessionId);
+                    sendPrivateMessage(message, currentSession);
                     break;
                     
                 case USER_LIST_REQUEST:
-                    sendUserList(output);
+                    sendUserList(output, message.getProtocolVersion(), currentSession);
                     break;
                     
                 default:
-                    sendError(output, "Unknown message type: " + message.getMessageType());
+                    sendError(output, message.getProtocolVersion(),
+                              "Unknown message type: " + message.getMessageType());
             }
             
-            return currentSessionId;
+            return currentSession;
             
         } catch (Exception e) {
-            System.err.println("[PROTOCOL ERROR] " + e.getMessage());
-            e.printStackTrace();
-            try {
-                sendError(output, "Invalid message format");
-            } catch (IOException ex) {
-                System.err.println("[PROTOCOL ERROR] Cannot send error response");
-            }
-            return currentSessionId;
+            LOG.error("[PROTOCOL ERROR] " + e.getMessage(), e);
+            sendError(output, message.getProtocolVersion(), "Invalid message format");
+            return currentSession;
+        }
+    }
+    
+    /**
+     * Answers a frame that could not be decoded.
+     * 
+     * @param output client's outbound queue
+     * @param cause decoding failure
+     */
+    public void rejectMalformed(OutboundQueue output, RuntimeException cause) {
+        if (ChatMetrics.ENABLED) {
+            metrics.recordMalformed();
         }
+        LOG.warn("[PROTOCOL ERROR] " + cause.getMessage());
+        sendError(output, ChatMessage.VERSION_JSON, "Invalid message format");
     }
     
     /**
      * Processes login request and creates new session.
+     * The protocol version of the login frame becomes the session's version:
+     * everything sent to this client afterwards is encoded in it. A client
+     * offering compression gets it unless chat.compression=false; the login
+     * response carries the flag back as the acknowledgement.
      * 
      * @param message login message
-     * @param output client output stream
-     * @return new session ID
-     * @throws IOException if response sending fails
+     * @param output client outbound queue
+     * @return the new session, or null if the username is taken
      */
-    private String processLogin(ChatMessage message, DataOutputStream output) throws IOException {
+    private ClientSession processLogin(ChatMessage message, OutboundQueue output) {
         String username = message.getSender();
+        int version = message.getProtocolVersion();
+        boolean compression = FrameCompression.ENABLED && message.acceptsCompression();
+        ClientSession session = new ClientSession(username, output, version, compression);
         
-        // Check duplicate username
-        for (ClientSession session : activeSessions.values()) {
-            if (session.getUsername().equals(username)) {
-                sendError(output, "Username '" + username + "' already taken");
-                return null;
-            }
+        // Reserve the username atomically: two concurrent logins cannot both win
+        if ((cluster != null && cluster.nodeOf(username) != null)
+                || sessionsByUsername.putIfAbsent(username, session) != null) {
+            sendError(output, version, "Username '" + username + "' already taken");
+            return null;
+        }
+        long handle = activeSessions.add(session);
+        if (cluster != null) {
+            cluster.userOnline(username);
         }
         
-        String sessionId = UUID.randomUUID().toString();
-        ClientSession session = new ClientSession(username, sessionId);
-        activeSessions.put(sessionId, session);
-        clientOutputStreams.put(sessionId, output);
-        
-        System.out.println("[LOGIN] User: " + username + " | SessionID: " + 
-                         sessionId.substring(0, 8) + "... | Total: " + activeSessions.size());
+        LOG.info("[LOGIN] User: " + username + " | Session: #" + handle +
+                 " | Protocol: v" + version +
+                 (compression ? "+deflate" : "") + " | Total: " + activeSessions.size());
         
         ChatMessage response = new ChatMessage(MessageType.LOGIN_RESPONSE, "server", 
                                               "Welcome " + username + "!");
-        output.write(response.serialize());
-        output.flush();
+        response.setAcceptsCompression(compression);
+        output.offer(response.serialize(version), false);
         
-        return sessionId;
+        return session;
     }
     
     /**
      * Processes join room request.
      * 
      * @param message join room message
-     * @param sessionId user session ID
-     * @param output client output stream
-     * @throws IOException if response fails
+     * @param session user session (null if not authenticated)
+     * @param output client outbound queue
      */
-    private void processJoinRoom(ChatMessage message, String sessionId, 
-                                DataOutputStream output) throws IOException {
-        if (sessionId == null) {
-            sendError(output, "Not authenticated. Please login first.");
-            return;
-        }
-        
-        ClientSession session = activeSessions.get(sessionId);
+    private void processJoinRoom(ChatMessage message, ClientSession session, OutboundQueue output) {
+        int version = message.getProtocolVersion();
         if (session == null) {
-            sendError(output, "Invalid session");
+            sendError(output, version, "Not authenticated. Please login first.");
             return;
         }
         
-        String roomName = message.getContent();
+        // v2 carries the room explicitly, v1 sends it as the content
+        String roomName = message.getRoomId() != null ? message.getRoomId() : message.getContent();
         
-        // Leave current room if in one
-        if (session.getCurrentRoom() != null) {
-            ChatRoom oldRoom = chatRooms.get(session.getCurrentRoom());
-            if (oldRoom != null) {
-                oldRoom.removeMember(session);
-                System.out.println("[LEAVE] User: " + session.getUsername() + 
-                                 " left room: " + session.getCurrentRoom());
-            }
+        // Leaves the current room, joins the new one and notifies its members
+        rooms.join(session, roomName);
+        if (cluster != null) {
+            cluster.publishNotification(roomName, session.getUsername() + " joined the room");
         }
         
-        // Join new room
-        ChatRoom room = chatRooms.computeIfAbsent(roomName, k -> new ChatRoom(roomName));
-        room.addMember(session);
-        session.setCurrentRoom(roomName);
-        
-        System.out.println("[JOIN] User: " + session.getUsername() + " -> Room: " + 
-                         roomName + " (" + room.getMemberCount() + " members)");
-        
         ChatMessage response = new ChatMessage(MessageType.JOIN_ROOM_REQUEST, "server", 
                                               "Joined room: " + roomName);
-        output.write(response.serialize());
-        output.flush();
-        
-        // Notify other members
-        notifyRoom(roomName, session.getUsername() + " joined the room", sessionId);
+        response.setRoomId(roomName);
+        output.offer(response.serialize(version), false);
     }
     
     /**
      * Broadcasts text message to all room members.
      * 
      * @param message text message
-     * @param senderSessionId sender's session ID
+     * @param sender sender's session (null if not authenticated)
      */
-    private void broadcastToRoom(ChatMessage message, String senderSessionId) {
-        if (senderSessionId == null) {
-            System.err.println("[BROADCAST ERROR] No session");
+    private void broadcastToRoom(ChatMessage message, ClientSession sender) {
+        if (sender == null) {
+            LOG.warn("[BROADCAST ERROR] No session");
             return;
         }
         
-        ClientSession sender = activeSessions.get(senderSessionId);
-        if (sender == null || sender.getCurrentRoom() == null) {
-            System.err.println("[BROADCAST ERROR] User not in room");
+        ChatRoom room = sender.getCurrentRoom();
+        if (room == null) {
+            LOG.warn("[BROADCAST ERROR] User not in room");
             return;
         }
         
-        String roomName = sender.getCurrentRoom();
-        ChatRoom room = chatRooms.get(roomName);
-        
-        if (room != null) {
-            System.out.println("[BROADCAST] Room: " + roomName + " | From: " + 
-                             sender.getUsername() + " | Msg: " + message.getContent());
-            
-            String formattedMsg = "[" + sender.getUsername() + "]: " + message.getContent();
-            ChatMessage broadcast = new ChatMessage(MessageType.TEXT_MESSAGE, "server", formattedMsg);
-            
-            int delivered = 0;
-            for (ClientSession member : room.getMembers()) {
-                DataOutputStream memberOutput = clientOutputStreams.get(member.getSessionId());
-                if (memberOutput != null) {
-                    try {
-                        memberOutput.write(broadcast.serialize());
-                        memberOutput.flush();
-                        delivered++;
-                    } catch (IOException e) {
-                        System.err.println("[BROADCAST ERROR] Failed for " + member.getUsername());
-                    }
-                }
-            }
-            
-            System.out.println("[BROADCAST] Delivered to " + delivered + " members");
+        String roomName = room.getRoomId();
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("[BROADCAST] Room: " + roomName + " | From: " + 
+                      sender.getUsername() + " | Msg: " + message.getContent());
         }
-    }
-    
-    /**
-     * Sends notification to all room members except sender.
-     * 
-     * @param roomName room name
-     * @param notification message to send
-     * @param excludeSessionId session to exclude (sender)
-     */
-    private void notifyRoom(String roomName, String notification, String excludeSessionId) {
-        ChatRoom room = chatRooms.get(roomName);
-        if (room != null) {
-            ChatMessage msg = new ChatMessage(MessageType.TEXT_MESSAGE, "system", 
-                                            "[SYSTEM] " + notification);
-            
-            for (ClientSession member : room.getMembers()) {
-                if (!member.getSessionId().equals(excludeSessionId)) {
-                    DataOutputStream output = clientOutputStreams.get(member.getSessionId());
-                    if (output != null) {
-                        try {
-                            output.write(msg.serialize());
-                            output.flush();
-                        } catch (IOException e) {
-                            System.err.println("[NOTIFY ERROR] " + member.getUsername());
-                        }
-                    }
-                }
-            }
+        
+        String formattedMsg = "[" + sender.getUsername() + "]: " + message.getContent();
+        ChatMessage broadcast = new ChatMessage(MessageType.TEXT_MESSAGE, "server", formattedMsg);
+        broadcast.setRoomId(roomName);
+        if (cluster != null) {
+            cluster.publishRoom(roomName, broadcast);   // Once per node, before the local fan-out
         }
+        rooms.broadcast(room, broadcast);
     }
     
     /**
      * Sends private message to specific user.
      * 
      * @param message private message
-     * @param senderSessionId sender's session ID
+     * @param sender sender's session (null if not authenticated)
      */
-    private void sendPrivateMessage(ChatMessage message, String senderSessionId) {
-        if (senderSessionId == null) {
-            System.err.println("[PM ERROR] No session");
-            return;
-        }
-        
-        ClientSession sender = activeSessions.get(senderSessionId);
+    private void sendPrivateMessage(ChatMessage message, ClientSession sender) {
         if (sender == null) {
-            System.err.println("[PM ERROR] Invalid sender");
+            LOG.warn("[PM ERROR] No session");
             return;
         }
         
-        // Parse recipient:message format
-        String content = message.getContent();
-        String[] parts = content.split(":", 2);
-        if (parts.length != 2) {
-            System.err.println("[PM ERROR] Invalid format");
-            return;
-        }
+        PrivateMessageEvent event = new PrivateMessageEvent();
+        event.begin();
         
-        String recipientName = parts[0].trim();
-        String privateMsg = parts[1].trim();
+        String recipientName;
+        String privateMsg;
+        if (message.getRecipient() != null) {
+            // v2 carries the recipient explicitly
+            recipientName = message.getRecipient();
+            privateMsg = message.getContent();
+        } else {
+            // Parse recipient:message format
+            String[] parts = message.getContent().split(":", 2);
+            if (parts.length != 2) {
+                LOG.warn("[PM ERROR] Invalid format");
+                return;
+            }
+            recipientName = parts[0].trim();
+            privateMsg = parts[1].trim();
+        }
         
-        System.out.println("[PM] " + sender.getUsername() + " -> " + recipientName);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("[PM] " + sender.getUsername() + " -> " + recipientName);
+        }
         
-        // Find recipient
-        for (ClientSession session : activeSessions.values()) {
-            if (session.getUsername().equals(recipientName)) {
-                DataOutputStream output = clientOutputStreams.get(session.getSessionId());
-                if (output != null) {
-                    try {
-                        ChatMessage pm = new ChatMessage(MessageType.PRIVATE_MESSAGE, "server", 
-                                                        "[PM from " + sender.getUsername() + "]: " + privateMsg);
-                        output.write(pm.serialize());
-                        output.flush();
-                        System.out.println("[PM] Delivered");
-                        return;
-                    } catch (IOException e) {
-                        System.err.println("[PM ERROR] Delivery failed");
-                    }
-                }
-            }
+        ClientSession recipient = sessionsByUsername.get(recipientName);
+        if (recipient == null && (cluster == null || cluster.nodeOf(recipientName) == null)) {
+            LOG.warn("[PM ERROR] Recipient not found: " + recipientName);
+            return;
         }
         
-        System.err.println("[PM ERROR] Recipient not found: " + recipientName);
+        ChatMessage pm = new ChatMessage(MessageType.PRIVATE_MESSAGE, "server", 
+                                        "[PM from " + sender.getUsername() + "]: " + privateMsg);
+        pm.setRecipient(recipientName);
+        byte[] frame = null;
+        boolean delivered;
+        if (recipient != null) {
+            frame = recipient.frameFor(pm);
+            delivered = recipient.getOutbound().offer(frame, false);
+        } else {
+            // Logged in on another node: routed through its link
+            delivered = cluster.sendPrivate(recipientName, pm);
+        }
+        if (ChatMetrics.ENABLED) {
+            metrics.recordDelivery(delivered);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.sender = sender.getUsername();
+            event.recipient = recipientName;
+            // The remote frame is the binary encoding cached by sendPrivate
+            event.bytes = (frame != null ? frame : pm.serialize(ChatMessage.VERSION_BINARY)).length;
+            event.delivered = delivered;
+            event.commit();
+        }
+        if (delivered) {
+            LOG.debug("[PM] Delivered");
+        } else {
+            LOG.warn("[PM ERROR] Delivery failed");
+        }
     }
     
     /**
      * Sends list of active users to client.
      * 
-     * @param output client output stream
-     * @throws IOException if sending fails
+     * @param output client outbound queue
+     * @param version protocol version of the requesting client
+     * @param requester requesting session, or null if not authenticated
      */
-    private void sendUserList(DataOutputStream output) throws IOException {
+    private void sendUserList(OutboundQueue output, int version, ClientSession requester) {
         StringBuilder userList = new StringBuilder();
         
-        for (ClientSession session : activeSessions.values()) {
+        for (ClientSession session : activeSessions.snapshot()) {
             userList.append(session.getUsername());
-            if (session.getCurrentRoom() != null) {
-                userList.append(" (in ").append(session.getCurrentRoom()).append(")");
+            ChatRoom room = session.getCurrentRoom();
+            if (room != null) {
+                userList.append(" (in ").append(room.getRoomId()).append(")");
             }
             userList.append(", ");
         }
+        if (cluster != null) {
+            for (Map.Entry<String, String> remote : cluster.getRemoteUsers().entrySet()) {
+                userList.append(remote.getKey()).append(" (on node ").append(remote.getValue()).append("), ");
+            }
+        }
         
         if (userList.length() > 0) {
             userList.setLength(userList.length() - 2);
@@ -316,53 +433,99 @@ public class ChatProtocolServer {
             userList.append("No users online");
         }
         
-        System.out.println("[USER_LIST] Sent: " + activeSessions.size() + " users");
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("[USER_LIST] Sent: " + activeSessions.size() + " users");
+        }
         
         ChatMessage response = new ChatMessage(MessageType.USER_LIST_RESPONSE, "server", 
                                               "Active users: " + userList.toString());
-        output.write(response.serialize());
-        output.flush();
+        output.offer(requester != null ? requester.frameFor(response) : response.serialize(version), false);
     }
     
     /**
      * Sends error message to client.
      * 
-     * @param output client output stream
+     * @param output client outbound queue
+     * @param version protocol version of the client
      * @param errorMessage error description
-     * @throws IOException if sending fails
      */
-    private void sendError(DataOutputStream output, String errorMessage) throws IOException {
-        System.err.println("[ERROR] " + errorMessage);
+    private void sendError(OutboundQueue output, int version, String errorMessage) {
+        LOG.warn("[ERROR] " + errorMessage);
         ChatMessage error = new ChatMessage(MessageType.ERROR_RESPONSE, "server", 
                                           "ERROR: " + errorMessage);
-        output.write(error.serialize());
-        output.flush();
+        output.offer(error.serialize(version), false);
     }
     
     /**
      * Removes a session on disconnection.
      * 
-     * @param sessionId session to remove
+     * @param session session to remove, or null if the connection never logged in
      */
-    public void removeSession(String sessionId) {
-        if (sessionId != null) {
-            ClientSession session = activeSessions.remove(sessionId);
-            clientOutputStreams.remove(sessionId);
-            
-            if (session != null) {
-                // Remove from room
-                if (session.getCurrentRoom() != null) {
-                    ChatRoom room = chatRooms.get(session.getCurrentRoom());
-                    if (room != null) {
-                        room.removeMember(session);
-                        notifyRoom(session.getCurrentRoom(), 
-                                 session.getUsername() + " left the room", sessionId);
-                    }
-                }
-                
-                System.out.println("[LOGOUT] User: " + session.getUsername() + 
-                                 " | Remaining: " + activeSessions.size());
+    public void removeSession(ClientSession session) {
+        if (session == null || !activeSessions.remove(session)) {
+            return;
+        }
+        sessionsByUsername.remove(session.getUsername(), session);
+        
+        // Remove from room
+        if (cluster != null) {
+            cluster.userOffline(session.getUsername());
+            ChatRoom room = session.getCurrentRoom();
+            if (room != null) {
+                cluster.publishNotification(room.getRoomId(), session.getUsername() + " left the room");
+            }
+        }
+        rooms.leave(session);
+        
+        LOG.info("[LOGOUT] User: " + session.getUsername() + 
+                 " | Remaining: " + activeSessions.size());
+    }
+    
+    /**
+     * Leaves the cluster and stops the room engine's threads, if any.
+     */
+    public void shutdown() {
+        if (cluster != null) {
+            LOG.info("[STATS] " + cluster);
+            cluster.shutdown();
+        }
+        rooms.shutdown();
+    }
+    
+    /**
+     * Delivers what the other nodes of the cluster send to the local sessions.
+     * Runs on the link reader threads.
+     */
+    private class ClusterListener implements ClusterBackplane.Listener {
+        @Override
+        public void onRoomMessage(String roomName, ChatMessage message) {
+            rooms.broadcast(roomName, message);
+        }
+        
+        @Override
+        public void onRoomNotification(String roomName, String notification) {
+            rooms.notifyRoom(roomName, notification);
+        }
+        
+        @Override
+        public boolean onPrivateMessage(String recipient, ChatMessage message) {
+            ClientSession session = sessionsByUsername.get(recipient);
+            boolean delivered = session != null
+                && session.getOutbound().offer(session.frameFor(message), false);
+            if (ChatMetrics.ENABLED && session != null) {
+                metrics.recordDelivery(delivered);
             }
+            return delivered;
+        }
+        
+        @Override
+        public Collection<String> localUsers() {
+            return sessionsByUsername.keySet();
+        }
+        
+        @Override
+        public boolean isLocalUser(String username) {
+            return sessionsByUsername.containsKey(username);
         }
     }
 }
@@ -0,0 +1,98 @@
+package SSL;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Represents a chat room.
+ * A session holds a direct reference to its current room, so routing a
+ * message needs no lookup by name. Each live room has a dense numeric handle,
+ * reused once the room is reclaimed. Membership is kept by the room engine's
+ * subclass; this class only holds what the engines share: the name, the
+ * handle and the reclamation protocol.
+ * <p>
+ * A room is reclaimed as soon as it is empty, so ephemeral rooms do not
+ * accumulate. A joiner first {@link #reserve() reserves} the room, which fails
+ * once it is closed (the joiner then looks the name up again and gets a fresh
+ * room), and the owner of the membership only {@link #tryClose() closes} an
+ * empty room with no reservation in flight.
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public abstract class ChatRoom {
+    private static final int CLOSED = -1;
+
+    private final String roomId;
+    private final int handle;
+    private final AtomicInteger joining;    // Reservations in flight, CLOSED once reclaimed
+
+    /**
+     * Constructs a ChatRoom.
+     *
+     * @param roomId the room name
+     * @param handle dense numeric handle
+     */
+    ChatRoom(String roomId, int handle) {
+        this.roomId = roomId;
+        this.handle = handle;
+        this.joining = new AtomicInteger();
+    }
+
+    /**
+     * Announces a join before the member is added, so that the room is not
+     * reclaimed in between.
+     *
+     * @return false if the room was already reclaimed
+     */
+    boolean reserve() {
+        while (true) {
+            int current = joining.get();
+            if (current == CLOSED) {
+                return false;
+            }
+            if (joining.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Ends a join announced by {@link #reserve()}, once the member is in.
+     * Must run where the membership changes (under the room's lock or on its
+     * owning thread), so that {@link #tryClose()} sees either the reservation
+     * or the member.
+     */
+    void completeJoin() {
+        joining.decrementAndGet();
+    }
+
+    /**
+     * Closes an empty room unless a join is in flight. Only the owner of the
+     * membership may call it, after checking the room is empty.
+     *
+     * @return true if the room is now closed and must be forgotten
+     */
+    boolean tryClose() {
+        return joining.compareAndSet(0, CLOSED);
+    }
+
+    /**
+     * @return true once the room has been reclaimed
+     */
+    boolean isClosed() {
+        return joining.get() == CLOSED;
+    }
+
+    /**
+     * @return number of members in the room
+     */
+    abstract int getMemberCount();
+
+    /**
+     * @return messages broadcast to this room
+     */
+    abstract long getBroadcastCount();
+
+    public String getRoomId() { return roomId; }
+    public int getHandle() { return handle; }
+}
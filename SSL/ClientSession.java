@@ -0,0 +1,82 @@
+package SSL;
+
+import java.util.UUID;
+
+/**
+ * Represents a client session.
+ * Created by {@link ChatProtocolServer} at login and held by the connection's
+ * handler, which passes it back with every message, and points to its current
+ * room: routing a message needs no lookup. Internally a session is identified
+ * by a compact numeric handle; the random token is only generated if something
+ * asks for it.
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public class ClientSession {
+    private final String username;
+    private final OutboundQueue outbound;
+    private final int protocolVersion;
+    private final boolean compression;
+    private long handle;
+    private volatile String token;
+    private volatile ChatRoom currentRoom;
+
+    /**
+     * Constructs a ClientSession. Its handle is assigned when it enters a
+     * {@link SessionTable}.
+     *
+     * @param username the username
+     * @param outbound queue of frames to the client's connection
+     * @param protocolVersion protocol version negotiated at login
+     * @param compression true if compression was negotiated at login
+     */
+    ClientSession(String username, OutboundQueue outbound, int protocolVersion, boolean compression) {
+        this.username = username;
+        this.outbound = outbound;
+        this.protocolVersion = protocolVersion;
+        this.compression = compression;
+    }
+
+    /**
+     * Encodes a message the way this client negotiated: its protocol version,
+     * compressed if it accepts compression and the body is large enough.
+     *
+     * @param message message to send
+     * @return frame to offer to the outbound queue (shared, do not modify)
+     */
+    public byte[] frameFor(ChatMessage message) {
+        return message.serialize(protocolVersion, compression);
+    }
+
+    /**
+     * Returns the opaque identifier of this session for use outside the
+     * server (logs, external APIs). Generated on first use: a login costs no
+     * SecureRandom draw unless the token is actually needed.
+     *
+     * @return a random UUID string, the same for the life of the session
+     */
+    public String getToken() {
+        String current = token;
+        if (current == null) {
+            synchronized (this) {
+                current = token;
+                if (current == null) {
+                    current = UUID.randomUUID().toString();
+                    token = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    public String getUsername() { return username; }
+    public long getHandle() { return handle; }
+    public OutboundQueue getOutbound() { return outbound; }
+    public int getProtocolVersion() { return protocolVersion; }
+    public boolean acceptsCompression() { return compression; }
+    public ChatRoom getCurrentRoom() { return currentRoom; }
+
+    void setHandle(long handle) { this.handle = handle; }
+    void setCurrentRoom(ChatRoom room) { this.currentRoom = room; }
+}
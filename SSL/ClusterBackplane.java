@@ -0,0 +1,637 @@
+package SSL;
+
+import Common.Log;
+import Common.StatsSnapshot;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server-to-server backplane joining several chat servers into one cluster.
+ * Every node dials every peer over plain TCP and sends on that link only; it
+ * receives on the links its peers dial, so a cluster of N nodes is a full mesh
+ * of N * (N - 1) one-way links. Nothing received is ever forwarded again.
+ * <ul>
+ *   <li>a room broadcast is encoded once and sent once per peer node, which
+ *       then fans it out to its own members of the room</li>
+ *   <li>join and leave notifications travel the same way, so members on every
+ *       node see who enters and leaves a room</li>
+ *   <li>each node announces its logins and logouts, and replays its users
+ *       whenever a link (re)connects: every node keeps a cluster-wide user
+ *       directory used to route private messages and list users</li>
+ * </ul>
+ * Configured with the system properties chat.cluster.node (this node's id),
+ * chat.cluster.port (port the peers dial) and chat.cluster.peers, a
+ * comma-separated list of id@host:port. The directory is eventually
+ * consistent: two nodes can accept the same username at the same moment.
+ * <p>
+ * The peer port listens on chat.cluster.bind (127.0.0.1 unless set). A link
+ * is only accepted if its HELLO names one of the configured peers and carries
+ * chat.cluster.secret, which is required whenever the port is bound to a
+ * non-loopback address. The links are not encrypted: the secret keeps out
+ * hosts that can reach the port, not those that can watch the network.
+ *
+ * Node frames: 4-byte length, 1-byte kind, then the kind's fields as
+ * modified UTF-8 strings, followed by a chat frame for ROOM and PRIVATE.
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public class ClusterBackplane {
+    private static final Log LOG = Log.get("cluster");
+
+    private static final byte HELLO = 0;
+    private static final byte ROOM = 1;
+    private static final byte NOTIFY = 2;
+    private static final byte USER_ONLINE = 3;
+    private static final byte USER_OFFLINE = 4;
+    private static final byte PRIVATE = 5;
+
+    private static final int MAX_FRAME_LENGTH = 64 * 1024;
+    private static final int LINK_CAPACITY = Integer.getInteger("chat.cluster.capacity", 65536);
+    private static final int RETRY_MILLIS = 1000;
+    private static final int HELLO_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Receiver of what the peers send; implemented by the protocol handler.
+     * Called on the link reader threads.
+     */
+    public interface Listener {
+        /**
+         * @param roomName room the message was broadcast to on its node
+         * @param message message to deliver to the local members of the room
+         */
+        void onRoomMessage(String roomName, ChatMessage message);
+
+        /**
+         * @param roomName room the notification is about
+         * @param notification join or leave notice for the local members of the room
+         */
+        void onRoomNotification(String roomName, String notification);
+
+        /**
+         * @param recipient username of a local session
+         * @param message private message to deliver
+         * @return true if the recipient's queue accepted it
+         */
+        boolean onPrivateMessage(String recipient, ChatMessage message);
+
+        /**
+         * @return usernames logged in on this node, replayed to reconnecting peers
+         */
+        Collection<String> localUsers();
+
+        /**
+         * @param username a username
+         * @return true if the user is logged in on this node right now
+         */
+        boolean isLocalUser(String username);
+    }
+
+    private final String nodeId;
+    private final String bindAddress;
+    private final int port;
+    private final byte[] secret;
+    private final Listener listener;
+    private final Map<String, PeerLink> links;                 // Outbound, by peer node id
+    private final Map<String, InboundPeer> directory;          // Remote username -> node it is on
+    private final Executor threads;
+    private final Executor writers;
+    private final LongAdder framesSent = new LongAdder();
+    private final LongAdder framesReceived = new LongAdder();
+    private final LongAdder framesDropped = new LongAdder();
+    private ServerSocket serverSocket;
+    private volatile boolean isRunning;
+
+    /**
+     * Constructs a backplane; nothing is opened before {@link #start()}.
+     *
+     * @param nodeId id of this node, unique in the cluster
+     * @param bindAddress address the peer port listens on
+     * @param port port the peers dial
+     * @param secret shared secret every node of the cluster sends in its HELLO, or ""
+     * @param peers peer addresses as id@host:port
+     * @param listener receiver of what the peers send
+     */
+    public ClusterBackplane(String nodeId, String bindAddress, int port, String secret,
+                            List<String> peers, Listener listener) {
+        this.nodeId = nodeId;
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.listener = listener;
+        this.links = new ConcurrentHashMap<>();
+        this.directory = new ConcurrentHashMap<>();
+        this.threads = ConnectionExecutors.perConnection(ExecutionMode.BLOCKING, "chat-cluster");
+        this.writers = ConnectionExecutors.writers(ExecutionMode.BLOCKING);
+        for (String peer : peers) {
+            int at = peer.indexOf('@');
+            int colon = peer.lastIndexOf(':');
+            if (at <= 0 || colon < at) {
+                throw new IllegalArgumentException("Invalid peer (expected id@host:port): " + peer);
+            }
+            String id = peer.substring(0, at);
+            links.put(id, new PeerLink(id, peer.substring(at + 1, colon),
+                                       Integer.parseInt(peer.substring(colon + 1))));
+        }
+    }
+
+    /**
+     * Creates the backplane described by the chat.cluster.* system properties.
+     *
+     * @param listener receiver of what the peers send
+     * @return the backplane, or null if chat.cluster.node is not set
+     */
+    public static ClusterBackplane fromProperties(Listener listener) {
+        String node = System.getProperty("chat.cluster.node");
+        if (node == null || node.isEmpty()) {
+            return null;
+        }
+        List<String> peers = new ArrayList<>();
+        for (String peer : System.getProperty("chat.cluster.peers", "").split(",")) {
+            if (!peer.isBlank()) {
+                peers.add(peer.trim());
+            }
+        }
+        return new ClusterBackplane(node, System.getProperty("chat.cluster.bind", "127.0.0.1"),
+                                    Integer.getInteger("chat.cluster.port", 7100),
+                                    System.getProperty("chat.cluster.secret", ""), peers, listener);
+    }
+
+    /**
+     * Binds the peer port and starts dialing the peers.
+     *
+     * @throws IOException if the port cannot be bound, or would be reachable
+     *         from other hosts without a secret
+     */
+    public void start() throws IOException {
+        InetAddress address = InetAddress.getByName(bindAddress);
+        if (secret.length == 0 && !address.isLoopbackAddress()) {
+            throw new IOException("chat.cluster.secret is required to bind the peer port to " + bindAddress);
+        }
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(address, port));
+        isRunning = true;
+        threads.execute(this::acceptPeers);
+        for (PeerLink link : links.values()) {
+            threads.execute(link);
+        }
+        LOG.info("[CLUSTER] Node " + nodeId + " listening on " + bindAddress + ":" + port
+                 + ", peers: " + links.keySet());
+    }
+
+    /**
+     * Sends a room broadcast to every peer, encoded once. The binary encoding
+     * is cached on the message and reused by local members speaking v2.
+     *
+     * @param roomName room the message is broadcast to
+     * @param message message as sent to the members
+     */
+    public void publishRoom(String roomName, ChatMessage message) {
+        sendToAll(encode(ROOM, roomName, null, message.serialize(ChatMessage.VERSION_BINARY)));
+    }
+
+    /**
+     * Sends a join or leave notice for a room to every peer.
+     *
+     * @param roomName room the notice is about
+     * @param notification notice text
+     */
+    public void publishNotification(String roomName, String notification) {
+        sendToAll(encode(NOTIFY, roomName, notification, null));
+    }
+
+    /**
+     * Announces a local login to every peer. Call after the user is visible
+     * to {@link Listener#isLocalUser(String)}.
+     *
+     * @param username user now logged in on this node
+     */
+    public void userOnline(String username) {
+        announce(username, null);
+    }
+
+    /**
+     * Announces a local logout to every peer. Call after the user is no
+     * longer visible to {@link Listener#isLocalUser(String)}.
+     *
+     * @param username user no longer logged in on this node
+     */
+    public void userOffline(String username) {
+        announce(username, null);
+    }
+
+    /**
+     * Sends whether a user is logged in here as of now, rather than as of the
+     * login or logout that triggered the call, and sends again until the state
+     * read after a send matches the frame sent. Any change after that re-check
+     * is announced by its own call, after this frame on every link, so the last
+     * frame a peer receives about a user always matches the user's current
+     * state, whatever order racing logins, logouts and link replays take. No
+     * lock is held: logins never wait for each other or for a replay.
+     *
+     * @param username user whose state changed
+     * @param link the only link to send on, or null for every link
+     */
+    private void announce(String username, PeerLink link) {
+        boolean online;
+        do {
+            online = listener.isLocalUser(username);
+            byte[] frame = encode(online ? USER_ONLINE : USER_OFFLINE, username, null, null);
+            if (link != null) {
+                link.send(frame);
+            } else {
+                sendToAll(frame);
+            }
+        } while (listener.isLocalUser(username) != online);
+    }
+
+    /**
+     * Routes a private message to the node the recipient is logged in on.
+     *
+     * @param recipient username of a remote user
+     * @param message private message
+     * @return false if the recipient is unknown or its node unreachable
+     */
+    public boolean sendPrivate(String recipient, ChatMessage message) {
+        InboundPeer peer = directory.get(recipient);
+        PeerLink link = peer != null ? links.get(peer.nodeId) : null;
+        return link != null
+            && link.send(encode(PRIVATE, recipient, null, message.serialize(ChatMessage.VERSION_BINARY)));
+    }
+
+    /**
+     * @param username a username
+     * @return id of the remote node the user is logged in on, or null
+     */
+    public String nodeOf(String username) {
+        InboundPeer peer = directory.get(username);
+        return peer != null ? peer.nodeId : null;
+    }
+
+    /**
+     * @return remote usernames and the node each is logged in on
+     */
+    public Map<String, String> getRemoteUsers() {
+        Map<String, String> users = new TreeMap<>();
+        directory.forEach((username, peer) -> users.put(username, peer.nodeId));
+        return users;
+    }
+
+    /**
+     * @return id of this node
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    private void sendToAll(byte[] frame) {
+        for (PeerLink link : links.values()) {
+            link.send(frame);
+        }
+    }
+
+    /**
+     * Encodes a node frame.
+     *
+     * @param kind frame kind
+     * @param first first string field
+     * @param second second string field, or null
+     * @param chatFrame trailing chat frame, or null
+     * @return length-prefixed frame, shared by every link: do not modify
+     */
+    private static byte[] encode(byte kind, String first, String second, byte[] chatFrame) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + (chatFrame != null ? chatFrame.length : 0));
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0);
+            out.writeByte(kind);
+            out.writeUTF(first);
+            if (second != null) {
+                out.writeUTF(second);
+            }
+            if (chatFrame != null) {
+                out.write(chatFrame);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);  // In-memory stream
+        }
+        byte[] frame = bytes.toByteArray();
+        int length = frame.length - 4;
+        frame[0] = (byte) (length >>> 24);
+        frame[1] = (byte) (length >>> 16);
+        frame[2] = (byte) (length >>> 8);
+        frame[3] = (byte) length;
+        return frame;
+    }
+
+    /**
+     * Accepts the links dialed by the peers, one reader thread each.
+     */
+    private void acceptPeers() {
+        while (isRunning) {
+            try {
+                Socket socket = serverSocket.accept();
+                threads.execute(() -> readPeer(socket));
+            } catch (IOException e) {
+                if (isRunning) {
+                    LOG.error("[CLUSTER] Accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the frames of one inbound link until it closes, then forgets the
+     * users it announced.
+     *
+     * @param socket accepted peer socket
+     */
+    private void readPeer(Socket socket) {
+        InboundPeer peer = null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            socket.setSoTimeout(HELLO_TIMEOUT_MILLIS);     // Until the HELLO is checked
+            while (isRunning) {
+                int length = in.readInt();
+                if (length <= 0 || length > MAX_FRAME_LENGTH) {
+                    throw new IOException("Invalid node frame length: " + length);
+                }
+                byte[] frame = new byte[length];
+                in.readFully(frame);
+                framesReceived.increment();
+
+                DataInputStream fields = new DataInputStream(new ByteArrayInputStream(frame, 1, length - 1));
+                if (peer == null) {
+                    if (frame[0] != HELLO) {
+                        throw new IOException("Expected HELLO, got kind " + frame[0]);
+                    }
+                    peer = authenticate(fields);
+                    socket.setSoTimeout(0);
+                    LOG.info("[CLUSTER] Node " + peer.nodeId + " connected from " + socket.getInetAddress());
+                    continue;
+                }
+                dispatch(peer, frame[0], fields, frame, length);
+            }
+        } catch (EOFException e) {
+            // Peer closed its link
+        } catch (IOException | RuntimeException e) {
+            if (isRunning) {
+                LOG.warn("[CLUSTER] Link from " + (peer != null ? peer.nodeId : socket.getInetAddress())
+                         + " failed: " + e.getMessage());
+            }
+        } finally {
+            closeQuietly(socket);
+            if (peer != null) {
+                InboundPeer gone = peer;
+                directory.values().removeIf(owner -> owner == gone);
+                LOG.info("[CLUSTER] Node " + peer.nodeId + " disconnected");
+            }
+        }
+    }
+
+    /**
+     * Checks the HELLO of an inbound link: the node must be a configured peer
+     * and send this node's secret.
+     *
+     * @param fields stream positioned on the HELLO fields
+     * @return the authenticated peer
+     * @throws IOException if the node is unknown or the secret does not match
+     */
+    private InboundPeer authenticate(DataInputStream fields) throws IOException {
+        String id = fields.readUTF();
+        byte[] offered = fields.available() > 0 ? fields.readUTF().getBytes(StandardCharsets.UTF_8) : new byte[0];
+        if (!links.containsKey(id)) {
+            throw new IOException("Rejected HELLO from unknown node " + id);
+        }
+        if (!MessageDigest.isEqual(offered, secret)) {
+            throw new IOException("Rejected HELLO from node " + id + ": wrong secret");
+        }
+        return new InboundPeer(id);
+    }
+
+    /**
+     * Hands one frame from a peer to the listener or the directory.
+     *
+     * @param peer the sending node
+     * @param kind frame kind
+     * @param fields stream positioned on the first field
+     * @param frame the whole frame, kind byte included
+     * @param length frame length
+     * @throws IOException if the frame is truncated
+     */
+    private void dispatch(InboundPeer peer, byte kind, DataInputStream fields, byte[] frame, int length)
+            throws IOException {
+        switch (kind) {
+            case ROOM: {
+                String roomName = fields.readUTF();
+                ChatMessage message = ChatMessage.decode(frame, length - fields.available(), fields.available());
+                listener.onRoomMessage(roomName, message);
+                break;
+            }
+            case NOTIFY:
+                listener.onRoomNotification(fields.readUTF(), fields.readUTF());
+                break;
+            case USER_ONLINE:
+                directory.put(fields.readUTF(), peer);
+                break;
+            case USER_OFFLINE:
+                directory.remove(fields.readUTF(), peer);
+                break;
+            case PRIVATE: {
+                String recipient = fields.readUTF();
+                ChatMessage message = ChatMessage.decode(frame, length - fields.available(), fields.available());
+                if (!listener.onPrivateMessage(recipient, message)) {
+                    LOG.warn("[CLUSTER] Private message from node " + peer.nodeId
+                             + " not delivered to " + recipient);
+                }
+                break;
+            }
+            default:
+                LOG.warn("[CLUSTER] Unknown frame kind " + kind + " from node " + peer.nodeId);
+        }
+    }
+
+    /**
+     * Adds link states, directory size and frame counters to a stats snapshot.
+     *
+     * @param out snapshot being collected
+     */
+    public void collect(StatsSnapshot out) {
+        for (PeerLink link : links.values()) {
+            OutboundQueue queue = link.queue;
+            out.gauge("chat_cluster_link_up", "1 while the link to a peer is connected",
+                      "peer", link.nodeId, queue != null ? 1 : 0);
+            out.gauge("chat_cluster_link_queued_frames", "Frames waiting on the link to a peer",
+                      "peer", link.nodeId, queue != null ? queue.size() : 0);
+        }
+        out.gauge("chat_cluster_remote_users", "Users logged in on other nodes", directory.size());
+        out.counter("chat_cluster_frames_sent_total", "Frames queued to peers", framesSent.sum());
+        out.counter("chat_cluster_frames_received_total", "Frames received from peers", framesReceived.sum());
+        out.counter("chat_cluster_frames_dropped_total", "Frames for peers that were down or too slow",
+                    framesDropped.sum());
+    }
+
+    /**
+     * Closes the peer port and every link.
+     */
+    public void shutdown() {
+        isRunning = false;
+        closeQuietly(serverSocket);
+        for (PeerLink link : links.values()) {
+            link.close();
+        }
+    }
+
+    /**
+     * @return one-line statistics of the backplane
+     */
+    @Override
+    public String toString() {
+        int up = 0;
+        for (PeerLink link : links.values()) {
+            if (link.queue != null) {
+                up++;
+            }
+        }
+        return "ClusterBackplane{node=" + nodeId + ", links=" + up + "/" + links.size()
+             + ", remoteUsers=" + directory.size() + ", sent=" + framesSent.sum()
+             + ", received=" + framesReceived.sum() + ", dropped=" + framesDropped.sum() + "}";
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // Link already gone
+        }
+    }
+
+    /**
+     * A node as seen from one inbound link. Directory entries point to it, so
+     * entries announced on a link that has since been replaced are told apart.
+     */
+    private static final class InboundPeer {
+        private final String nodeId;
+
+        InboundPeer(String nodeId) {
+            this.nodeId = nodeId;
+        }
+    }
+
+    /**
+     * Outbound link to one peer. Dials until connected, sends HELLO and this
+     * node's users, then lets an {@link OutboundQueue} drain frames to the
+     * socket; a read blocks until the peer closes, and the link redials.
+     * A link whose queue fills up is disconnected rather than allowed to drop
+     * frames: a lost USER_OFFLINE would corrupt the peer's directory for good,
+     * whereas a reconnection makes the peer forget the link's users and
+     * receive them again.
+     */
+    private final class PeerLink implements Runnable {
+        private final String nodeId;
+        private final String host;
+        private final int port;
+        private volatile OutboundQueue queue;   // Null while disconnected
+        private volatile Socket socket;
+
+        PeerLink(String nodeId, String host, int port) {
+            this.nodeId = nodeId;
+            this.host = host;
+            this.port = port;
+        }
+
+        /**
+         * @param frame node frame
+         * @return false if the link is down or the frame was dropped
+         */
+        boolean send(byte[] frame) {
+            OutboundQueue current = queue;
+            if (current != null && current.offer(frame, false)) {
+                framesSent.increment();
+                return true;
+            }
+            framesDropped.increment();
+            return false;
+        }
+
+        @Override
+        public void run() {
+            boolean warned = false;
+            while (isRunning) {
+                OutboundQueue current = null;
+                try (Socket connected = new Socket()) {
+                    socket = connected;
+                    connected.connect(new InetSocketAddress(host, port), RETRY_MILLIS);
+                    connected.setTcpNoDelay(true);
+                    DataOutputStream output = new DataOutputStream(connected.getOutputStream());
+
+                    current = new OutboundQueue(output, writers, () -> true,
+                                                LINK_CAPACITY + listener.localUsers().size(),
+                                                OverflowPolicy.DISCONNECT, null);
+                    current.offer(encode(HELLO, ClusterBackplane.this.nodeId,
+                                         new String(secret, StandardCharsets.UTF_8), null), false);
+
+                    // Published before the replay: a login missing from the replay
+                    // announces itself on this link, and each replayed user is
+                    // re-checked, so a racing logout is never overtaken by USER_ONLINE
+                    queue = current;
+                    for (String username : listener.localUsers()) {
+                        announce(username, this);
+                    }
+                    LOG.info("[CLUSTER] Linked to node " + nodeId + " at " + host + ":" + port);
+                    warned = false;
+
+                    // Peers never write on this link: returns when it closes
+                    while (connected.getInputStream().read() >= 0) {
+                        // Ignore
+                    }
+                    LOG.warn("[CLUSTER] Link to node " + nodeId + " closed");
+                } catch (IOException e) {
+                    if (isRunning && current != null) {
+                        LOG.warn("[CLUSTER] Link to node " + nodeId + " lost: " + e.getMessage());
+                    } else if (isRunning && !warned) {
+                        LOG.warn("[CLUSTER] Cannot reach node " + nodeId + " at " + host + ":" + port
+                                 + ": " + e.getMessage() + ", retrying");
+                        warned = true;
+                    }
+                } finally {
+                    queue = null;
+                    if (current != null) {
+                        current.close();
+                    }
+                }
+                if (isRunning) {
+                    try {
+                        Thread.sleep(RETRY_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        void close() {
+            OutboundQueue current = queue;
+            if (current != null) {
+                current.close();
+            }
+            closeQuietly(socket);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package SSL;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executor that runs one blocking handler per accepted connection.
+ * Virtual threads are looked up reflectively so the project still compiles and
+ * runs in blocking mode on JDKs older than 21.
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public final class ConnectionExecutors {
+
+    private ConnectionExecutors() {
+    }
+
+    /**
+     * Returns a thread-per-connection executor for the given mode.
+     *
+     * @param mode BLOCKING for platform threads, VIRTUAL for virtual threads
+     * @param namePrefix prefix of the platform thread names
+     * @return executor starting one thread per submitted handler
+     * @throws IllegalArgumentException if the mode is not thread-per-connection
+     * @throws IllegalStateException if virtual threads are not supported by this JVM
+     */
+    public static Executor perConnection(ExecutionMode mode, String namePrefix) {
+        switch (mode) {
+            case BLOCKING:
+                return new PlatformThreadExecutor(namePrefix);
+            case VIRTUAL:
+                return newVirtualThreadPerTaskExecutor();
+            default:
+                throw new IllegalArgumentException(mode + " is not a thread-per-connection mode");
+        }
+    }
+
+    /**
+     * Returns the executor that drains per-session outbound queues in a
+     * thread-per-connection mode. A drain blocked on a stalled client holds one
+     * writer thread, so the pool must grow instead of queueing other sessions
+     * behind it: idle platform writers are reclaimed after 60 seconds.
+     *
+     * @param mode BLOCKING for platform threads, VIRTUAL for virtual threads
+     * @return executor for outbound drain tasks
+     */
+    public static Executor writers(ExecutionMode mode) {
+        if (mode == ExecutionMode.VIRTUAL) {
+            return newVirtualThreadPerTaskExecutor();
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "chat-writer-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return true if this JVM can create virtual threads
+     */
+    public static boolean virtualThreadsSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Calls Executors.newVirtualThreadPerTaskExecutor() (Java 21+).
+     *
+     * @return executor starting one virtual thread per task
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads require Java 21 or later (running "
+                    + System.getProperty("java.version") + ")");
+        }
+    }
+
+    /**
+     * Historical behaviour: a new, unpooled platform thread per connection.
+     */
+    private static final class PlatformThreadExecutor implements Executor {
+        private final String namePrefix;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        PlatformThreadExecutor(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            // Acceptors and the cluster backplane may submit concurrently
+            new Thread(task, namePrefix + "-" + counter.incrementAndGet()).start();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package SSL;
+
+import Common.StatsSnapshot;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Room engine shared by all handler threads.
+ * Rooms live in a concurrent map and keep their members in a copy-on-write
+ * array: broadcasts run on the sender's thread over a stable snapshot, joins
+ * and leaves publish a new array under the room's lock. The last member to
+ * leave a room closes it and removes it from the map.
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+class DirectRoomEngine extends AbstractRoomEngine {
+    private final Map<String, Room> chatRooms;
+
+    /**
+     * Constructs an engine without rooms.
+     *
+     * @param metrics registry receiving fan-out metrics
+     */
+    DirectRoomEngine(ChatMetrics metrics) {
+        super(metrics);
+        this.chatRooms = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public void join(ClientSession session, String roomName) {
+        // Leave current room if in one
+        Room oldRoom = (Room) session.getCurrentRoom();
+        if (oldRoom != null) {
+            removeMember(oldRoom, session);
+            LOG.info("[LEAVE] User: " + session.getUsername() +
+                     " left room: " + oldRoom.getRoomId());
+        }
+
+        // Join new room, or a fresh one if it was reclaimed after the lookup
+        Room room = chatRooms.computeIfAbsent(roomName, this::newRoom);
+        while (!room.reserve()) {
+            chatRooms.remove(roomName, room);
+            room = chatRooms.computeIfAbsent(roomName, this::newRoom);
+        }
+        room.addMember(session);
+        session.setCurrentRoom(room);
+
+        LOG.info("[JOIN] User: " + session.getUsername() + " -> Room: " +
+                 roomName + " (" + room.getMemberCount() + " members)");
+
+        ClientSession[] members = room.getMembers();
+        notifyMembers(roomName, members, members.length, session.getUsername() + " joined the room", session);
+    }
+
+    @Override
+    public void leave(ClientSession session) {
+        Room room = (Room) session.getCurrentRoom();
+        if (room != null) {
+            removeMember(room, session);
+            ClientSession[] members = room.getMembers();
+            notifyMembers(room.getRoomId(), members, members.length,
+                          session.getUsername() + " left the room", session);
+        }
+    }
+
+    @Override
+    public void broadcast(ChatRoom target, ChatMessage message) {
+        Room room = (Room) target;
+        ClientSession[] members = room.getMembers();
+        deliver(room.getRoomId(), message, members, members.length);
+        if (ChatMetrics.ENABLED) {
+            room.broadcasts.increment();
+        }
+    }
+
+    @Override
+    public void broadcast(String roomName, ChatMessage message) {
+        Room room = chatRooms.get(roomName);
+        if (room != null) {
+            broadcast(room, message);
+        }
+    }
+
+    @Override
+    public void notifyRoom(String roomName, String notification) {
+        Room room = chatRooms.get(roomName);
+        if (room != null) {
+            ClientSession[] members = room.getMembers();
+            notifyMembers(roomName, members, members.length, notification, null);
+        }
+    }
+
+    @Override
+    public void collect(StatsSnapshot out) {
+        out.gauge("chat_rooms", "Rooms", chatRooms.size());
+        for (Room room : chatRooms.values()) {
+            out.gauge("chat_room_members", "Members per room", "room", room.getRoomId(), room.getMemberCount());
+            out.counter("chat_room_broadcasts_total", "Messages broadcast per room",
+                        "room", room.getRoomId(), room.getBroadcastCount());
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        // Runs on the callers' threads: nothing to stop
+    }
+
+    private Room newRoom(String roomName) {
+        return new Room(roomName, allocateHandle());
+    }
+
+    /**
+     * Removes a member and reclaims the room if it was the last one.
+     *
+     * @param room room to leave
+     * @param session the leaving session
+     */
+    private void removeMember(Room room, ClientSession session) {
+        if (room.removeMember(session)) {
+            chatRooms.remove(room.getRoomId(), room);
+            releaseHandle(room.getHandle());
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("[ROOMS] Reclaimed empty room: " + room.getRoomId() + " #" + room.getHandle());
+            }
+        }
+    }
+
+    /**
+     * Room shared by the handler threads.
+     * Membership is a copy-on-write array: broadcasts iterate a stable snapshot
+     * without locking or copying, while joins and leaves (far rarer than messages)
+     * publish a new array under a lock.
+     */
+    private static final class Room extends ChatRoom {
+        private static final ClientSession[] NO_MEMBERS = new ClientSession[0];
+
+        private volatile ClientSession[] members = NO_MEMBERS;
+        private final Map<ClientSession, Integer> slots = new HashMap<>();  // Member -> index, guarded by lock
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LongAdder broadcasts = new LongAdder();
+
+        Room(String roomId, int handle) {
+            super(roomId, handle);
+        }
+
+        /**
+         * Adds a member and ends the join reserved with {@link #reserve()}.
+         *
+         * @param session the client session to add
+         */
+        void addMember(ClientSession session) {
+            lock.lock();
+            try {
+                if (!slots.containsKey(session)) {
+                    ClientSession[] current = members;
+                    ClientSession[] updated = new ClientSession[current.length + 1];
+                    System.arraycopy(current, 0, updated, 0, current.length);
+                    updated[current.length] = session;
+                    slots.put(session, current.length);
+                    members = updated;
+                }
+                completeJoin();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Removes a member. The last member takes the freed slot, so no index
+         * shifting is needed.
+         *
+         * @param session the client session to remove
+         * @return true if the room became empty and is now closed
+         */
+        boolean removeMember(ClientSession session) {
+            lock.lock();
+            try {
+                Integer slot = slots.remove(session);
+                if (slot == null) {
+                    return false;
+                }
+                ClientSession[] current = members;
+                int last = current.length - 1;
+                if (last == 0) {
+                    members = NO_MEMBERS;
+                    return tryClose();
+                }
+                ClientSession[] updated = new ClientSession[last];
+                System.arraycopy(current, 0, updated, 0, last);
+                if (slot != last) {
+                    updated[slot] = current[last];
+                    slots.put(current[last], slot);
+                }
+                members = updated;
+                return false;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return immutable snapshot of the members, shared with other callers: do not modify
+         */
+        ClientSession[] getMembers() {
+            return members;
+        }
+
+        @Override
+        int getMemberCount() {
+            return members.length;
+        }
+
+        @Override
+        long getBroadcastCount() {
+            return broadcasts.sum();
+        }
+    }
+}
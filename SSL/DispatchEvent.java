@@ -0,0 +1,33 @@
+package SSL;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JFR event spanning {@link ChatProtocolServer#handleMessage} for one message.
+ * Recorded only above the threshold (1 ms by default).
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+@Name("chat.Dispatch")
+@Label("Chat Dispatch")
+@Category({"Chat", "Protocol"})
+@Description("Protocol handling of one chat message")
+@StackTrace(false)
+@Threshold("1 ms")
+class DispatchEvent extends jdk.jfr.Event {
+    @Label("Message Type")
+    String messageType;
+
+    @Label("Sender")
+    String sender;
+
+    @Label("Room")
+    @Description("Room of the sender's session, if any")
+    String room;
+}
@@ -0,0 +1,29 @@
+package SSL;
+
+/**
+ * Connection handling strategies available to the secure chat server.
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public enum ExecutionMode {
+    BLOCKING,   // One platform thread per SSLSocket, blocking DataInputStream reads
+    VIRTUAL,    // One virtual thread per SSLSocket, same blocking code path (Java 21+)
+    NIO;        // SSLEngine + Selector event loops, fixed thread count
+
+    /**
+     * Parses a command-line mode argument (case insensitive).
+     *
+     * @param value mode name such as "blocking", "virtual" or "nio"
+     * @return the matching execution mode
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static ExecutionMode fromArgument(String value) {
+        for (ExecutionMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(value)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown execution mode: " + value);
+    }
+}
@@ -0,0 +1,207 @@
+package SSL;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Optional per-frame compression of large bodies.
+ * A compressed frame sets {@link #FLAG_COMPRESSED} in its type byte and
+ * carries, in place of the body:
+ * <pre>
+ *   length     4 bytes   length of the original body
+ *   data       n bytes   raw deflate stream of the original body
+ * </pre>
+ * Both sides prime deflate with the same preset dictionary (the v1 JSON keys,
+ * the type names and the server's usual strings), so even a body of a few
+ * hundred bytes finds matches from its first byte.
+ * <p>
+ * Compression is negotiated at login: a client able to inflate sets
+ * {@link #FLAG_ACCEPTS_COMPRESSION} on its LOGIN_REQUEST and the server echoes
+ * it on the LOGIN_RESPONSE when it agrees. Only then does either side send
+ * compressed frames; a peer that never sets the flag never receives one.
+ * <p>
+ * System properties:
+ * <ul>
+ *   <li>chat.compression=false - never offer or accept compression</li>
+ *   <li>chat.compression.threshold=N - smallest body compressed, in bytes (512)</li>
+ *   <li>chat.compression.level=N - deflate level, 1 (fast) to 9 (small) (1)</li>
+ *   <li>chat.compression.max=N - largest original body accepted, in bytes (1 MB)</li>
+ * </ul>
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public final class FrameCompression {
+    /** Type byte flag: the body is compressed */
+    public static final int FLAG_COMPRESSED = 0x80;
+    /** Type byte flag: the sender accepts compressed frames (login only) */
+    public static final int FLAG_ACCEPTS_COMPRESSION = 0x40;
+    /** Bits of the type byte holding the message type */
+    public static final int TYPE_MASK = 0x3F;
+
+    public static final boolean ENABLED = !"false".equals(System.getProperty("chat.compression"));
+    public static final int THRESHOLD = Integer.getInteger("chat.compression.threshold", 512);
+    public static final int LEVEL = Integer.getInteger("chat.compression.level", Deflater.BEST_SPEED);
+    public static final int MAX_ORIGINAL_LENGTH = Integer.getInteger("chat.compression.max", 1024 * 1024);
+
+    private static final int LENGTH_PREFIX = 4;
+
+    // Deflate matches back into the dictionary; the most frequent strings go last (shortest distances)
+    private static final byte[] DICTIONARY = (
+            "LOGIN_REQUEST LOGIN_RESPONSE JOIN_ROOM_REQUEST USER_LIST_REQUEST USER_LIST_RESPONSE "
+            + "ERROR_RESPONSE PRIVATE_MESSAGE Welcome Joined room: Active users:  (in  (on node "
+            + " left the room joined the room[SYSTEM] [PM from ]: "
+            + "{\"type\":\"TEXT_MESSAGE\",\"sender\":\"server\",\"content\":\"[")
+            .getBytes(StandardCharsets.UTF_8);
+
+    // Native zlib state is borrowed from a few shared slots, not tied to threads:
+    // every short-lived virtual or writer thread would otherwise leave its own behind
+    private static final AtomicReferenceArray<Deflater> DEFLATERS = new AtomicReferenceArray<>(BufferPool.STRIPES);
+    private static final AtomicReferenceArray<Inflater> INFLATERS = new AtomicReferenceArray<>(BufferPool.STRIPES);
+
+    private FrameCompression() {
+    }
+
+    /**
+     * Compresses the body of an encoded frame into a new frame, header area
+     * included. The caller writes the header.
+     *
+     * @param frame encoded frame: header area followed by the body
+     * @param headerSize size of the header area
+     * @return compressed frame with the same header area, or null if the body is
+     *         under the threshold or does not shrink
+     */
+    static byte[] compress(byte[] frame, int headerSize) {
+        int bodyLength = frame.length - headerSize;
+        if (bodyLength < THRESHOLD) {
+            return null;
+        }
+        // Not worth it unless it saves more than the length prefix
+        int limit = headerSize + bodyLength - 1;
+        byte[] out = BufferPool.borrowScratch(limit);
+        Deflater deflater = borrowDeflater();
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(frame, headerSize, bodyLength);
+            deflater.finish();
+            int position = headerSize + LENGTH_PREFIX;
+            while (!deflater.finished() && position < limit) {
+                position += deflater.deflate(out, position, limit - position);
+            }
+            if (!deflater.finished()) {
+                return null;
+            }
+
+            byte[] compressed = Arrays.copyOf(out, position);
+            writeInt(compressed, headerSize, bodyLength);
+            return compressed;
+        } finally {
+            returnDeflater(deflater);
+            BufferPool.returnScratch(out);
+        }
+    }
+
+    /**
+     * Restores the original body of a compressed frame.
+     *
+     * @param data array holding the compressed body
+     * @param offset index of the length prefix
+     * @param length compressed body length, prefix included
+     * @param maxLength largest original body accepted (capped by chat.compression.max)
+     * @return the original body
+     * @throws IllegalArgumentException if the body is corrupt, inflates to a
+     *         different length than announced or exceeds the limit
+     */
+    static byte[] decompress(byte[] data, int offset, int length, int maxLength) {
+        if (length < LENGTH_PREFIX) {
+            throw new IllegalArgumentException("Truncated compressed body: " + length + " bytes");
+        }
+        int originalLength = ChatMessage.readInt(data, offset);
+        if (originalLength < 0 || originalLength > Math.min(maxLength, MAX_ORIGINAL_LENGTH)) {
+            throw new IllegalArgumentException("Invalid original body length: " + originalLength);
+        }
+
+        // The output is bounded by the announced length: a deflate bomb stops there
+        byte[] body = new byte[originalLength];
+        Inflater inflater = borrowInflater();
+        try {
+            inflater.setDictionary(DICTIONARY);
+            inflater.setInput(data, offset + LENGTH_PREFIX, length - LENGTH_PREFIX);
+            int position = 0;
+            while (position < originalLength) {
+                int inflated = inflater.inflate(body, position, originalLength - position);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                position += inflated;
+            }
+            // Input left over means the stream inflates to more than announced
+            if (position != originalLength || (!inflater.finished() && inflater.getRemaining() > 0)) {
+                throw new IllegalArgumentException("Compressed body does not match its length: " + originalLength);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt compressed body: " + e.getMessage());
+        } finally {
+            returnInflater(inflater);
+        }
+        return body;
+    }
+
+    /**
+     * @return a reset deflater, from the calling thread's slot or new
+     */
+    private static Deflater borrowDeflater() {
+        Deflater deflater = DEFLATERS.getAndSet(BufferPool.stripe(), null);
+        if (deflater == null) {
+            return new Deflater(LEVEL, true);
+        }
+        deflater.reset();
+        return deflater;
+    }
+
+    /**
+     * Puts a deflater back in the calling thread's slot, or frees its native
+     * memory right away if the slot is taken.
+     *
+     * @param deflater deflater from {@link #borrowDeflater()}
+     */
+    private static void returnDeflater(Deflater deflater) {
+        if (!DEFLATERS.compareAndSet(BufferPool.stripe(), null, deflater)) {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @return a reset inflater, from the calling thread's slot or new
+     */
+    private static Inflater borrowInflater() {
+        Inflater inflater = INFLATERS.getAndSet(BufferPool.stripe(), null);
+        if (inflater == null) {
+            return new Inflater(true);
+        }
+        inflater.reset();
+        return inflater;
+    }
+
+    /**
+     * Same as {@link #returnDeflater(Deflater)} for inflaters.
+     *
+     * @param inflater inflater from {@link #borrowInflater()}
+     */
+    private static void returnInflater(Inflater inflater) {
+        if (!INFLATERS.compareAndSet(BufferPool.stripe(), null, inflater)) {
+            inflater.end();
+        }
+    }
+
+    private static void writeInt(byte[] data, int index, int value) {
+        data[index] = (byte) (value >>> 24);
+        data[index + 1] = (byte) (value >>> 16);
+        data[index + 2] = (byte) (value >>> 8);
+        data[index + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,41 @@
+package SSL;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JFR event spanning the handling of one decoded frame on its connection's
+ * thread (handler thread or event loop), with the transport-side details the
+ * protocol layer does not see. The wait for the frame to arrive is excluded.
+ * Recorded only above the threshold (5 ms by default, configurable in the
+ * recording settings as chat.Frame#threshold).
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+@Name("chat.Frame")
+@Label("Chat Frame")
+@Category({"Chat", "Transport"})
+@Description("Handling of one received protocol frame")
+@StackTrace(false)
+@Threshold("5 ms")
+class FrameEvent extends jdk.jfr.Event {
+    @Label("Message Type")
+    String messageType;
+
+    @Label("Frame Size")
+    @DataAmount
+    int bytes;
+
+    @Label("Protocol Version")
+    int protocolVersion;
+
+    @Label("Transport")
+    @Description("blocking, virtual or nio")
+    String transport;
+}
@@ -0,0 +1,99 @@
+package SSL;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads protocol frames from a blocking stream into one reusable buffer and
+ * decodes them in place. One instance per connection; not thread-safe.
+ * The buffer is borrowed from {@link BufferPool#shared()}: call {@link #release()}
+ * once the connection is done.
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public class FrameReader {
+    private final DataInputStream input;
+    private final int maxBodyLength;
+    private final ChatMetrics metrics;
+    private ByteBuffer pooled;
+    private byte[] buffer;      // Backing array of the pooled buffer
+    private int lastFrameLength;
+
+    /**
+     * Constructs a reader for one connection.
+     *
+     * @param input the connection's input stream
+     * @param maxBodyLength largest body accepted, also once inflated; a longer frame ends the connection
+     */
+    public FrameReader(DataInputStream input, int maxBodyLength) {
+        this(input, maxBodyLength, null);
+    }
+
+    /**
+     * Constructs a reader that times each in-place decode.
+     *
+     * @param input the connection's input stream
+     * @param maxBodyLength largest body accepted, also once inflated; a longer frame ends the connection
+     * @param metrics registry receiving decode latencies, or null
+     */
+    public FrameReader(DataInputStream input, int maxBodyLength, ChatMetrics metrics) {
+        this.input = input;
+        this.maxBodyLength = maxBodyLength;
+        this.metrics = ChatMetrics.ENABLED ? metrics : null;
+        this.pooled = BufferPool.shared().acquire(ChatMessage.HEADER_SIZE + Math.min(maxBodyLength, 1024));
+        this.buffer = pooled.array();
+    }
+
+    /**
+     * Blocks until the next complete frame has arrived and decodes it.
+     *
+     * @return the decoded message
+     * @throws java.io.EOFException if the peer closed the connection
+     * @throws IOException on read failure or a body length out of range; the
+     *         connection must be closed, as the NIO transport does, rather than
+     *         reading through up to 2 GB of announced body
+     */
+    public ChatMessage readFrame() throws IOException {
+        input.readFully(buffer, 0, ChatMessage.HEADER_SIZE);
+        int bodyLength = ChatMessage.readInt(buffer, 2);
+
+        if (bodyLength < 0 || bodyLength > maxBodyLength) {
+            throw new IOException("Invalid body length: " + bodyLength);
+        }
+
+        int frameLength = ChatMessage.HEADER_SIZE + bodyLength;
+        lastFrameLength = frameLength;
+        if (buffer.length < frameLength) {
+            pooled.position(ChatMessage.HEADER_SIZE);   // Keep the header already read
+            pooled = BufferPool.shared().enlarge(pooled, frameLength, false);
+            buffer = pooled.array();
+        }
+        input.readFully(buffer, ChatMessage.HEADER_SIZE, bodyLength);
+
+        if (metrics == null) {
+            return ChatMessage.decode(buffer, 0, frameLength, maxBodyLength);
+        }
+        long start = System.nanoTime();
+        ChatMessage message = ChatMessage.decode(buffer, 0, frameLength, maxBodyLength);
+        metrics.recordDecode(System.nanoTime() - start);
+        return message;
+    }
+
+    /**
+     * @return header and body size of the last frame read, in bytes
+     */
+    public int getLastFrameLength() {
+        return lastFrameLength;
+    }
+
+    /**
+     * Returns the read buffer to the pool. The reader must not be used afterwards.
+     */
+    public void release() {
+        BufferPool.shared().release(pooled);
+        pooled = null;
+        buffer = null;
+    }
+}
@@ -0,0 +1,256 @@
+package SSL;
+
+import Common.Histogram;
+import Common.Log;
+import Common.StatsSnapshot;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admission control and dedicated executor for TLS handshakes.
+ * A handshake costs far more CPU than any chat message, so during a connect
+ * storm unbounded handshakes would starve the established sessions. The stage
+ * bounds that work:
+ * <ul>
+ *   <li>at most chat.handshake.pending connections (256) may be between accept
+ *       and handshake completion; beyond that, new connections are closed at
+ *       once instead of queueing (fast rejection)</li>
+ *   <li>at most chat.handshake.threads handshakes (half the cores, at least
+ *       one) compute at once, leaving the other cores to the established
+ *       sessions. The delegated tasks of SSLEngine handshakes run on that many
+ *       stage threads; blocking handshakes run on their connection's own thread
+ *       and take one of that many permits, only once the client has sent its
+ *       first handshake record, so idle peers never hold a permit</li>
+ *   <li>work waiting longer than chat.handshake.queue.timeout ms (5000) is
+ *       dropped: the client has most likely given up already. Keep it above the
+ *       time needed to drain a full stage, or admitted handshakes are wasted</li>
+ *   <li>a handshake not finished within chat.handshake.timeout ms (10000)
+ *       of its accept is aborted, so idle or slow peers cannot hold admission
+ *       slots</li>
+ * </ul>
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public class HandshakeStage {
+    private static final Log LOG = Log.get("handshake");
+
+    public static final int DEFAULT_THREADS = Integer.getInteger("chat.handshake.threads",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    public static final int DEFAULT_MAX_PENDING = Integer.getInteger("chat.handshake.pending", 256);
+    public static final long DEFAULT_QUEUE_TIMEOUT_MS = Long.getLong("chat.handshake.queue.timeout", 5000);
+    public static final int DEFAULT_HANDSHAKE_TIMEOUT_MS = Integer.getInteger("chat.handshake.timeout", 10000);
+
+    private final ThreadPoolExecutor executor;
+    private final Semaphore permits;
+    private final ScheduledThreadPoolExecutor timer;
+    private final int maxPending;
+    private final long queueTimeoutNanos;
+    private final int handshakeTimeoutMillis;
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final Histogram queueWaitNanos = new Histogram();
+
+    /**
+     * Constructs a stage with the limits from the system properties.
+     */
+    public HandshakeStage() {
+        this(DEFAULT_THREADS, DEFAULT_MAX_PENDING, DEFAULT_QUEUE_TIMEOUT_MS, DEFAULT_HANDSHAKE_TIMEOUT_MS);
+    }
+
+    /**
+     * Constructs a stage.
+     *
+     * @param threads handshakes computed at once (stage threads or permits)
+     * @param maxPending connections admitted but not yet through their handshake
+     * @param queueTimeoutMillis longest wait of handshake work before it is dropped
+     * @param handshakeTimeoutMillis longest handshake before the connection is closed
+     */
+    public HandshakeStage(int threads, int maxPending, long queueTimeoutMillis, int handshakeTimeoutMillis) {
+        this.maxPending = maxPending;
+        this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+        this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+
+        // Unbounded queue, but each admitted connection has at most one task in it.
+        // Core threads start on first use, so blocking modes never create them
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), task -> {
+                    Thread thread = new Thread(task, "chat-handshake-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.timer = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "chat-handshake-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+        this.permits = new Semaphore(threads, true);
+    }
+
+    /**
+     * Reserves a slot for a freshly accepted connection. Every successful call
+     * must be matched by one {@link #release()} once the handshake is over.
+     *
+     * @return false if the stage is full: close the connection right away
+     */
+    public boolean tryAdmit() {
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            rejected.increment();
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("[HANDSHAKE] Stage full (" + maxPending + " pending), connection rejected");
+            }
+            return false;
+        }
+        admitted.increment();
+        return true;
+    }
+
+    /**
+     * Frees the slot of a connection whose handshake completed or failed.
+     */
+    public void release() {
+        pending.decrementAndGet();
+    }
+
+    /**
+     * Runs handshake work on the stage threads.
+     *
+     * @param work the handshake work
+     * @param onDropped run instead of the work if it waited too long or the stage is shut down
+     */
+    public void execute(Runnable work, Runnable onDropped) {
+        long queuedAt = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                long waited = System.nanoTime() - queuedAt;
+                queueWaitNanos.record(waited);
+                if (waited > queueTimeoutNanos) {
+                    expired.increment();
+                    onDropped.run();
+                } else {
+                    work.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            onDropped.run();
+        }
+    }
+
+    /**
+     * Waits for a permit to compute a blocking handshake on the calling thread.
+     * Every successful call must be matched by one {@link #releasePermit()}.
+     *
+     * @param deadlineNanos System.nanoTime() at which the handshake times out
+     * @return false if no permit came within the queue timeout or before the deadline
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean acquirePermit(long deadlineNanos) throws InterruptedException {
+        long queuedAt = System.nanoTime();
+        long wait = Math.min(queueTimeoutNanos, deadlineNanos - queuedAt);
+        boolean acquired = wait > 0 && permits.tryAcquire(wait, TimeUnit.NANOSECONDS);
+        queueWaitNanos.record(System.nanoTime() - queuedAt);
+        if (!acquired) {
+            expired.increment();
+        }
+        return acquired;
+    }
+
+    /**
+     * Gives back a permit taken by {@link #acquirePermit(long)}.
+     */
+    public void releasePermit() {
+        permits.release();
+    }
+
+    /**
+     * Runs an action if a handshake is still running after the handshake timeout.
+     *
+     * @param onTimeout closes the connection; must check itself whether the handshake completed
+     * @return handle to cancel once the handshake completes
+     */
+    public ScheduledFuture<?> scheduleTimeout(Runnable onTimeout) {
+        return timer.schedule(onTimeout, handshakeTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return handshake timeout, in milliseconds
+     */
+    public int getHandshakeTimeoutMillis() {
+        return handshakeTimeoutMillis;
+    }
+
+    /**
+     * Counts a handshake aborted by the handshake timeout.
+     */
+    void recordTimeout() {
+        timedOut.increment();
+    }
+
+    /**
+     * Counts a handshake that failed (protocol error, peer gone).
+     */
+    void recordFailure() {
+        failed.increment();
+    }
+
+    /**
+     * @return connections admitted and not through their handshake yet
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * @return connections closed at accept because the stage was full
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Adds the stage figures to a stats snapshot.
+     *
+     * @param out snapshot being collected
+     */
+    public void collect(StatsSnapshot out) {
+        out.gauge("chat_handshake_pending", "Connections admitted and still handshaking", pending.get());
+        out.gauge("chat_handshake_queued", "Handshakes waiting for a thread or a permit",
+                  executor.getQueue().size() + permits.getQueueLength());
+        out.counter("chat_handshake_admitted_total", "Connections admitted to the handshake stage", admitted.sum());
+        out.counter("chat_handshake_rejected_total", "Connections closed at accept, stage full", rejected.sum());
+        out.counter("chat_handshake_expired_total", "Handshakes dropped after the queue timeout", expired.sum());
+        out.counter("chat_handshake_timeouts_total", "Handshakes aborted by the handshake timeout", timedOut.sum());
+        out.counter("chat_handshake_failures_total", "Handshakes that failed", failed.sum());
+        out.summary("chat_handshake_queue_seconds", "Wait of handshakes for a thread or a permit", null, null,
+                    queueWaitNanos.snapshot(), 1e9);
+    }
+
+    /**
+     * Stops the threads; queued work is dropped.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    /**
+     * @return one-line statistics of the stage
+     */
+    @Override
+    public String toString() {
+        return "HandshakeStage{pending=" + pending.get() + ", admitted=" + admitted.sum()
+             + ", rejected=" + rejected.sum() + ", expired=" + expired.sum()
+             + ", timeouts=" + timedOut.sum() + ", failures=" + failed.sum()
+             + ", queueWait=" + queueWaitNanos.snapshot().toMicrosString() + "}";
+    }
+}
@@ -0,0 +1,348 @@
+package SSL;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Body codec of protocol version 1: {"type":"...","sender":"...","content":"..."}.
+ * The writer escapes string values as JSON requires and encodes UTF-8 straight
+ * into the destination frame; the tokenizer extracts every field in a single
+ * scan over the raw bytes. Messages without characters that need escaping are
+ * encoded byte for byte as the original concatenation-based serializer did
+ * (including "null" for a null field and '?' for an unpaired surrogate).
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+final class JsonBodyCodec {
+    private static final byte[] TYPE_PREFIX = ascii("{\"type\":\"");
+    private static final byte[] SENDER_PREFIX = ascii("\",\"sender\":\"");
+    private static final byte[] CONTENT_PREFIX = ascii("\",\"content\":\"");
+    private static final byte[] SUFFIX = ascii("\"}");
+
+    private static final byte[] KEY_SENDER = ascii("sender");
+    private static final byte[] KEY_CONTENT = ascii("content");
+    private static final byte[] HEX = ascii("0123456789abcdef");
+    private static final byte[] NULL_LITERAL = ascii("null");
+
+    private JsonBodyCodec() {
+    }
+
+    // ---------------------------------------------------------------- Writer
+
+    /**
+     * Encodes the body behind a reserved header area in a single pass: string
+     * values are escaped into a borrowed scratch array, then copied once into
+     * an exact-size frame.
+     *
+     * @param message message to encode
+     * @param headerSize bytes left free at the start of the frame for the header
+     * @return frame holding headerSize reserved bytes followed by the body
+     */
+    static byte[] encode(ChatMessage message, int headerSize) {
+        String type = message.getMessageType().name();
+        String sender = message.getSender();
+        String content = message.getContent();
+        int bound = headerSize + TYPE_PREFIX.length + SENDER_PREFIX.length + CONTENT_PREFIX.length
+                  + SUFFIX.length + maxEscapedSize(type) + maxEscapedSize(sender) + maxEscapedSize(content);
+
+        int longest = Math.max(type.length(), Math.max(length(sender), length(content)));
+
+        byte[] scratch = BufferPool.borrowScratch(bound);
+        char[] chars = BufferPool.borrowScratchChars(longest);
+        try {
+            int position = put(TYPE_PREFIX, scratch, headerSize);
+            position = writeEscaped(type, chars, scratch, position);
+            position = put(SENDER_PREFIX, scratch, position);
+            position = writeEscaped(sender, chars, scratch, position);
+            position = put(CONTENT_PREFIX, scratch, position);
+            position = writeEscaped(content, chars, scratch, position);
+            position = put(SUFFIX, scratch, position);
+            return Arrays.copyOf(scratch, position);
+        } finally {
+            BufferPool.returnScratchChars(chars);
+            BufferPool.returnScratch(scratch);
+        }
+    }
+
+    /**
+     * Upper bound of a string once escaped and UTF-8 encoded: a control
+     * character expands to a 6-byte unicode escape, nothing expands further.
+     */
+    private static int maxEscapedSize(String value) {
+        return value == null ? NULL_LITERAL.length : value.length() * 6;
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    /**
+     * Escapes a string value. The string is first copied into the scratch char
+     * array, which is much cheaper to scan than repeated {@link String#charAt} calls.
+     *
+     * @param chars scratch array at least as long as the string
+     */
+    private static int writeEscaped(String value, char[] chars, byte[] dest, int position) {
+        if (value == null) {
+            return put(NULL_LITERAL, dest, position);
+        }
+        int length = value.length();
+        value.getChars(0, length, chars, 0);
+        for (int i = 0; i < length; i++) {
+            char c = chars[i];
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                dest[position++] = (byte) c;
+            } else if (c < 0x80) {
+                dest[position++] = '\\';
+                switch (c) {
+                    case '"':  dest[position++] = '"'; break;
+                    case '\\': dest[position++] = '\\'; break;
+                    case '\b': dest[position++] = 'b'; break;
+                    case '\f': dest[position++] = 'f'; break;
+                    case '\n': dest[position++] = 'n'; break;
+                    case '\r': dest[position++] = 'r'; break;
+                    case '\t': dest[position++] = 't'; break;
+                    default:
+                        dest[position++] = 'u';
+                        dest[position++] = '0';
+                        dest[position++] = '0';
+                        dest[position++] = HEX[c >> 4];
+                        dest[position++] = HEX[c & 0xF];
+                }
+            } else if (c < 0x800) {
+                dest[position++] = (byte) (0xC0 | (c >> 6));
+                dest[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                       && Character.isLowSurrogate(chars[i + 1])) {
+                int codePoint = Character.toCodePoint(c, chars[++i]);
+                dest[position++] = (byte) (0xF0 | (codePoint >> 18));
+                dest[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                dest[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                dest[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                dest[position++] = '?';
+            } else {
+                dest[position++] = (byte) (0xE0 | (c >> 12));
+                dest[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                dest[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return position;
+    }
+
+    // ------------------------------------------------------------- Tokenizer
+
+    /**
+     * Decodes a body in place, extracting all fields in one left-to-right scan.
+     * Unknown keys are skipped; a missing sender or content decodes as "".
+     *
+     * @param type message type from the header (the body's "type" is informative only)
+     * @param data array holding the body
+     * @param offset index of the first body byte
+     * @param length body length
+     * @return the decoded message, with protocol version 1
+     * @throws IllegalArgumentException if the body is not a flat JSON object of strings
+     */
+    static ChatMessage decode(MessageType type, byte[] data, int offset, int length) {
+        Scanner scanner = new Scanner(data, offset, offset + length);
+        String sender = "";
+        String content = "";
+
+        scanner.expect('{');
+        if (!scanner.tryConsume('}')) {
+            do {
+                int keyStart = scanner.position + 1;
+                int keyEnd = scanner.skipString();
+                scanner.expect(':');
+
+                if (matches(data, keyStart, keyEnd, KEY_SENDER)) {
+                    sender = scanner.readString();
+                } else if (matches(data, keyStart, keyEnd, KEY_CONTENT)) {
+                    content = scanner.readString();
+                } else {
+                    scanner.skipString();
+                }
+            } while (scanner.tryConsume(','));
+            scanner.expect('}');
+        }
+
+        return new ChatMessage(type, sender, content);
+    }
+
+    /**
+     * Cursor over a JSON body. Allocates only the decoded value strings.
+     */
+    private static final class Scanner {
+        private final byte[] data;
+        private final int end;
+        private int position;
+
+        Scanner(byte[] data, int position, int end) {
+            this.data = data;
+            this.position = position;
+            this.end = end;
+        }
+
+        void expect(char c) {
+            skipWhitespace();
+            if (position >= end || data[position] != c) {
+                throw new IllegalArgumentException("Malformed JSON body: expected '" + c + "'");
+            }
+            position++;
+        }
+
+        boolean tryConsume(char c) {
+            skipWhitespace();
+            if (position < end && data[position] == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Skips a string token.
+         *
+         * @return index of its closing quote
+         */
+        int skipString() {
+            expectQuote();
+            while (position < end) {
+                byte b = data[position];
+                if (b == '"') {
+                    return position++;
+                }
+                position += (b == '\\') ? 2 : 1;
+            }
+            throw new IllegalArgumentException("Malformed JSON body: unterminated string");
+        }
+
+        /**
+         * Reads a string token, unescaping it only if it contains escapes.
+         *
+         * @return the decoded value
+         */
+        String readString() {
+            expectQuote();
+            int start = position;
+            while (position < end) {
+                byte b = data[position];
+                if (b == '"') {
+                    return new String(data, start, position++ - start, StandardCharsets.UTF_8);
+                }
+                if (b == '\\') {
+                    return readEscapedString(start);
+                }
+                position++;
+            }
+            throw new IllegalArgumentException("Malformed JSON body: unterminated string");
+        }
+
+        /**
+         * Slow path for values containing escape sequences.
+         *
+         * @param start index of the first byte of the value
+         * @return the decoded value
+         */
+        private String readEscapedString(int start) {
+            StringBuilder value = new StringBuilder(position - start + 16);
+            int runStart = start;
+            while (position < end) {
+                byte b = data[position];
+                if (b == '"') {
+                    value.append(new String(data, runStart, position - runStart, StandardCharsets.UTF_8));
+                    position++;
+                    return value.toString();
+                }
+                if (b != '\\') {
+                    position++;
+                    continue;
+                }
+
+                value.append(new String(data, runStart, position - runStart, StandardCharsets.UTF_8));
+                if (position + 1 >= end) {
+                    break;
+                }
+                byte escaped = data[position + 1];
+                position += 2;
+                switch (escaped) {
+                    case '"':  value.append('"'); break;
+                    case '\\': value.append('\\'); break;
+                    case '/':  value.append('/'); break;
+                    case 'b':  value.append('\b'); break;
+                    case 'f':  value.append('\f'); break;
+                    case 'n':  value.append('\n'); break;
+                    case 'r':  value.append('\r'); break;
+                    case 't':  value.append('\t'); break;
+                    case 'u':
+                        if (position + 4 > end) {
+                            throw new IllegalArgumentException("Malformed JSON body: truncated \\u escape");
+                        }
+                        value.append((char) ((hex(data[position]) << 12) | (hex(data[position + 1]) << 8)
+                                           | (hex(data[position + 2]) << 4) | hex(data[position + 3])));
+                        position += 4;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Malformed JSON body: bad escape \\" + (char) escaped);
+                }
+                runStart = position;
+            }
+            throw new IllegalArgumentException("Malformed JSON body: unterminated string");
+        }
+
+        private void expectQuote() {
+            skipWhitespace();
+            if (position >= end || data[position] != '"') {
+                throw new IllegalArgumentException("Malformed JSON body: expected string");
+            }
+            position++;
+        }
+
+        private void skipWhitespace() {
+            while (position < end) {
+                byte b = data[position];
+                if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+                    return;
+                }
+                position++;
+            }
+        }
+    }
+
+    // --------------------------------------------------------------- Helpers
+
+    private static boolean matches(byte[] data, int start, int end, byte[] key) {
+        if (end - start != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (data[start + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hex(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        }
+        if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        throw new IllegalArgumentException("Malformed JSON body: bad hex digit");
+    }
+
+    private static int put(byte[] source, byte[] dest, int position) {
+        System.arraycopy(source, 0, dest, position, source.length);
+        return position + source.length;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
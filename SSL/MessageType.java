@@ -10,5 +10,22 @@ public enum MessageType {
     TEXT_MESSAGE,
     PRIVATE_MESSAGE,
     USER_LIST_REQUEST,
-    ERROR_RESPONSE, USER_LIST_RESPONSE
+    ERROR_RESPONSE, USER_LIST_RESPONSE;
+    
+    // values() clones the array on every call; decode once per frame uses this copy
+    private static final MessageType[] BY_CODE = values();
+    
+    /**
+     * Returns the type encoded in a frame header.
+     * 
+     * @param code the type byte (ordinal)
+     * @return the matching message type
+     * @throws IllegalArgumentException if the code is unknown
+     */
+    public static MessageType fromCode(int code) {
+        if (code < 0 || code >= BY_CODE.length) {
+            throw new IllegalArgumentException("Unknown message type code: " + code);
+        }
+        return BY_CODE[code];
+    }
 }
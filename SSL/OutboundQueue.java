@@ -0,0 +1,432 @@
+package SSL;
+
+import Common.Log;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Bounded, lock-free queue of encoded frames waiting to be written to one client.
+ * Any thread may offer frames without blocking; a single drain task at a time
+ * writes them to the client's stream on the writer executor, so a client with a
+ * full TCP window only ever stalls its own writer, never the broadcaster.
+ *
+ * Capacity and overflow policy default to the system properties
+ * chat.outbound.capacity (1024 frames) and chat.outbound.policy (drop_oldest).
+ * A drain coalesces the frames queued at that moment into writes of up to
+ * chat.outbound.batch bytes (16384, one full TLS record), so a busy room costs
+ * one record and one syscall per batch rather than per frame. A batch never
+ * waits for more frames: it ends when the queue runs empty or the bound is hit.
+ * Written frames are counted, and roughly one drain every chat.metrics.write.sample
+ * (64) frames is timed, into the session's own counters and, when given, the
+ * server's {@link ChatMetrics}.
+ *
+ * Under DROP_NOTIFICATIONS, queued notifications are wrapped so that a chat
+ * frame arriving at a full queue evicts the oldest notification still queued,
+ * and only evicts the oldest frame once no notification is left.
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public class OutboundQueue {
+    private static final Log LOG = Log.get("connection");
+
+    public static final int DEFAULT_CAPACITY = Integer.getInteger("chat.outbound.capacity", 1024);
+    public static final OverflowPolicy DEFAULT_POLICY =
+            OverflowPolicy.fromArgument(System.getProperty("chat.outbound.policy", "drop_oldest"));
+    public static final int DEFAULT_BATCH_BYTES = Math.max(1, Integer.getInteger("chat.outbound.batch", 16384));
+
+    private final DataOutputStream output;
+    private final Executor writer;
+    private final BooleanSupplier writable;
+    private final int capacity;
+    private final OverflowPolicy policy;
+
+    private final Queue<Object> frames;     // byte[] frames, or Notification under DROP_NOTIFICATIONS
+    private final AtomicInteger size;
+    private final AtomicInteger notifications;
+    private final AtomicBoolean scheduled;
+    private final AtomicLong droppedFrames;
+    private final ChatMetrics metrics;
+    private final Runnable drainTask;
+    private volatile boolean closed;
+
+    // Written by the single running drain task only. framesWritten is updated on every
+    // drain and left non-volatile: other threads may read a slightly stale count
+    private long framesWritten;
+    private long writes;                    // Stream writes, one per batch or oversized frame
+    private long nextSample;                // framesWritten value at which the next drain is timed
+    private volatile long writeNanos;
+    private volatile long maxWriteNanos;
+
+    /**
+     * Constructs a queue with the default capacity and policy.
+     *
+     * @param output client stream the frames are written to
+     * @param writer executor running the drain task
+     */
+    public OutboundQueue(DataOutputStream output, Executor writer) {
+        this(output, writer, null);
+    }
+
+    /**
+     * Constructs a queue with the default capacity and policy reporting to a metrics registry.
+     *
+     * @param output client stream the frames are written to
+     * @param writer executor running the drain task
+     * @param metrics server metrics, or null
+     */
+    public OutboundQueue(DataOutputStream output, Executor writer, ChatMetrics metrics) {
+        this(output, writer, () -> true, DEFAULT_CAPACITY, DEFAULT_POLICY, metrics);
+    }
+
+    /**
+     * Constructs a queue.
+     *
+     * @param output client stream the frames are written to
+     * @param writer executor running the drain task
+     * @param writable checked before each frame; the drain pauses while false
+     *                 and continues on {@link #resume()}
+     * @param capacity maximum number of queued frames
+     * @param policy behaviour when the queue is full
+     * @param metrics server metrics, or null
+     */
+    public OutboundQueue(DataOutputStream output, Executor writer, BooleanSupplier writable,
+                         int capacity, OverflowPolicy policy, ChatMetrics metrics) {
+        this.output = output;
+        this.writer = writer;
+        this.writable = writable;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.frames = new ConcurrentLinkedQueue<>();
+        this.size = new AtomicInteger();
+        this.notifications = new AtomicInteger();
+        this.scheduled = new AtomicBoolean(false);
+        this.droppedFrames = new AtomicLong();
+        this.metrics = ChatMetrics.ENABLED ? metrics : null;
+        this.drainTask = this::drain;
+    }
+
+    /**
+     * Queues a frame for the client without blocking.
+     * The frame array is shared and must not be modified afterwards.
+     *
+     * @param frame encoded frame
+     * @param notification true for system notifications (first to go under DROP_NOTIFICATIONS)
+     * @return true if the frame was queued, false if it was dropped or the queue is closed
+     */
+    public boolean offer(byte[] frame, boolean notification) {
+        if (closed) {
+            return false;
+        }
+
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            if (!makeRoom(notification)) {
+                countDropped();
+                return false;
+            }
+            size.incrementAndGet();
+        }
+
+        if (notification && policy == OverflowPolicy.DROP_NOTIFICATIONS) {
+            notifications.incrementAndGet();
+            frames.add(new Notification(frame));
+        } else {
+            frames.add(frame);
+        }
+        schedule();
+        return true;
+    }
+
+    /**
+     * Applies the overflow policy for a frame that does not fit.
+     *
+     * @param notification true if the incoming frame is a system notification
+     * @return true if the incoming frame may now be queued
+     */
+    private boolean makeRoom(boolean notification) {
+        switch (policy) {
+            case DISCONNECT:
+                LOG.warn("[OUTBOUND] Queue full (" + capacity + " frames), disconnecting client");
+                close();
+                return false;
+            case DROP_NOTIFICATIONS:
+                // Notifications are dropped, chat frames evict a queued notification first
+                return !notification && (evictNotification() || evictOldest());
+            default:
+                return evictOldest();
+        }
+    }
+
+    /**
+     * Drops the oldest queued frame, if any, to make room for a new one.
+     *
+     * @return always true: the incoming frame may now be queued
+     */
+    private boolean evictOldest() {
+        Object entry = frames.poll();
+        if (entry != null) {
+            size.decrementAndGet();
+            if (entry instanceof Notification) {
+                notifications.decrementAndGet();
+            }
+            countDropped();
+        }
+        return true;
+    }
+
+    /**
+     * Drops the oldest queued notification to make room for a chat frame. Scans
+     * the queue, but only while the counter says a notification is queued.
+     *
+     * @return true if a notification was dropped
+     */
+    private boolean evictNotification() {
+        if (notifications.get() <= 0) {
+            return false;
+        }
+        for (Object entry : frames) {
+            // remove fails if the drain polled the entry meanwhile: try the next one
+            if (entry instanceof Notification && frames.remove(entry)) {
+                size.decrementAndGet();
+                notifications.decrementAndGet();
+                countDropped();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void countDropped() {
+        droppedFrames.incrementAndGet();
+        if (metrics != null) {
+            metrics.recordDropped();
+        }
+    }
+
+    /**
+     * Restarts draining after the transport reported it was not writable.
+     */
+    public void resume() {
+        if (!frames.isEmpty()) {
+            schedule();
+        }
+    }
+
+    /**
+     * Submits the drain task unless one is already pending or running.
+     */
+    private void schedule() {
+        if (!closed && scheduled.compareAndSet(false, true)) {
+            writer.execute(drainTask);
+        }
+    }
+
+    /**
+     * Writes queued frames until the queue is empty or the transport is not writable.
+     * Flushes once the queue runs empty so back-to-back frames share a flush.
+     */
+    private void drain() {
+        try {
+            long start = ChatMetrics.ENABLED && framesWritten >= nextSample ? System.nanoTime() : -1;
+            int written = writeFrames();
+            framesWritten += written;
+            if (start >= 0 && written > 0) {
+                recordWrite(System.nanoTime() - start);
+            }
+        } catch (IOException e) {
+            LOG.warn("[OUTBOUND] Write failed: " + e.getMessage());
+            close();
+        } finally {
+            scheduled.set(false);
+        }
+
+        // A frame offered after the last poll but before the flag reset would be stranded
+        if (!frames.isEmpty() && writable.getAsBoolean()) {
+            schedule();
+        }
+    }
+
+    /**
+     * Writes the queued frames, coalescing consecutive ones into batches.
+     * A frame alone in the queue is written as is, without a copy.
+     *
+     * @return number of frames written
+     * @throws IOException if the client stream failed
+     */
+    private int writeFrames() throws IOException {
+        int written = 0;
+        ByteBuffer batch = null;
+        int batched = 0;
+        try {
+            Object entry;
+            while (!closed && writable.getAsBoolean() && (entry = frames.poll()) != null) {
+                size.decrementAndGet();
+                byte[] frame;
+                if (entry instanceof Notification) {
+                    notifications.decrementAndGet();
+                    frame = ((Notification) entry).frame;
+                } else {
+                    frame = (byte[]) entry;
+                }
+                written++;
+                if (batch == null && (frames.isEmpty() || frame.length >= DEFAULT_BATCH_BYTES)) {
+                    writeBatch(frame, 0, frame.length, 1);
+                    continue;
+                }
+                if (batch == null) {
+                    batch = BufferPool.shared().acquire(DEFAULT_BATCH_BYTES);
+                }
+                if (batched > 0 && batch.position() + frame.length > DEFAULT_BATCH_BYTES) {
+                    writeBatch(batch.array(), 0, batch.position(), batched);
+                    batch.clear();
+                    batched = 0;
+                }
+                if (frame.length >= DEFAULT_BATCH_BYTES) {
+                    writeBatch(frame, 0, frame.length, 1);
+                } else {
+                    batch.put(frame);
+                    batched++;
+                }
+            }
+            if (batched > 0) {
+                writeBatch(batch.array(), 0, batch.position(), batched);
+            }
+            if (written > 0) {
+                output.flush();
+            }
+        } finally {
+            if (batch != null) {
+                BufferPool.shared().release(batch);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * @param bytes array holding the frames
+     * @param offset start of the first frame
+     * @param length total length of the frames
+     * @param frameCount number of frames in the range
+     * @throws IOException if the client stream failed
+     */
+    private void writeBatch(byte[] bytes, int offset, int length, int frameCount) throws IOException {
+        output.write(bytes, offset, length);
+        writes++;
+        if (metrics != null) {
+            metrics.recordBatch(frameCount);
+        }
+    }
+
+    /**
+     * Accounts one timed drain. Two clock reads cost as much as writing a small
+     * frame to a fast socket, so only the drain reaching the next sample threshold
+     * is timed. Runs before the scheduled flag is reset: one thread at a time.
+     *
+     * @param nanos time spent writing and flushing the drained frames
+     */
+    private void recordWrite(long nanos) {
+        nextSample = framesWritten + ChatMetrics.WRITE_SAMPLE;
+        writeNanos += nanos;
+        if (nanos > maxWriteNanos) {
+            maxWriteNanos = nanos;
+        }
+        if (metrics != null) {
+            metrics.recordWrite(nanos);
+        }
+    }
+
+    /**
+     * Discards pending frames and closes the client stream.
+     * Safe to call more than once and from any thread.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        frames.clear();
+        size.set(0);
+        notifications.set(0);
+        
+        // Closing an SSL stream can wait for a stuck write: never do it on the caller
+        writer.execute(() -> {
+            try {
+                output.close();
+            } catch (IOException e) {
+                LOG.warn("[OUTBOUND] Close failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * @return number of frames currently queued
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * @return total frames dropped by the overflow policy
+     */
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    /**
+     * @return total frames written to the client
+     */
+    public long getFramesWritten() {
+        return framesWritten;
+    }
+
+    /**
+     * @return total writes to the client stream; framesWritten / writes is the
+     *         achieved coalescing
+     */
+    public long getWrites() {
+        return writes;
+    }
+
+    /**
+     * @return time spent writing and flushing in sampled drains, in nanoseconds
+     */
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    /**
+     * @return longest sampled drain, in nanoseconds
+     */
+    public long getMaxWriteNanos() {
+        return maxWriteNanos;
+    }
+
+    /**
+     * @return true once the queue has been closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * A queued notification frame. Each offer gets its own holder, so removing
+     * one never takes out another queued copy of a shared broadcast frame.
+     */
+    private static final class Notification {
+        final byte[] frame;
+
+        Notification(byte[] frame) {
+            this.frame = frame;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package SSL;
+
+/**
+ * What a session's outbound queue does when a slow client lets it fill up.
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public enum OverflowPolicy {
+    DROP_OLDEST,        // Evict the oldest queued frame to make room
+    DROP_NOTIFICATIONS, // Discard new notifications; other frames evict queued notifications first
+    DISCONNECT;         // Close the slow client's connection
+
+    /**
+     * Parses a policy name such as "drop_oldest" (case insensitive).
+     *
+     * @param value policy name
+     * @return the matching policy
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static OverflowPolicy fromArgument(String value) {
+        for (OverflowPolicy policy : values()) {
+            if (policy.name().equalsIgnoreCase(value)) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("Unknown overflow policy: " + value);
+    }
+}
@@ -0,0 +1,35 @@
+package SSL;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JFR event spanning the routing of one private message.
+ * Recorded only above the threshold (1 ms by default).
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+@Name("chat.PrivateMessage")
+@Label("Chat Private Message")
+@Category({"Chat", "Protocol"})
+@StackTrace(false)
+@Threshold("1 ms")
+class PrivateMessageEvent extends jdk.jfr.Event {
+    @Label("Sender")
+    String sender;
+
+    @Label("Recipient")
+    String recipient;
+
+    @Label("Frame Size")
+    @DataAmount
+    int bytes;
+
+    @Label("Delivered")
+    boolean delivered;
+}
@@ -2,105 +2,197 @@ package SSL;
 
 import javax.net.ssl.*;
 import java.io.*;
-import java.security.cert.X509Certificate;
 
 /**
  * Protocol client with full command-line interface.
  * Supports /login, /join, /msg, /users, /quit commands.
+ * Can also be driven headless (load generators, tests): connect with a shared
+ * socket factory and receive the server's messages through a {@link Listener}
+ * instead of the console.
  * 
  * @author Arthur Jouve & Ewan Zahra Thenault
  * @version 1.0
  */
 public class ProtocolClient {
+    private static final int MAX_BODY_LENGTH = 1024 * 1024;
+    
     private SSLSocket socket;
     private String host;
     private int port;
     private DataInputStream input;
     private DataOutputStream output;
+    private FrameReader frameReader;
     private String username;
     private boolean isLoggedIn;
-    private boolean isRunning;
+    private volatile boolean isRunning;
+    private int protocolVersion;
+    private volatile boolean compression;   // Set once the server accepts the login offer
+    private Listener listener;
     
     /**
-     * Constructs a ProtocolClient.
+     * Receives what the server sends, on the client's listener thread.
+     */
+    public interface Listener {
+        /**
+         * @param message message received from the server
+         */
+        void onMessage(ChatMessage message);
+        
+        /**
+         * Called once if the server closes the connection or it fails, but not
+         * after {@link ProtocolClient#close()}.
+         * 
+         * @param error cause, or null if the server closed the connection
+         */
+        default void onClosed(IOException error) {
+        }
+    }
+    
+    /**
+     * Constructs a ProtocolClient speaking protocol v1 (JSON body).
      * 
      * @param host server hostname
      * @param port server port
      */
     public ProtocolClient(String host, int port) {
+        this(host, port, ChatMessage.VERSION_JSON);
+    }
+    
+    /**
+     * Constructs a ProtocolClient printing the server's messages to the console.
+     * 
+     * @param host server hostname
+     * @param port server port
+     * @param protocolVersion ChatMessage.VERSION_JSON or ChatMessage.VERSION_BINARY
+     */
+    public ProtocolClient(String host, int port, int protocolVersion) {
+        this(host, port, protocolVersion, null);
+    }
+    
+    /**
+     * Constructs a ProtocolClient.
+     * 
+     * @param host server hostname
+     * @param port server port
+     * @param protocolVersion ChatMessage.VERSION_JSON or ChatMessage.VERSION_BINARY
+     * @param listener receives the server's messages, or null to print them
+     */
+    public ProtocolClient(String host, int port, int protocolVersion, Listener listener) {
         this.host = host;
         this.port = port;
+        this.protocolVersion = protocolVersion;
+        this.listener = listener != null ? listener : new ConsoleListener();
         this.isLoggedIn = false;
         this.isRunning = true;
     }
     
+    /**
+     * Returns the socket factory of the process-wide client context trusting all
+     * certificates (for testing). Building an SSLContext costs more than a
+     * handshake, and clients sharing it also share its TLS session cache: a
+     * reconnecting client resumes its session instead of a full handshake.
+     * 
+     * @return the shared socket factory
+     * @throws Exception if TLS is not available
+     */
+    public static SSLSocketFactory trustAllSocketFactory() throws Exception {
+        return TlsContexts.sharedTrustAllClient().getSocketFactory();
+    }
+    
     /**
      * Connects to server with SSL (trusts all certificates for testing).
      * 
      * @throws Exception if connection fails
      */
     public void connect() throws Exception {
-        // Create SSL context that trusts all certificates (for testing)
-        SSLContext sslContext = SSLContext.getInstance("TLS");
-        TrustManager[] trustAll = new TrustManager[]{
-            new X509TrustManager() {
-                public X509Certificate[] getAcceptedIssuers() { return null; }
-                public void checkClientTrusted(X509Certificate[] certs, String authType) { }
-                public void checkServerTrusted(X509Certificate[] certs, String authType) { }
-            }
-        };
-        sslContext.init(null, trustAll, new java.security.SecureRandom());
+        connect(trustAllSocketFactory());
         
-        SSLSocketFactory factory = sslContext.getSocketFactory();
+        System.out.println("✓ Connected to " + host + ":" + port);
+        System.out.println("✓ Protocol: " + socket.getSession().getProtocol());
+        System.out.println();
+    }
+    
+    /**
+     * Connects to server with the given factory and starts the listener thread.
+     * Prints nothing.
+     * 
+     * @param factory SSL socket factory, typically shared by many clients
+     * @throws IOException if the connection or the handshake fails
+     */
+    public void connect(SSLSocketFactory factory) throws IOException {
         socket = (SSLSocket) factory.createSocket(host, port);
         socket.startHandshake();
         
         input = new DataInputStream(socket.getInputStream());
         output = new DataOutputStream(socket.getOutputStream());
-        
-        System.out.println("✓ Connected to " + host + ":" + port);
-        System.out.println("✓ Protocol: " + socket.getSession().getProtocol());
-        System.out.println();
+        frameReader = new FrameReader(input, MAX_BODY_LENGTH);
         
         // Start listener thread for server messages
-        new Thread(this::messageListener).start();
+        Thread thread = new Thread(this::messageListener, "client-listener");
+        thread.setDaemon(true);
+        thread.start();
     }
     
     /**
      * Listens for incoming messages from server.
      */
     private void messageListener() {
+        boolean lost = false;
+        IOException error = null;
         try {
             while (isRunning) {
-                ChatMessage message = readResponse();
-                
-                // Affiche les messages selon le type
-                switch (message.getMessageType()) {
-                    case LOGIN_RESPONSE:
-                    case JOIN_ROOM_REQUEST:
-                    case USER_LIST_RESPONSE:
-                    case ERROR_RESPONSE:
-                        // Réponses aux commandes - affiche directement
-                        System.out.println(message.getContent());
-                        break;
-                        
-                    case TEXT_MESSAGE:
-                    case PRIVATE_MESSAGE:
-                        // Messages de chat - affiche sans modification
-                        System.out.println(message.getContent());
-                        break;
-                        
-                    default:
-                        // Autres types
-                        System.out.println("[Server]: " + message.getContent());
-                }
+                listener.onMessage(readResponse());
             }
         } catch (EOFException e) {
-            System.out.println("\n[Server closed connection]");
+            lost = isRunning;
             isRunning = false;
         } catch (IOException e) {
             if (isRunning) {
-                System.err.println("[Connection error: " + e.getMessage() + "]");
+                lost = true;
+                error = e;
+            }
+        } finally {
+            frameReader.release();
+        }
+        if (lost) {
+            listener.onClosed(error);
+        }
+    }
+    
+    /**
+     * Default listener of the command-line client.
+     */
+    private static class ConsoleListener implements Listener {
+        @Override
+        public void onMessage(ChatMessage message) {
+            // Affiche les messages selon le type
+            switch (message.getMessageType()) {
+                case LOGIN_RESPONSE:
+                case JOIN_ROOM_REQUEST:
+                case USER_LIST_RESPONSE:
+                case ERROR_RESPONSE:
+                    // Réponses aux commandes - affiche directement
+                    System.out.println(message.getContent());
+                    break;
+                    
+                case TEXT_MESSAGE:
+                case PRIVATE_MESSAGE:
+                    // Messages de chat - affiche sans modification
+                    System.out.println(message.getContent());
+                    break;
+                    
+                default:
+                    // Autres types
+                    System.out.println("[Server]: " + message.getContent());
+            }
+        }
+        
+        @Override
+        public void onClosed(IOException error) {
+            if (error == null) {
+                System.out.println("\n[Server closed connection]");
+            } else {
+                System.err.println("[Connection error: " + error.getMessage() + "]");
             }
         }
     }
@@ -113,7 +205,8 @@ public class ProtocolClient {
      */
     public void login(String username) throws IOException {
         this.username = username;
-        ChatMessage loginMsg = new ChatMessage(MessageType.LOGIN_REQUEST, username, "login");
+        ChatMessage loginMsg = newMessage(MessageType.LOGIN_REQUEST, "login");
+        loginMsg.setAcceptsCompression(FrameCompression.ENABLED);
         output.write(loginMsg.serialize());
         output.flush();
         isLoggedIn = true;
@@ -131,8 +224,11 @@ public class ProtocolClient {
             return;
         }
         
-        ChatMessage msg = new ChatMessage(MessageType.JOIN_ROOM_REQUEST, username, roomName);
-        output.write(msg.serialize());
+        ChatMessage msg = newMessage(MessageType.JOIN_ROOM_REQUEST, roomName);
+        if (protocolVersion == ChatMessage.VERSION_BINARY) {
+            msg.setRoomId(roomName);
+        }
+        output.write(msg.serialize(protocolVersion, compression));
         output.flush();
     }
     
@@ -148,8 +244,8 @@ public class ProtocolClient {
             return;
         }
         
-        ChatMessage msg = new ChatMessage(MessageType.TEXT_MESSAGE, username, content);
-        output.write(msg.serialize());
+        ChatMessage msg = newMessage(MessageType.TEXT_MESSAGE, content);
+        output.write(msg.serialize(protocolVersion, compression));
         output.flush();
     }
     
@@ -166,9 +262,14 @@ public class ProtocolClient {
             return;
         }
         
-        ChatMessage msg = new ChatMessage(MessageType.PRIVATE_MESSAGE, username, 
-                                         recipient + ":" + content);
-        output.write(msg.serialize());
+        ChatMessage msg;
+        if (protocolVersion == ChatMessage.VERSION_BINARY) {
+            msg = newMessage(MessageType.PRIVATE_MESSAGE, content);
+            msg.setRecipient(recipient);
+        } else {
+            msg = newMessage(MessageType.PRIVATE_MESSAGE, recipient + ":" + content);
+        }
+        output.write(msg.serialize(protocolVersion, compression));
         output.flush();
     }
     
@@ -183,11 +284,24 @@ public class ProtocolClient {
             return;
         }
         
-        ChatMessage msg = new ChatMessage(MessageType.USER_LIST_REQUEST, username, "list");
-        output.write(msg.serialize());
+        ChatMessage msg = newMessage(MessageType.USER_LIST_REQUEST, "list");
+        output.write(msg.serialize(protocolVersion, compression));
         output.flush();
     }
     
+    /**
+     * Creates a message from this user in the client's protocol version.
+     * 
+     * @param type message type
+     * @param content message content
+     * @return the new message
+     */
+    private ChatMessage newMessage(MessageType type, String content) {
+        ChatMessage msg = new ChatMessage(type, username, content);
+        msg.setProtocolVersion(protocolVersion);
+        return msg;
+    }
+    
     /**
      * Reads response from server.
      * 
@@ -195,57 +309,73 @@ public class ProtocolClient {
      * @throws IOException if reading fails
      */
     private ChatMessage readResponse() throws IOException {
-        byte version = input.readByte();
-        byte typeCode = input.readByte();
-        int bodyLength = input.readInt();
-        int timestamp = input.readInt();
-        
-        byte[] bodyBytes = new byte[bodyLength];
-        input.readFully(bodyBytes);
-        
-        byte[] fullMessage = new byte[10 + bodyLength];
-        fullMessage[0] = version;
-        fullMessage[1] = typeCode;
-        fullMessage[2] = (byte)(bodyLength >>> 24);
-        fullMessage[3] = (byte)(bodyLength >>> 16);
-        fullMessage[4] = (byte)(bodyLength >>> 8);
-        fullMessage[5] = (byte)bodyLength;
-        fullMessage[6] = (byte)(timestamp >>> 24);
-        fullMessage[7] = (byte)(timestamp >>> 16);
-        fullMessage[8] = (byte)(timestamp >>> 8);
-        fullMessage[9] = (byte)timestamp;
-        System.arraycopy(bodyBytes, 0, fullMessage, 10, bodyLength);
-        
-        return ChatMessage.deserialize(fullMessage);
+        ChatMessage message = frameReader.readFrame();
+        if (message.getMessageType() == MessageType.LOGIN_RESPONSE && message.acceptsCompression()) {
+            compression = true;
+        }
+        return message;
     }
     
     /**
      * Disconnects from server.
      */
     public void disconnect() {
-        isRunning = false;
         try {
-            if (socket != null) socket.close();
+            close();
             System.out.println("✓ Disconnected");
         } catch (IOException e) {
             System.err.println("Error closing: " + e.getMessage());
         }
     }
     
+    /**
+     * Closes the connection without printing anything.
+     * 
+     * @throws IOException if closing the socket fails
+     */
+    public void close() throws IOException {
+        isRunning = false;
+        if (socket != null) socket.close();
+    }
+    
+    /**
+     * @return true if the server accepted compression at login
+     */
+    public boolean isCompressing() {
+        return compression;
+    }
+    
+    /**
+     * @return the username sent at login, or null
+     */
+    public String getUsername() {
+        return username;
+    }
+    
+    /**
+     * @return true until the connection is closed or lost
+     */
+    public boolean isConnected() {
+        return isRunning && socket != null && !socket.isClosed();
+    }
+    
     /**
      * Main method with command-line interface.
      * 
-     * @param args [host] [port]
+     * @param args [host] [port] [--v2]
+     *             --v2 uses the binary body format (protocol version 2)
      */
     public static void main(String[] args) {
         if (args.length < 2) {
-            System.err.println("Usage: java SSL.ProtocolClient <host> <port>");
+            System.err.println("Usage: java SSL.ProtocolClient <host> <port> [--v2]");
             System.err.println("Example: java SSL.ProtocolClient localhost 8443");
             System.exit(1);
         }
         
         try {
-            ProtocolClient client = new ProtocolClient(args[0], Integer.parseInt(args[1]));
+            int version = (args.length > 2 && args[2].equals("--v2")) ? ChatMessage.VERSION_BINARY
+                                                                      : ChatMessage.VERSION_JSON;
+            ProtocolClient client = new ProtocolClient(args[0], Integer.parseInt(args[1]), version);
             client.connect();
             
             // Affiche les commandes dès la connexion
@@ -0,0 +1,101 @@
+package SSL;
+
+import Common.StatsSnapshot;
+
+/**
+ * Owner of the chat rooms: membership changes and room broadcasts.
+ * Handler threads call it after validating the session; where the room
+ * state lives and which thread mutates it is up to the implementation.
+ * <ul>
+ *   <li>direct: rooms are shared by all handler threads, broadcasts run on
+ *       the sender's thread ({@link DirectRoomEngine})</li>
+ *   <li>sharded: rooms are partitioned across single-threaded shards, handler
+ *       threads only enqueue commands ({@link ShardedRoomEngine})</li>
+ * </ul>
+ * The engine is chosen with the system property chat.rooms (direct).
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+interface RoomEngine {
+
+    /**
+     * Moves a session to a room, leaving its current one, and tells the
+     * other members. Sets the session's current room before returning.
+     * A room left empty is reclaimed: joining it again creates a new one.
+     *
+     * @param session the joining session
+     * @param roomName room to join, created if needed
+     */
+    void join(ClientSession session, String roomName);
+
+    /**
+     * Removes a session from its current room, if any, and tells the other members.
+     *
+     * @param session the leaving session
+     */
+    void leave(ClientSession session);
+
+    /**
+     * Delivers a message to every member of a room, typically the sender's
+     * current room: no lookup by name.
+     * The message must not be modified afterwards.
+     *
+     * @param room target room, created by this engine
+     * @param message message as sent to the members
+     */
+    void broadcast(ChatRoom room, ChatMessage message);
+
+    /**
+     * Delivers a message to every local member of a room found by name, such
+     * as a message relayed from another node. Does nothing if no local session
+     * is in the room.
+     * The message must not be modified afterwards.
+     *
+     * @param roomName target room
+     * @param message message as sent to the members
+     */
+    void broadcast(String roomName, ChatMessage message);
+
+    /**
+     * Sends a system notification to every local member of a room, such as a
+     * join or leave relayed from another node.
+     *
+     * @param roomName target room
+     * @param notification notice text
+     */
+    void notifyRoom(String roomName, String notification);
+
+    /**
+     * Adds room counts, sizes and broadcast counters to a stats snapshot.
+     * Called on the stats thread: must not wait for the room owners.
+     *
+     * @param out snapshot being collected
+     */
+    void collect(StatsSnapshot out);
+
+    /**
+     * Stops the engine's threads, if any.
+     */
+    void shutdown();
+
+    /**
+     * Creates an engine from its command-line name.
+     *
+     * @param name "direct" or "sharded" (case-insensitive)
+     * @param metrics registry receiving fan-out metrics
+     * @return the engine
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    static RoomEngine fromArgument(String name, ChatMetrics metrics) {
+        switch (name.toLowerCase()) {
+            case "direct":
+                return new DirectRoomEngine(metrics);
+            case "sharded":
+                return new ShardedRoomEngine(ShardedRoomEngine.DEFAULT_SHARDS, metrics);
+            default:
+                throw new IllegalArgumentException("Unknown room engine: " + name
+                                                   + " (expected direct or sharded)");
+        }
+    }
+}
@@ -0,0 +1,524 @@
+package SSL;
+
+import Common.Log;
+
+import javax.net.ssl.*;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * One non-blocking TLS chat connection owned by a {@link ChatEventLoop}.
+ * Decrypts incoming records with an SSLEngine, frames the 10-byte header + body
+ * incrementally and hands complete frames to the ChatProtocolServer.
+ * Outgoing frames wait in the session's {@link OutboundQueue}, which this loop drains
+ * into a plaintext buffer while the socket keeps up, then encrypts on the loop thread.
+ * All four buffers are borrowed from pools for the lifetime of the connection.
+ * The connection holds a {@link HandshakeStage} slot until its handshake is
+ * over; the engine's delegated tasks (certificate signature, key exchange) run
+ * on the stage threads while the connection stops reading, never on the loop.
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public class SSLEngineConnection {
+    private static final Log LOG = Log.get("connection");
+
+    private static final int HEADER_SIZE = ChatMessage.HEADER_SIZE;
+    private static final int MAX_BODY_LENGTH = 10000;
+    private static final int PLAINTEXT_HIGH_WATERMARK = 64 * 1024;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final ChatEventLoop loop;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final SSLEngine engine;
+    private final ChatProtocolServer protocolHandler;
+    private final HandshakeStage handshakeStage;
+    private final BufferPool networkBuffers;    // The loop's pool, possibly direct
+    private final BufferPool plainBuffers;      // Heap pool: frames are decoded in place
+
+    private ByteBuffer netIn;       // Encrypted bytes read from the channel
+    private ByteBuffer netOut;      // Encrypted bytes waiting to be written
+    private ByteBuffer appIn;       // Decrypted bytes waiting to be framed
+
+    private ByteBuffer pendingPlain;    // Protocol bytes waiting to be encrypted
+    private final OutboundQueue outbound;
+
+    private ClientSession clientSession;        // Null until login
+    private boolean handshakeComplete;
+    private long handshakeStartMillis;
+    private long handshakeStartNanos;
+    private boolean admitted;                   // Holds a handshake stage slot
+    private boolean tasksRunning;               // Delegated tasks on the stage, engine not ours
+    private ScheduledFuture<?> handshakeTimeout;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a connection around a registered channel.
+     *
+     * @param loop owning event loop
+     * @param channel non-blocking client channel
+     * @param key selection key of the channel
+     * @param engine server-mode SSLEngine
+     * @param protocolHandler shared protocol handler
+     */
+    public SSLEngineConnection(ChatEventLoop loop, SocketChannel channel, SelectionKey key,
+                               SSLEngine engine, ChatProtocolServer protocolHandler) {
+        this.loop = loop;
+        this.channel = channel;
+        this.key = key;
+        this.engine = engine;
+        this.protocolHandler = protocolHandler;
+        this.handshakeStage = loop.getHandshakeStage();
+        this.admitted = true;
+        this.networkBuffers = loop.getBuffers();
+        this.plainBuffers = BufferPool.shared();
+
+        SSLSession session = engine.getSession();
+        // Fixed sizes just over 16 KB: exact classes, a power of two would nearly double them
+        this.netIn = networkBuffers.acquireExact(session.getPacketBufferSize());
+        this.netOut = networkBuffers.acquireExact(session.getPacketBufferSize());
+        this.appIn = plainBuffers.acquireExact(Math.max(session.getApplicationBufferSize(),
+                                                        HEADER_SIZE + MAX_BODY_LENGTH));
+        this.netOut.flip();
+
+        this.pendingPlain = plainBuffers.acquire(4096);
+        this.outbound = new OutboundQueue(new DataOutputStream(new EngineOutputStream()),
+                                          loop::execute, this::isWritable,
+                                          OutboundQueue.DEFAULT_CAPACITY, OutboundQueue.DEFAULT_POLICY,
+                                          protocolHandler.getMetrics());
+        loop.connectionChanged(true);
+    }
+
+    /**
+     * Starts the server side of the TLS handshake.
+     *
+     * @throws IOException if the engine rejects the handshake
+     */
+    public void beginHandshake() throws IOException {
+        handshakeStartMillis = System.currentTimeMillis();
+        handshakeStartNanos = System.nanoTime();
+        handshakeTimeout = handshakeStage.scheduleTimeout(() -> loop.execute(this::onHandshakeTimeout));
+        engine.beginHandshake();
+        advanceHandshake();
+    }
+
+    /**
+     * Reads available bytes, decrypts them and dispatches complete frames.
+     *
+     * @throws IOException on channel or TLS failure
+     */
+    public void onReadable() throws IOException {
+        int read = channel.read(netIn);
+        if (read < 0) {
+            LOG.info("[DISCONNECTION] Client closed connection");
+            close();
+            return;
+        }
+
+        afterUnwrap();
+    }
+
+    /**
+     * Decrypts what is buffered, dispatches complete frames and writes replies.
+     *
+     * @throws IOException on channel or TLS failure
+     */
+    private void afterUnwrap() throws IOException {
+        unwrapAvailable();
+        if (closed || tasksRunning) {
+            return;
+        }
+        if (handshakeComplete) {
+            processFrames();
+        }
+        writeOutbound();
+    }
+
+    /**
+     * Continues a write that previously filled the socket buffer.
+     *
+     * @throws IOException on channel or TLS failure
+     */
+    public void onWritable() throws IOException {
+        if (tasksRunning) {
+            return;
+        }
+        if (!handshakeComplete) {
+            advanceHandshake();
+        } else {
+            writeOutbound();
+        }
+    }
+
+    /**
+     * Decrypts everything currently held in the network buffer.
+     *
+     * @throws IOException on TLS failure
+     */
+    private void unwrapAvailable() throws IOException {
+        netIn.flip();
+        try {
+            while (netIn.hasRemaining() && !closed && !tasksRunning) {
+                SSLEngineResult result = engine.unwrap(netIn, appIn);
+
+                switch (result.getStatus()) {
+                    case BUFFER_UNDERFLOW:
+                        // Partial TLS record: make room for the rest and wait for more bytes
+                        int packetSize = engine.getSession().getPacketBufferSize();
+                        if (netIn.capacity() < packetSize) {
+                            netIn = networkBuffers.enlarge(netIn, packetSize, true);
+                        }
+                        return;
+                    case BUFFER_OVERFLOW:
+                        appIn = plainBuffers.enlarge(appIn, appIn.capacity()
+                                + engine.getSession().getApplicationBufferSize(), false);
+                        continue;
+                    case CLOSED:
+                        close();
+                        return;
+                    default:
+                        break;
+                }
+
+                if (!handshakeComplete
+                        || engine.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING) {
+                    advanceHandshake();
+                }
+            }
+        } finally {
+            if (!closed) {
+                netIn.compact();
+            }
+        }
+    }
+
+    /**
+     * Drives handshake steps that do not need more input from the peer.
+     *
+     * @throws IOException on TLS or channel failure
+     */
+    private void advanceHandshake() throws IOException {
+        while (!closed) {
+            HandshakeStatus status = engine.getHandshakeStatus();
+            switch (status) {
+                case NEED_TASK:
+                    runDelegatedTasks();
+                    return;
+                case NEED_WRAP:
+                    if (!wrap(EMPTY)) {
+                        return; // Resumed from onWritable()
+                    }
+                    break;
+                case NEED_UNWRAP:
+                case NEED_UNWRAP_AGAIN:
+                    writeOutbound();
+                    return;
+                default:
+                    if (!handshakeComplete) {
+                        handshakeComplete = true;
+                        releaseAdmission();
+                        boolean resumed = TlsContexts.isResumed(engine.getSession(), handshakeStartMillis);
+                        if (ChatMetrics.ENABLED) {
+                            protocolHandler.getMetrics().recordHandshake(resumed,
+                                    System.nanoTime() - handshakeStartNanos);
+                        }
+                        LOG.info("[CONNECTION] Client from " +
+                                channel.socket().getInetAddress() + " (" +
+                                TlsContexts.describe(engine.getSession(), resumed) + ")");
+                    }
+                    writeOutbound();
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Hands the engine's delegated tasks to the handshake stage. Reads stop
+     * until they are done: the engine must not be used meanwhile.
+     */
+    private void runDelegatedTasks() {
+        tasksRunning = true;
+        key.interestOps(0);
+        handshakeStage.execute(() -> {
+            Runnable task;
+            while ((task = engine.getDelegatedTask()) != null) {
+                task.run();
+            }
+            loop.execute(this::onDelegatedTasksDone);
+        }, () -> loop.execute(this::onHandshakeDropped));
+    }
+
+    /**
+     * Resumes the handshake on the loop thread once the delegated tasks ran.
+     */
+    private void onDelegatedTasksDone() {
+        tasksRunning = false;
+        if (closed) {
+            return;
+        }
+        try {
+            key.interestOps(SelectionKey.OP_READ);
+            advanceHandshake();
+            if (!tasksRunning) {
+                afterUnwrap();  // Records received while the tasks ran
+            }
+        } catch (IOException e) {
+            LOG.info("[DISCONNECTION] " + e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Gives up a handshake whose tasks waited too long for a stage thread.
+     */
+    private void onHandshakeDropped() {
+        tasksRunning = false;
+        if (!closed) {
+            LOG.warn("[HANDSHAKE] Dropped after waiting for the handshake stage");
+            releaseAdmission();
+            close();
+        }
+    }
+
+    /**
+     * Aborts a handshake still running after the stage's handshake timeout.
+     */
+    private void onHandshakeTimeout() {
+        if (!handshakeComplete && !closed) {
+            LOG.warn("[HANDSHAKE] Timed out: " + channel.socket().getInetAddress());
+            handshakeStage.recordTimeout();
+            releaseAdmission();
+            close();
+        }
+    }
+
+    /**
+     * Gives the handshake stage slot back, once.
+     */
+    private void releaseAdmission() {
+        if (admitted) {
+            admitted = false;
+            handshakeStage.release();
+            if (handshakeTimeout != null) {
+                handshakeTimeout.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Extracts complete frames from the decrypted buffer, decodes them in place
+     * and dispatches them.
+     *
+     * @throws IOException if a frame header is invalid
+     */
+    private void processFrames() throws IOException {
+        appIn.flip();
+        try {
+            while (appIn.remaining() >= HEADER_SIZE) {
+                int start = appIn.position();
+                int bodyLength = appIn.getInt(start + 2);
+
+                if (bodyLength < 0 || bodyLength > MAX_BODY_LENGTH) {
+                    throw new IOException("Invalid body length: " + bodyLength);
+                }
+                if (appIn.remaining() < HEADER_SIZE + bodyLength) {
+                    break;
+                }
+
+                ChatMessage message;
+                try {
+                    long decodeStart = ChatMetrics.ENABLED ? System.nanoTime() : 0;
+                    message = ChatMessage.decode(appIn, MAX_BODY_LENGTH);
+                    if (ChatMetrics.ENABLED) {
+                        protocolHandler.getMetrics().recordDecode(System.nanoTime() - decodeStart);
+                    }
+                } catch (RuntimeException e) {
+                    // Untrusted bytes: whatever the decoder throws, the frame is malformed
+                    appIn.position(start + HEADER_SIZE + bodyLength);
+                    protocolHandler.rejectMalformed(outbound, e);
+                    continue;
+                }
+                FrameEvent event = new FrameEvent();
+                event.begin();
+                clientSession = protocolHandler.handleMessage(message, outbound, clientSession);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.messageType = message.getMessageType().name();
+                    event.bytes = HEADER_SIZE + bodyLength;
+                    event.protocolVersion = message.getProtocolVersion();
+                    event.transport = "nio";
+                    event.commit();
+                }
+            }
+        } finally {
+            appIn.compact();
+        }
+    }
+
+    /**
+     * Encrypts queued protocol bytes and writes as much as the socket accepts.
+     * Registers for OP_WRITE when the socket buffer is full.
+     *
+     * @throws IOException on TLS or channel failure
+     */
+    private void writeOutbound() throws IOException {
+        if (closed || tasksRunning || !drainNetOut()) {
+            return;
+        }
+
+        if (handshakeComplete) {
+            pendingPlain.flip();
+            try {
+                while (pendingPlain.hasRemaining()) {
+                    if (!wrap(pendingPlain)) {
+                        return;
+                    }
+                }
+            } finally {
+                pendingPlain.compact();
+            }
+        }
+
+        key.interestOps(SelectionKey.OP_READ);
+        outbound.resume();
+    }
+
+    /**
+     * Back-pressure for the outbound queue: stop draining frames into the
+     * plaintext buffer while the socket is not keeping up.
+     *
+     * @return true if more frames may be buffered
+     */
+    private boolean isWritable() {
+        return !closed && pendingPlain.position() < PLAINTEXT_HIGH_WATERMARK;
+    }
+
+    /**
+     * Wraps the given plaintext into one TLS record and attempts to send it.
+     *
+     * @param source plaintext (may be empty for handshake messages)
+     * @return true if the encrypted bytes were fully written
+     * @throws IOException on TLS or channel failure
+     */
+    private boolean wrap(ByteBuffer source) throws IOException {
+        netOut.compact();
+        SSLEngineResult result;
+        try {
+            result = engine.wrap(source, netOut);
+        } finally {
+            netOut.flip();
+        }
+
+        switch (result.getStatus()) {
+            case BUFFER_OVERFLOW:
+                if (!drainNetOut()) {
+                    return false;
+                }
+                netOut = networkBuffers.enlarge(netOut, engine.getSession().getPacketBufferSize(), true);
+                return true;
+            case CLOSED:
+                drainNetOut();
+                close();
+                return false;
+            default:
+                return drainNetOut();
+        }
+    }
+
+    /**
+     * Writes pending encrypted bytes to the channel.
+     *
+     * @return true if nothing is left to write
+     * @throws IOException on channel failure
+     */
+    private boolean drainNetOut() throws IOException {
+        while (netOut.hasRemaining()) {
+            if (channel.write(netOut) == 0) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Closes the connection and releases its chat session.
+     * Must be called on the loop thread; safe to call more than once.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (admitted) {
+            handshakeStage.recordFailure();
+            releaseAdmission();
+        }
+
+        if (clientSession != null) {
+            protocolHandler.removeSession(clientSession);
+            clientSession = null;
+        }
+        outbound.close();
+
+        engine.closeOutbound();
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.warn("[ERROR] Closing channel: " + e.getMessage());
+        }
+        loop.execute(this::releaseBuffers);
+    }
+
+    /**
+     * Gives the buffers back to the pools. Queued behind the current loop task
+     * by {@link #close()}, so callers still unwinding on this connection never
+     * touch a buffer another connection already reuses.
+     */
+    private void releaseBuffers() {
+        networkBuffers.release(netIn);
+        networkBuffers.release(netOut);
+        plainBuffers.release(appIn);
+        plainBuffers.release(pendingPlain);
+        netIn = netOut = appIn = pendingPlain = null;
+        loop.connectionChanged(false);
+    }
+
+    /**
+     * Stream the outbound queue drains into. Only used on the loop thread:
+     * writes append plaintext, flush encrypts and sends what the socket accepts.
+     */
+    private class EngineOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Connection closed");
+            }
+            if (pendingPlain.remaining() < len) {
+                pendingPlain = plainBuffers.enlarge(pendingPlain, pendingPlain.position() + len, false);
+            }
+            pendingPlain.put(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeOutbound();
+        }
+
+        @Override
+        public void close() {
+            SSLEngineConnection.this.close();
+        }
+    }
+}
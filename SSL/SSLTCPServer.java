@@ -1,7 +1,10 @@
 package SSL;
+
+import Common.Log;
+
 import javax.net.ssl.*;
 import java.io.*;
-import java.security.*;
+import java.util.concurrent.Executor;
 
 /**
  * SSL/TLS Server that handles secure client connections with certificate authentication.
@@ -10,23 +13,40 @@ import java.security.*;
  * @version 1.0
  */
 public class SSLTCPServer {
+    private static final Log LOG = Log.get("server");
+
     private int port;
     private SSLServerSocket serverSocket;
     private boolean isRunning;
     private String keystorePath;
     private String keystorePassword;
+    private ExecutionMode mode;
     
     /**
      * Constructs an SSLTCPServer with specified port and keystore configuration.
+     * Handles each client on its own platform thread.
      * 
      * @param port the port to listen on
      * @param keystorePath path to the keystore file
      * @param password keystore password
      */
     public SSLTCPServer(int port, String keystorePath, String password) {
+        this(port, keystorePath, password, ExecutionMode.BLOCKING);
+    }
+    
+    /**
+     * Constructs an SSLTCPServer with an explicit thread-per-connection mode.
+     * 
+     * @param port the port to listen on
+     * @param keystorePath path to the keystore file
+     * @param password keystore password
+     * @param mode BLOCKING (platform threads) or VIRTUAL (virtual threads)
+     */
+    public SSLTCPServer(int port, String keystorePath, String password, ExecutionMode mode) {
         this.port = port;
         this.keystorePath = keystorePath;
         this.keystorePassword = password;
+        this.mode = mode;
         this.isRunning = false;
     }
     
@@ -36,59 +56,34 @@ public class SSLTCPServer {
      * @throws Exception if server launch fails
      */
     public void launch() throws Exception {
-        SSLContext sslContext = createSSLContext(keystorePath, keystorePassword);
+        SSLContext sslContext = TlsContexts.server(keystorePath, keystorePassword);
         SSLServerSocketFactory factory = sslContext.getServerSocketFactory();
+        Executor connectionExecutor = ConnectionExecutors.perConnection(mode, "ssl-client");
         
         serverSocket = (SSLServerSocket) factory.createServerSocket(port);
         isRunning = true;
         
-        System.out.println("SSL Server started on port " + port);
-        System.out.println("Waiting for connections...");
+        LOG.info("SSL Server started on port " + port + " (" + mode + ")");
+        LOG.info("Waiting for connections...");
         
         while (isRunning) {
             try {
                 SSLSocket clientSocket = (SSLSocket) serverSocket.accept();
                 
                 // Log connection attempt
-                System.out.println("[CONNECTION] Client from " + clientSocket.getInetAddress());
+                LOG.info("[CONNECTION] Client from " + clientSocket.getInetAddress());
                 
-                // Handle client in separate thread
-                new Thread(() -> handleClient(clientSocket)).start();
+                // Handle client in separate (platform or virtual) thread
+                connectionExecutor.execute(() -> handleClient(clientSocket));
                 
             } catch (IOException e) {
                 if (isRunning) {
-                    System.err.println("Error accepting connection: " + e.getMessage());
+                    LOG.error("Error accepting connection: " + e.getMessage());
                 }
             }
         }
     }
     
-    /**
-     * Creates SSL context by loading keystore and initializing key managers.
-     * 
-     * @param keystorePath path to keystore file
-     * @param password keystore password
-     * @return configured SSLContext
-     * @throws Exception if context creation fails
-     */
-    private SSLContext createSSLContext(String keystorePath, String password) throws Exception {
-        // Load keystore
-        KeyStore keyStore = KeyStore.getInstance("JKS");
-        FileInputStream fis = new FileInputStream(keystorePath);
-        keyStore.load(fis, password.toCharArray());
-        fis.close();
-        
-        // Initialize KeyManagerFactory
-        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
-        kmf.init(keyStore, password.toCharArray());
-        
-        // Create and initialize SSLContext
-        SSLContext sslContext = SSLContext.getInstance("TLS");
-        sslContext.init(kmf.getKeyManagers(), null, new SecureRandom());
-        
-        return sslContext;
-    }
-    
     /**
      * Handles communication with a single client.
      * Performs SSL handshake and implements echo functionality.
@@ -98,12 +93,14 @@ public class SSLTCPServer {
     private void handleClient(SSLSocket clientSocket) {
         try {
             // Perform SSL handshake
+            long handshakeStart = System.currentTimeMillis();
             clientSocket.startHandshake();
             
             // Log handshake success
             SSLSession session = clientSocket.getSession();
-            System.out.println("[HANDSHAKE] Protocol: " + session.getProtocol());
-            System.out.println("[HANDSHAKE] Cipher: " + session.getCipherSuite());
+            LOG.info("[HANDSHAKE] Protocol: " + session.getProtocol()
+                     + (TlsContexts.isResumed(session, handshakeStart) ? " (resumed)" : " (full)"));
+            LOG.info("[HANDSHAKE] Cipher: " + session.getCipherSuite());
             
             // Set up I/O streams
             BufferedReader reader = new BufferedReader(
@@ -117,19 +114,21 @@ public class SSLTCPServer {
             // Echo loop
             String line;
             while ((line = reader.readLine()) != null) {
-                System.out.println("[RECEIVED] " + line);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("[RECEIVED] " + line);
+                }
                 writer.println("[ECHO] " + line);
             }
             
-            System.out.println("[DISCONNECTION] Client disconnected");
+            LOG.info("[DISCONNECTION] Client disconnected");
             
         } catch (IOException e) {
-            System.err.println("[ERROR] Client error: " + e.getMessage());
+            LOG.error("[ERROR] Client error: " + e.getMessage());
         } finally {
             try {
                 clientSocket.close();
             } catch (IOException e) {
-                System.err.println("Error closing client socket: " + e.getMessage());
+                LOG.error("Error closing client socket: " + e.getMessage());
             }
         }
     }
@@ -142,21 +141,32 @@ public class SSLTCPServer {
         try {
             if (serverSocket != null && !serverSocket.isClosed()) {
                 serverSocket.close();
-                System.out.println("Server shutdown completed");
+                LOG.info("Server shutdown completed");
             }
         } catch (IOException e) {
-            System.err.println("Error during shutdown: " + e.getMessage());
+            LOG.error("Error during shutdown: " + e.getMessage());
         }
     }
     
     /**
      * Main method to start the SSL server.
      * 
-     * @param args [port] [keystorePath] [keystorePassword]
+     * @param args [port] [keystorePath] [keystorePassword] [blocking|virtual]
      */
     public static void main(String[] args) {
-        if (args.length < 3) {
-            System.err.println("Usage: java SSLTCPServer <port> <keystorePath> <keystorePassword>");
+        ExecutionMode mode = ExecutionMode.BLOCKING;
+        try {
+            if (args.length > 3) {
+                mode = ExecutionMode.fromArgument(args[3]);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            mode = null;
+        }
+        
+        // This server only runs thread-per-connection modes: NIO lives in SecureChatServer
+        if (args.length < 3 || mode == null || mode == ExecutionMode.NIO) {
+            System.err.println("Usage: java SSLTCPServer <port> <keystorePath> <keystorePassword> [blocking|virtual]");
             System.err.println("Example: java SSLTCPServer 8443 server.jks password123");
             System.exit(1);
         }
@@ -166,12 +176,13 @@ public class SSLTCPServer {
             String keystorePath = args[1];
             String password = args[2];
             
-            SSLTCPServer server = new SSLTCPServer(port, keystorePath, password);
+            SSLTCPServer server = new SSLTCPServer(port, keystorePath, password, mode);
             
             // Add shutdown hook
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                System.out.println("\nShutdown signal received...");
+                LOG.info("\nShutdown signal received...");
                 server.shutdown();
+                Log.flush();
             }));
             
             server.launch();
@@ -1,10 +1,20 @@
 package SSL;
 
+import Common.Log;
+import Common.StatsHttpServer;
+import Common.StatsSnapshot;
+
 import javax.net.ssl.*;
 import java.io.*;
-import java.security.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Secure chat server that handles protocol messages over SSL/TLS.
@@ -14,152 +24,325 @@ import java.util.concurrent.*;
  * @version 1.0
  */
 public class SecureChatServer {
-    private SSLServerSocket serverSocket;
-    private Map<String, ClientSession> activeSessions;
-    private Map<String, ChatRoom> chatRooms;
+    private static final Log LOG = Log.get("server");
+
+    private static final int MAX_BODY_LENGTH = 10000;
+    /** Largest TLS record a client may send before its handshake is computed (2^14 + 2048) */
+    private static final int MAX_TLS_RECORD = 18432;
+    
+    private ServerSocket serverSocket;
+    private SSLSocketFactory socketFactory;
+    private ServerSocketChannel serverChannel;
+    private ChatEventLoop[] eventLoops;
+    private Executor connectionExecutor;
+    private Executor writerExecutor;
     private ChatProtocolServer protocolHandler;
+    private HandshakeStage handshakeStage;
     private int port;
     private String keystorePath;
     private String keystorePassword;
-    private boolean isRunning;
+    private ExecutionMode mode;
+    private final AtomicInteger blockingConnections;
+    private StatsHttpServer statsServer;
+    private volatile boolean isRunning;
     
     /**
      * Constructs a SecureChatServer with SSL configuration.
+     * Uses the blocking thread-per-connection mode.
      * 
      * @param port the port to listen on
      * @param keystorePath path to keystore file
      * @param keystorePassword keystore password
      */
     public SecureChatServer(int port, String keystorePath, String keystorePassword) {
+        this(port, keystorePath, keystorePassword, ExecutionMode.BLOCKING);
+    }
+    
+    /**
+     * Constructs a SecureChatServer with SSL configuration and execution mode.
+     * 
+     * @param port the port to listen on
+     * @param keystorePath path to keystore file
+     * @param keystorePassword keystore password
+     * @param mode how client connections are served
+     */
+    public SecureChatServer(int port, String keystorePath, String keystorePassword,
+                            ExecutionMode mode) {
         this.port = port;
+        this.mode = mode;
         this.keystorePath = keystorePath;
         this.keystorePassword = keystorePassword;
-        this.activeSessions = new ConcurrentHashMap<>();
-        this.chatRooms = new ConcurrentHashMap<>();
         this.protocolHandler = new ChatProtocolServer();
+        this.blockingConnections = new AtomicInteger();
         this.isRunning = false;
     }
     
+    /**
+     * @return metrics of the protocol handler
+     */
+    public ChatMetrics getMetrics() {
+        return protocolHandler.getMetrics();
+    }
+    
     /**
      * Launches the secure chat server.
      * 
      * @throws Exception if server cannot start
      */
     public void launch() throws Exception {
-        SSLContext sslContext = createSSLContext(keystorePath, keystorePassword);
-        SSLServerSocketFactory factory = sslContext.getServerSocketFactory();
-        serverSocket = (SSLServerSocket) factory.createServerSocket(port);
+        SSLContext sslContext = TlsContexts.server(keystorePath, keystorePassword);
+        handshakeStage = new HandshakeStage();
+        protocolHandler.start();
+        statsServer = StatsHttpServer.startIfConfigured(this::collectStats);
+        if (mode == ExecutionMode.NIO) {
+            launchEventLoops(sslContext);
+            return;
+        }
+        
+        connectionExecutor = ConnectionExecutors.perConnection(mode, "chat-client");
+        writerExecutor = ConnectionExecutors.writers(mode);
+        // Plain accept: TLS is layered over each socket on its own thread, see handshake
+        socketFactory = sslContext.getSocketFactory();
+        serverSocket = new ServerSocket(port);
         isRunning = true;
         
-        System.out.println("=== Secure Chat Server ===");
-        System.out.println("Port: " + port);
-        System.out.println("SSL/TLS: Enabled");
-        System.out.println("Waiting for connections...\n");
+        LOG.info("=== Secure Chat Server ===");
+        LOG.info("Port: " + port);
+        LOG.info("SSL/TLS: Enabled");
+        LOG.info("Mode: " + mode);
+        LOG.info("Waiting for connections...\n");
         
         while (isRunning) {
             try {
-                SSLSocket clientSocket = (SSLSocket) serverSocket.accept();
-                new Thread(() -> handleClient(clientSocket)).start();
+                Socket clientSocket = serverSocket.accept();
+                if (!handshakeStage.tryAdmit()) {
+                    closeQuietly(clientSocket);
+                    continue;
+                }
+                connectionExecutor.execute(() -> handshake(clientSocket));
             } catch (IOException e) {
                 if (isRunning) {
-                    System.err.println("[ERROR] Connection error: " + e.getMessage());
+                    LOG.error("[ERROR] Connection error: " + e.getMessage());
                 }
             }
         }
     }
     
     /**
-     * Creates SSL context for secure connections.
+     * Launches the non-blocking mode: one acceptor (the calling thread) and
+     * one SSLEngine event loop per available core.
      * 
-     * @param keystorePath path to keystore
-     * @param password keystore password
-     * @return configured SSLContext
-     * @throws Exception if context creation fails
+     * @param sslContext context used by the event loops to create engines
+     * @throws IOException if the server channel cannot be bound
      */
-    private SSLContext createSSLContext(String keystorePath, String password) throws Exception {
-        KeyStore keyStore = KeyStore.getInstance("JKS");
-        FileInputStream fis = new FileInputStream(keystorePath);
-        keyStore.load(fis, password.toCharArray());
-        fis.close();
+    private void launchEventLoops(SSLContext sslContext) throws IOException {
+        int loopCount = Runtime.getRuntime().availableProcessors();
+        eventLoops = new ChatEventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            eventLoops[i] = new ChatEventLoop("chat-loop-" + i, sslContext, protocolHandler, handshakeStage);
+            eventLoops[i].start();
+        }
         
-        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
-        kmf.init(keyStore, password.toCharArray());
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        isRunning = true;
         
-        SSLContext sslContext = SSLContext.getInstance("TLS");
-        sslContext.init(kmf.getKeyManagers(), null, new SecureRandom());
+        LOG.info("=== Secure Chat Server ===");
+        LOG.info("Port: " + port);
+        LOG.info("SSL/TLS: Enabled");
+        LOG.info("Mode: " + mode + " (" + loopCount + " event loops)");
+        LOG.info("Waiting for connections...\n");
         
-        return sslContext;
+        int next = 0;
+        while (isRunning) {
+            try {
+                SocketChannel clientChannel = serverChannel.accept();
+                if (!handshakeStage.tryAdmit()) {
+                    closeQuietly(clientChannel);
+                    continue;
+                }
+                eventLoops[next].register(clientChannel);
+                next = (next + 1) % loopCount;
+            } catch (IOException e) {
+                if (isRunning) {
+                    LOG.error("[ERROR] Connection error: " + e.getMessage());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Runs the TLS handshake of an admitted connection on its own thread, then
+     * serves the connection. Waiting for the client holds no handshake permit:
+     * the first TLS record is read on the plain socket, and only then does the
+     * connection take a permit for the CPU-heavy part. The whole handshake,
+     * waits included, must finish before one deadline, else the socket is closed.
+     * 
+     * @param raw the accepted plain socket
+     */
+    private void handshake(Socket raw) {
+        long handshakeStart = System.currentTimeMillis();
+        long handshakeNanos = System.nanoTime();
+        long deadlineNanos = handshakeNanos
+                + TimeUnit.MILLISECONDS.toNanos(handshakeStage.getHandshakeTimeoutMillis());
+        // Whoever sets it first wins: the handshake completing or the deadline closing the socket
+        AtomicBoolean settled = new AtomicBoolean();
+        AtomicBoolean timedOut = new AtomicBoolean();
+        ScheduledFuture<?> deadline = handshakeStage.scheduleTimeout(() -> {
+            if (settled.compareAndSet(false, true)) {
+                timedOut.set(true);
+                closeQuietly(raw);
+            }
+        });
+        SSLSocket socket = null;
+        try {
+            InputStream consumed = readFirstRecord(raw.getInputStream());
+            if (!handshakeStage.acquirePermit(deadlineNanos)) {
+                settled.set(true);
+                LOG.warn("[HANDSHAKE] Dropped after waiting for a permit: " + raw.getInetAddress());
+                closeQuietly(raw);
+                return;
+            }
+            try {
+                socket = (SSLSocket) socketFactory.createSocket(raw, consumed, true);
+                socket.startHandshake();
+            } finally {
+                handshakeStage.releasePermit();
+            }
+            if (!settled.compareAndSet(false, true)) {
+                throw new IOException("deadline passed");
+            }
+            boolean resumed = TlsContexts.isResumed(socket.getSession(), handshakeStart);
+            if (ChatMetrics.ENABLED) {
+                protocolHandler.getMetrics().recordHandshake(resumed, System.nanoTime() - handshakeNanos);
+            }
+            LOG.info("[CONNECTION] Client from " + socket.getInetAddress() + " ("
+                     + TlsContexts.describe(socket.getSession(), resumed) + ")");
+        } catch (IOException e) {
+            settled.set(true);
+            if (timedOut.get()) {
+                LOG.warn("[HANDSHAKE] Timed out: " + raw.getInetAddress());
+                handshakeStage.recordTimeout();
+            } else {
+                LOG.warn("[HANDSHAKE] Failed: " + e.getMessage());
+                handshakeStage.recordFailure();
+            }
+            closeQuietly(socket != null ? socket : raw);
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            settled.set(true);
+            closeQuietly(raw);
+            return;
+        } finally {
+            deadline.cancel(false);
+            handshakeStage.release();
+        }
+        handleClient(socket);
     }
     
     /**
-     * Handles a single client connection.
+     * Reads the first TLS record sent by a client (the start of its ClientHello)
+     * on the plain socket, so that the handshake is only computed for a client
+     * that actually talks.
+     * 
+     * @param input input stream of the plain socket
+     * @return the bytes read, to be replayed to the TLS layer
+     * @throws IOException if the client closes first or announces an oversized record
+     */
+    private static InputStream readFirstRecord(InputStream input) throws IOException {
+        byte[] header = input.readNBytes(5);
+        if (header.length < 5) {
+            throw new EOFException("Connection closed before the TLS handshake");
+        }
+        int length = ((header[3] & 0xFF) << 8) | (header[4] & 0xFF);
+        if (length > MAX_TLS_RECORD) {
+            throw new IOException("TLS record too large: " + length);
+        }
+        byte[] record = Arrays.copyOf(header, 5 + length);
+        if (input.readNBytes(record, 5, length) < length) {
+            throw new EOFException("Connection closed during the TLS handshake");
+        }
+        return new ByteArrayInputStream(record);
+    }
+    
+    /**
+     * Handles a single client connection once its handshake is done.
      * Processes protocol messages in a loop.
+     * Runs on a platform or a virtual thread: the path from here down to the socket
+     * must not block inside synchronized code, which would pin the carrier thread.
      * 
      * @param socket the SSL socket for the client
      */
     private void handleClient(SSLSocket socket) {
         DataInputStream input = null;
-        DataOutputStream output = null;
-        String sessionId = null;
+        OutboundQueue output = null;
+        FrameReader reader = null;
+        ClientSession session = null;
+        blockingConnections.incrementAndGet();
         
         try {
-            socket.startHandshake();
-            System.out.println("[CONNECTION] Client from " + socket.getInetAddress());
-            
             input = new DataInputStream(socket.getInputStream());
-            output = new DataOutputStream(socket.getOutputStream());
+            output = new OutboundQueue(new DataOutputStream(socket.getOutputStream()), writerExecutor,
+                                       protocolHandler.getMetrics());
+            reader = new FrameReader(input, MAX_BODY_LENGTH, protocolHandler.getMetrics());
             
             while (isRunning) {
                 try {
-                    // Read message header (10 bytes)
-                    byte version = input.readByte();
-                    byte typeCode = input.readByte();
-                    int bodyLength = input.readInt();
-                    int timestamp = input.readInt();
-                    
-                    // Validate body length
-                    if (bodyLength < 0 || bodyLength > 10000) {
-                        System.err.println("[ERROR] Invalid body length: " + bodyLength);
+                    // Read header + body into the reusable buffer and decode in place
+                    ChatMessage message;
+                    try {
+                        message = reader.readFrame();
+                    } catch (RuntimeException e) {
+                        // Untrusted bytes: whatever the decoder throws, the frame is malformed
+                        protocolHandler.rejectMalformed(output, e);
                         continue;
                     }
-                    
-                    // Read full message body
-                    byte[] bodyBytes = new byte[bodyLength];
-                    input.readFully(bodyBytes);
-                    
-                    // Reconstruct full message
-                    byte[] fullMessage = new byte[10 + bodyLength];
-                    fullMessage[0] = version;
-                    fullMessage[1] = typeCode;
-                    System.arraycopy(intToBytes(bodyLength), 0, fullMessage, 2, 4);
-                    System.arraycopy(intToBytes(timestamp), 0, fullMessage, 6, 4);
-                    System.arraycopy(bodyBytes, 0, fullMessage, 10, bodyLength);
+                    FrameEvent event = new FrameEvent();
+                    event.begin();
                     
                     // Process message through protocol handler
-                    sessionId = handleProtocolMessage(socket, fullMessage, output, sessionId);
+                    session = handleProtocolMessage(socket, message, output, session);
+                    
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.messageType = message.getMessageType().name();
+                        event.bytes = reader.getLastFrameLength();
+                        event.protocolVersion = message.getProtocolVersion();
+                        event.transport = mode.name().toLowerCase();
+                        event.commit();
+                    }
                     
+                } catch (IllegalArgumentException e) {
+                    protocolHandler.rejectMalformed(output, e);
                 } catch (EOFException e) {
-                    System.out.println("[DISCONNECTION] Client closed connection");
+                    LOG.info("[DISCONNECTION] Client closed connection");
+                    break;
+                } catch (IOException e) {
+                    // Out-of-range body length or a broken socket: closed, as in NIO mode
+                    LOG.info("[DISCONNECTION] " + e.getMessage());
                     break;
                 }
             }
             
         } catch (Exception e) {
-            System.err.println("[ERROR] Client handler error: " + e.getMessage());
-            e.printStackTrace();
+            LOG.error("[ERROR] Client handler error: " + e.getMessage(), e);
         } finally {
             // Cleanup session
-            if (sessionId != null) {
-                protocolHandler.removeSession(sessionId);
+            protocolHandler.removeSession(session);
+            
+            if (reader != null) {
+                reader.release();
             }
+            blockingConnections.decrementAndGet();
             
             // Close resources
             try {
-                if (input != null) input.close();
                 if (output != null) output.close();
+                if (input != null) input.close();
                 if (socket != null) socket.close();
             } catch (IOException e) {
-                System.err.println("[ERROR] Closing resources: " + e.getMessage());
+                LOG.error("[ERROR] Closing resources: " + e.getMessage());
             }
         }
     }
@@ -169,29 +352,57 @@ public class SecureChatServer {
      * Delegates to ChatProtocolServer for protocol handling.
      * 
      * @param socket the client socket
-     * @param messageData the raw message bytes
-     * @param output output stream for responses
-     * @param currentSessionId current session ID (null if not logged in)
-     * @return session ID after processing
+     * @param message the decoded message
+     * @param output outbound queue for responses
+     * @param currentSession session of the connection (null if not logged in)
+     * @return session after processing
      */
-    public String handleProtocolMessage(SSLSocket socket, byte[] messageData, 
-                                       DataOutputStream output, String currentSessionId) {
-        return protocolHandler.handleMessage(messageData, output, currentSessionId);
+    public ClientSession handleProtocolMessage(SSLSocket socket, ChatMessage message,
+                                               OutboundQueue output, ClientSession currentSession) {
+        return protocolHandler.handleMessage(message, output, currentSession);
     }
     
     /**
-     * Converts int to byte array (big-endian).
+     * Fills a stats snapshot for the HTTP endpoint: connections, buffer pools,
+     * then sessions, rooms and latencies from the protocol handler.
+     * Called on the endpoint's own thread; only reads atomic counters.
      * 
-     * @param value integer to convert
-     * @return 4-byte array
+     * @param out snapshot being collected
      */
-    private byte[] intToBytes(int value) {
-        return new byte[] {
-            (byte)(value >>> 24),
-            (byte)(value >>> 16),
-            (byte)(value >>> 8),
-            (byte)value
-        };
+    public void collectStats(StatsSnapshot out) {
+        out.gauge("chat_up", "1 while the server accepts connections", isRunning ? 1 : 0);
+        if (eventLoops != null) {
+            int total = 0;
+            for (ChatEventLoop loop : eventLoops) {
+                total += loop.getConnectionCount();
+            }
+            out.gauge("chat_connections", "Open client connections", total);
+            for (ChatEventLoop loop : eventLoops) {
+                out.gauge("chat_loop_connections", "Connections per event loop",
+                          "loop", loop.getName(), loop.getConnectionCount());
+            }
+        } else {
+            out.gauge("chat_connections", "Open client connections", blockingConnections.get());
+        }
+        
+        List<BufferPool> pools = new ArrayList<>();
+        pools.add(BufferPool.shared());
+        if (eventLoops != null) {
+            for (ChatEventLoop loop : eventLoops) {
+                pools.add(loop.getBuffers());
+            }
+        }
+        for (BufferPool pool : pools) {
+            out.counter("chat_buffer_pool_hits_total", "Buffers served from a pool", "pool",
+                        pool.getName(), pool.getHits());
+            out.counter("chat_buffer_pool_misses_total", "Buffers allocated by a pool", "pool",
+                        pool.getName(), pool.getMisses());
+        }
+        
+        if (handshakeStage != null) {
+            handshakeStage.collect(out);
+        }
+        protocolHandler.collectStats(out);
     }
     
     /**
@@ -199,36 +410,69 @@ public class SecureChatServer {
      */
     public void shutdown() {
         isRunning = false;
+        if (statsServer != null) {
+            statsServer.stop();
+        }
         try {
             if (serverSocket != null && !serverSocket.isClosed()) {
                 serverSocket.close();
-                System.out.println("\n[SHUTDOWN] Server stopped");
+                LOG.info("\n[SHUTDOWN] Server stopped");
+            }
+            if (serverChannel != null && serverChannel.isOpen()) {
+                serverChannel.close();
+                LOG.info("\n[SHUTDOWN] Server stopped");
+            }
+            if (eventLoops != null) {
+                for (ChatEventLoop loop : eventLoops) {
+                    LOG.info("[STATS] " + loop.getBuffers());
+                    loop.shutdown();
+                }
+            }
+            LOG.info("[STATS] " + BufferPool.shared());
+            if (handshakeStage != null) {
+                LOG.info("[STATS] " + handshakeStage);
+                handshakeStage.shutdown();
+            }
+            protocolHandler.shutdown();
+            if (ChatMetrics.ENABLED) {
+                LOG.info(protocolHandler.getMetrics().report());
             }
         } catch (IOException e) {
-            System.err.println("[ERROR] Shutdown: " + e.getMessage());
+            LOG.error("[ERROR] Shutdown: " + e.getMessage());
+        }
+    }
+    
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // Connection dropped before the protocol loop
         }
     }
     
     /**
      * Main method to start the server.
      * 
-     * @param args [port] [keystorePath] [keystorePassword]
+     * @param args [port] [keystorePath] [keystorePassword] [blocking|virtual|nio]
      */
     public static void main(String[] args) {
         if (args.length < 3) {
-            System.err.println("Usage: java SSL.SecureChatServer <port> <keystorePath> <password>");
-            System.err.println("Example: java SSL.SecureChatServer 8443 server.jks password123");
+            System.err.println("Usage: java SSL.SecureChatServer <port> <keystorePath> <password> [blocking|virtual|nio]");
+            System.err.println("Example: java SSL.SecureChatServer 8443 server.jks password123 nio");
             System.exit(1);
         }
         
         try {
             int port = Integer.parseInt(args[0]);
-            SecureChatServer server = new SecureChatServer(port, args[1], args[2]);
+            ExecutionMode mode = args.length > 3 ? ExecutionMode.fromArgument(args[3])
+                                                 : ExecutionMode.BLOCKING;
+            SecureChatServer server = new SecureChatServer(port, args[1], args[2], mode);
             
             // Add shutdown hook for graceful termination
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                System.out.println("\nShutdown signal received...");
+                LOG.info("\nShutdown signal received...");
                 server.shutdown();
+                Log.flush();
             }));
             
             server.launch();
@@ -243,86 +487,3 @@ public class SecureChatServer {
         }
     }
 }
-
-/**
- * Represents a client session.
- */
-class ClientSession {
-    private String username;
-    private String sessionId;
-    private String currentRoom;
-    
-    /**
-     * Constructs a ClientSession.
-     * 
-     * @param username the username
-     * @param sessionId the session ID
-     */
-    public ClientSession(String username, String sessionId) {
-        this.username = username;
-        this.sessionId = sessionId;
-    }
-    
-    public String getUsername() { return username; }
-    public String getSessionId() { return sessionId; }
-    public String getCurrentRoom() { return currentRoom; }
-    public void setCurrentRoom(String room) { this.currentRoom = room; }
-}
-
-/**
- * Represents a chat room.
- */
-class ChatRoom {
-    private String roomId;
-    private List<ClientSession> members;
-    
-    /**
-     * Constructs a ChatRoom.
-     * 
-     * @param roomId the room identifier
-     */
-    public ChatRoom(String roomId) {
-        this.roomId = roomId;
-        this.members = new ArrayList<>();
-    }
-    
-    /**
-     * Adds a member to the room.
-     * 
-     * @param session the client session to add
-     */
-    public void addMember(ClientSession session) {
-        if (!members.contains(session)) {
-            members.add(session);
-        }
-    }
-    
-    /**
-     * Removes a member from the room.
-     * 
-     * @param session the client session to remove
-     */
-    public void removeMember(ClientSession session) {
-        members.remove(session);
-    }
-    
-    /**
-     * Gets all members of the room.
-     * 
-     * @return copy of members list
-     */
-    public List<ClientSession> getMembers() {
-        return new ArrayList<>(members);
-    }
-    
-    /**
-     * Gets the number of members in the room.
-     * 
-     * @return member count
-     */
-    public int getMemberCount() {
-        return members.size();
-    }
-    
-    public String getRoomId() { return roomId; }
-}
@@ -0,0 +1,131 @@
+package SSL;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Authenticated sessions indexed by a compact numeric handle.
+ * A handle packs a slot index (low 32 bits) and the slot's generation (high
+ * 32 bits): freed slots are reused, but a stale handle never resolves to the
+ * session that took its slot over. Logins and logouts take the table's lock;
+ * lookups and iteration only read the slot array.
+ * <p>
+ * Handlers keep a direct {@link ClientSession} reference, so routing a message
+ * needs no lookup at all: the table serves the user list, the statistics and
+ * resolving a handle that came from outside.
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+final class SessionTable {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private volatile AtomicReferenceArray<ClientSession> slots = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    private int[] generations = new int[INITIAL_CAPACITY];     // Guarded by this
+    private int[] freeSlots = new int[INITIAL_CAPACITY];       // Guarded by this
+    private int freeCount;                                      // Guarded by this
+    private int used;                                           // Slots handed out once, guarded by this
+    private volatile int size;
+
+    /**
+     * Stores a session in a free slot and returns its handle.
+     *
+     * @param session session to store
+     * @return the session's handle
+     */
+    synchronized long add(ClientSession session) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (used == generations.length) {
+                grow();
+            }
+            slot = used++;
+        }
+        long handle = ((long) generations[slot] << 32) | slot;
+        session.setHandle(handle);
+        slots.set(slot, session);
+        size++;
+        return handle;
+    }
+
+    /**
+     * Frees the slot of a session. Does nothing if it was already removed.
+     *
+     * @param session session to remove
+     * @return true if the session was in the table
+     */
+    synchronized boolean remove(ClientSession session) {
+        long handle = session.getHandle();
+        int slot = (int) handle;
+        if (slot < 0 || slot >= used || slots.get(slot) != session) {
+            return false;
+        }
+        slots.set(slot, null);
+        generations[slot]++;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+        size--;
+        return true;
+    }
+
+    /**
+     * @param handle a handle returned by {@link #add(ClientSession)}
+     * @return the session, or null if it has logged out
+     */
+    ClientSession get(long handle) {
+        int slot = (int) handle;
+        AtomicReferenceArray<ClientSession> current = slots;
+        if (slot < 0 || slot >= current.length()) {
+            return null;
+        }
+        ClientSession session = current.get(slot);
+        return session != null && session.getHandle() == handle ? session : null;
+    }
+
+    /**
+     * Returns the sessions present when the scan started, in slot order.
+     * Sessions that log in or out during the scan may be missed or included.
+     *
+     * @return sessions currently in the table
+     */
+    ClientSession[] snapshot() {
+        AtomicReferenceArray<ClientSession> current = slots;
+        ClientSession[] sessions = new ClientSession[Math.max(size, 8)];
+        int count = 0;
+        for (int i = 0; i < current.length(); i++) {
+            ClientSession session = current.get(i);
+            if (session != null) {
+                if (count == sessions.length) {
+                    sessions = Arrays.copyOf(sessions, count * 2);
+                }
+                sessions[count++] = session;
+            }
+        }
+        return Arrays.copyOf(sessions, count);
+    }
+
+    /**
+     * @return number of sessions in the table
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Doubles the slot array. Readers keep the old array until they next read the field.
+     */
+    private void grow() {
+        AtomicReferenceArray<ClientSession> current = slots;
+        int capacity = generations.length * 2;
+        AtomicReferenceArray<ClientSession> grown = new AtomicReferenceArray<>(capacity);
+        for (int i = 0; i < current.length(); i++) {
+            grown.set(i, current.get(i));
+        }
+        generations = Arrays.copyOf(generations, capacity);
+        slots = grown;
+    }
+}
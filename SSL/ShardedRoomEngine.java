@@ -0,0 +1,329 @@
+package SSL;
+
+import Common.StatsSnapshot;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Room engine partitioning the rooms across single-threaded shards.
+ * A room belongs to one shard, chosen by its dense handle so rooms spread
+ * evenly, and only that shard's thread ever reads or changes its membership:
+ * rooms are plain arrays and hash maps, without locks or copy-on-write.
+ * Handler threads only look the room up at join and enqueue commands (join,
+ * leave, broadcast) in the shard's mailbox, so:
+ * <ul>
+ *   <li>every member of a room sees its messages in the same order</li>
+ *   <li>a join, a broadcast and a leave from one handler apply in that order</li>
+ *   <li>rooms on different shards never contend, so throughput grows with the
+ *       number of shards when the traffic is spread over many rooms</li>
+ * </ul>
+ * The number of shards comes from chat.rooms.shards (one per core).
+ * The shard closes a room its last member leaves; a join racing with it
+ * reserves the room first or retries with a new one ({@link ChatRoom}).
+ * Statistics are read from values each shard publishes through volatile fields.
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+class ShardedRoomEngine extends AbstractRoomEngine {
+    public static final int DEFAULT_SHARDS = Math.max(1, Integer.getInteger("chat.rooms.shards",
+            Runtime.getRuntime().availableProcessors()));
+
+    private final Map<String, Room> rooms;
+    private final Shard[] shards;
+
+    /**
+     * Constructs an engine and starts its shard threads.
+     *
+     * @param shardCount number of shards
+     * @param metrics registry receiving fan-out metrics
+     */
+    ShardedRoomEngine(int shardCount, ChatMetrics metrics) {
+        super(metrics);
+        this.rooms = new ConcurrentHashMap<>();
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard("chat-room-shard-" + i);
+            shards[i].thread.start();
+        }
+    }
+
+    @Override
+    public void join(ClientSession session, String roomName) {
+        // Reserved before the shard adds the member, so it cannot be reclaimed meanwhile
+        Room room = rooms.computeIfAbsent(roomName, this::newRoom);
+        while (!room.reserve()) {
+            rooms.remove(roomName, room);
+            room = rooms.computeIfAbsent(roomName, this::newRoom);
+        }
+
+        // Later frames of this session route to the new room right away
+        Room previous = (Room) session.getCurrentRoom();
+        session.setCurrentRoom(room);
+
+        if (previous != null) {
+            previous.shard.submit(() -> previous.shard.remove(session, previous, false));
+        }
+        Room joined = room;
+        room.shard.submit(() -> joined.shard.add(session, joined));
+    }
+
+    @Override
+    public void leave(ClientSession session) {
+        Room room = (Room) session.getCurrentRoom();
+        if (room != null) {
+            room.shard.submit(() -> room.shard.remove(session, room, true));
+        }
+    }
+
+    @Override
+    public void broadcast(ChatRoom target, ChatMessage message) {
+        Room room = (Room) target;
+        room.shard.submit(() -> room.shard.broadcast(room, message));
+    }
+
+    @Override
+    public void broadcast(String roomName, ChatMessage message) {
+        Room room = rooms.get(roomName);
+        if (room != null) {
+            broadcast(room, message);
+        }
+    }
+
+    @Override
+    public void notifyRoom(String roomName, String notification) {
+        Room room = rooms.get(roomName);
+        if (room != null) {
+            room.shard.submit(() -> room.shard.notifyRoom(room, notification));
+        }
+    }
+
+    @Override
+    public void collect(StatsSnapshot out) {
+        out.gauge("chat_rooms", "Rooms", rooms.size());
+        for (Room room : rooms.values()) {
+            out.gauge("chat_room_members", "Members per room", "room", room.getRoomId(), room.memberCount);
+            out.counter("chat_room_broadcasts_total", "Messages broadcast per room",
+                        "room", room.getRoomId(), room.broadcasts);
+        }
+        for (Shard shard : shards) {
+            out.gauge("chat_room_shard_backlog", "Commands waiting in a room shard mailbox",
+                      "shard", shard.thread.getName(), shard.submitted.sum() - shard.processed);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        for (Shard shard : shards) {
+            shard.running = false;
+            LockSupport.unpark(shard.thread);
+        }
+    }
+
+    /**
+     * @param roomName room name
+     * @return a new room, on the shard its handle selects
+     */
+    private Room newRoom(String roomName) {
+        int handle = allocateHandle();
+        return new Room(roomName, handle, shards[handle % shards.length]);
+    }
+
+    /**
+     * One shard: a mailbox, the thread draining it and the membership of the
+     * rooms it owns.
+     */
+    private final class Shard implements Runnable {
+        private final Queue<Runnable> mailbox = new ConcurrentLinkedQueue<>();
+        private final LongAdder submitted = new LongAdder();
+        private final Thread thread;
+        private volatile long processed;
+        private volatile boolean waiting;                         // Parked or about to park
+        private volatile boolean running = true;
+
+        Shard(String name) {
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+        }
+
+        /**
+         * Enqueues a command. Safe to call from any thread.
+         *
+         * @param command runs on the shard thread
+         */
+        void submit(Runnable command) {
+            submitted.increment();
+            mailbox.add(command);
+            if (waiting) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        /**
+         * Runs commands until the engine shuts down, parking when the mailbox is empty.
+         */
+        @Override
+        public void run() {
+            long done = 0;
+            while (running) {
+                Runnable command = mailbox.poll();
+                if (command != null) {
+                    try {
+                        command.run();
+                    } catch (RuntimeException e) {
+                        LOG.error("[ROOMS] Shard command failed: " + e.getMessage(), e);
+                    }
+                    processed = ++done;
+                    continue;
+                }
+                // A command added before the flag is seen is caught by the re-check
+                waiting = true;
+                if (mailbox.isEmpty() && running) {
+                    LockSupport.park(this);
+                }
+                waiting = false;
+            }
+        }
+
+        /**
+         * Adds a session to a room reserved by the joining handler and tells
+         * the other members.
+         *
+         * @param session the joining session
+         * @param room room to join
+         */
+        void add(ClientSession session, Room room) {
+            boolean added = room.add(session);
+            room.completeJoin();
+            if (!added) {
+                return;
+            }
+
+            LOG.info("[JOIN] User: " + session.getUsername() + " -> Room: " +
+                     room.getRoomId() + " (" + room.count + " members)");
+            notifyMembers(room.getRoomId(), room.members, room.count,
+                          session.getUsername() + " joined the room", session);
+        }
+
+        /**
+         * Removes a session from a room, reclaiming the room if it is left empty.
+         *
+         * @param session the leaving session
+         * @param room room to leave
+         * @param notify true to tell the other members (logout), false to only log (room change)
+         */
+        void remove(ClientSession session, Room room, boolean notify) {
+            if (!room.remove(session)) {
+                return;
+            }
+            if (notify) {
+                notifyMembers(room.getRoomId(), room.members, room.count,
+                              session.getUsername() + " left the room", session);
+            } else {
+                LOG.info("[LEAVE] User: " + session.getUsername() + " left room: " + room.getRoomId());
+            }
+            if (room.count == 0 && room.tryClose()) {
+                rooms.remove(room.getRoomId(), room);
+                releaseHandle(room.getHandle());
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("[ROOMS] Reclaimed empty room: " + room.getRoomId() + " #" + room.getHandle());
+                }
+            }
+        }
+
+        /**
+         * Sends a system notification to the members of a room.
+         *
+         * @param room target room
+         * @param notification notice text
+         */
+        void notifyRoom(Room room, String notification) {
+            notifyMembers(room.getRoomId(), room.members, room.count, notification, null);
+        }
+
+        /**
+         * Delivers a message to the members of a room.
+         *
+         * @param room target room
+         * @param message message as sent to the members
+         */
+        void broadcast(Room room, ChatMessage message) {
+            deliver(room.getRoomId(), message, room.members, room.count);
+            if (ChatMetrics.ENABLED) {
+                room.broadcasts++;      // Single writer: the shard thread
+            }
+        }
+    }
+
+    /**
+     * Room owned by one shard. Members fill the start of a growable array;
+     * the last member takes the slot of a leaving one.
+     */
+    private static final class Room extends ChatRoom {
+        private final Shard shard;
+        private final Map<ClientSession, Integer> slots = new HashMap<>();
+        private ClientSession[] members = new ClientSession[8];
+        private int count;
+        private volatile int memberCount;       // Copy of count for the stats thread
+        private volatile long broadcasts;
+
+        Room(String roomId, int handle, Shard shard) {
+            super(roomId, handle);
+            this.shard = shard;
+        }
+
+        @Override
+        int getMemberCount() {
+            return memberCount;
+        }
+
+        @Override
+        long getBroadcastCount() {
+            return broadcasts;
+        }
+
+        /**
+         * @param session session to add
+         * @return false if it was already a member
+         */
+        boolean add(ClientSession session) {
+            if (slots.containsKey(session)) {
+                return false;
+            }
+            if (count == members.length) {
+                ClientSession[] grown = new ClientSession[count * 2];
+                System.arraycopy(members, 0, grown, 0, count);
+                members = grown;
+            }
+            slots.put(session, count);
+            members[count++] = session;
+            memberCount = count;
+            return true;
+        }
+
+        /**
+         * @param session session to remove
+         * @return false if it was not a member
+         */
+        boolean remove(ClientSession session) {
+            Integer slot = slots.remove(session);
+            if (slot == null) {
+                return false;
+            }
+            int last = --count;
+            if (slot != last) {
+                members[slot] = members[last];
+                slots.put(members[slot], slot);
+            }
+            members[last] = null;
+            memberCount = count;
+            return true;
+        }
+    }
+}
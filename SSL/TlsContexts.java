@@ -0,0 +1,135 @@
+package SSL;
+
+import javax.net.ssl.*;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+
+/**
+ * Creates the SSL contexts of the servers and clients with an explicit session
+ * resumption setup, so a reconnecting client skips the certificate signature
+ * and key exchange of a full handshake.
+ * <ul>
+ *   <li>Servers keep a session cache of chat.tls.session.cache entries (20000)
+ *       valid chat.tls.session.timeout seconds (3600), and issue TLS 1.3 session
+ *       tickets unless chat.tls.tickets=false. With tickets, the resumption state
+ *       travels with the client and the server cache stays small.</li>
+ *   <li>Clients resume only with a ticket or session cached by the same
+ *       SSLContext: {@link #sharedTrustAllClient()} returns one context per process.</li>
+ * </ul>
+ * The ticket setting is read by the JDK when TLS is first used: create the
+ * contexts through this class before any other SSLContext in the process.
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public final class TlsContexts {
+    /** Maximum number of sessions cached by a server context */
+    public static final int SESSION_CACHE_SIZE = Integer.getInteger("chat.tls.session.cache", 20000);
+    /** Lifetime of a cached session or ticket, in seconds */
+    public static final int SESSION_TIMEOUT = Integer.getInteger("chat.tls.session.timeout", 3600);
+    /** Whether servers issue stateless TLS 1.3 session tickets */
+    public static final boolean SESSION_TICKETS = !"false".equalsIgnoreCase(System.getProperty("chat.tls.tickets"));
+
+    private static final String JDK_SERVER_TICKETS = "jdk.tls.server.enableSessionTicketExtension";
+
+    private static SSLContext sharedClient;
+
+    static {
+        // An explicit -D on the command line wins
+        if (System.getProperty(JDK_SERVER_TICKETS) == null) {
+            System.setProperty(JDK_SERVER_TICKETS, String.valueOf(SESSION_TICKETS));
+        }
+    }
+
+    private TlsContexts() {
+    }
+
+    /**
+     * Creates a server context from a JKS keystore, with the configured session cache.
+     *
+     * @param keystorePath path to the keystore file
+     * @param password keystore and key password
+     * @return configured SSLContext
+     * @throws Exception if the keystore cannot be read or TLS is not available
+     */
+    public static SSLContext server(String keystorePath, String password) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream in = new FileInputStream(keystorePath)) {
+            keyStore.load(in, password.toCharArray());
+        }
+
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, password.toCharArray());
+
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(kmf.getKeyManagers(), null, new SecureRandom());
+        configureSessions(sslContext.getServerSessionContext());
+        return sslContext;
+    }
+
+    /**
+     * Returns the process-wide client context trusting all certificates (for
+     * testing). A reconnect made with it resumes the previous session; the
+     * context keeps the latest ticket per server address, so concurrent
+     * connections to the same server mostly do full handshakes.
+     *
+     * @return the shared client context
+     * @throws Exception if TLS is not available
+     */
+    public static synchronized SSLContext sharedTrustAllClient() throws Exception {
+        if (sharedClient == null) {
+            sharedClient = newTrustAllClient();
+        }
+        return sharedClient;
+    }
+
+    /**
+     * Creates a new client context trusting all certificates (for testing).
+     * Its connections never resume sessions of other contexts.
+     *
+     * @return a new client context
+     * @throws Exception if TLS is not available
+     */
+    public static SSLContext newTrustAllClient() throws Exception {
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        TrustManager[] trustAll = new TrustManager[]{
+            new X509TrustManager() {
+                public X509Certificate[] getAcceptedIssuers() { return null; }
+                public void checkClientTrusted(X509Certificate[] certs, String authType) { }
+                public void checkServerTrusted(X509Certificate[] certs, String authType) { }
+            }
+        };
+        sslContext.init(null, trustAll, new SecureRandom());
+        configureSessions(sslContext.getClientSessionContext());
+        return sslContext;
+    }
+
+    private static void configureSessions(SSLSessionContext sessions) {
+        sessions.setSessionCacheSize(SESSION_CACHE_SIZE);
+        sessions.setSessionTimeout(SESSION_TIMEOUT);
+    }
+
+    /**
+     * Tells whether a handshake resumed an earlier session: a resumed session
+     * keeps the creation time of the full handshake that established it.
+     *
+     * @param session session after the handshake
+     * @param handshakeStartMillis wall-clock time at which the handshake started
+     * @return true if the handshake was abbreviated
+     */
+    public static boolean isResumed(SSLSession session, long handshakeStartMillis) {
+        return session.getCreationTime() < handshakeStartMillis;
+    }
+
+    /**
+     * @param session session after the handshake
+     * @param resumed result of {@link #isResumed}
+     * @return protocol and handshake kind, e.g. "TLSv1.3, resumed"
+     */
+    static String describe(SSLSession session, boolean resumed) {
+        return session.getProtocol() + ", " + (resumed ? "resumed" : "full handshake");
+    }
+}
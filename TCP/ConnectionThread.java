@@ -1,4 +1,6 @@
 package TCP;
+
+import Common.Log;
 import java.net.*;
 import java.io.*;
 import java.util.Date;
@@ -12,6 +14,8 @@ import java.util.concurrent.atomic.AtomicInteger;
  * @version 1.0
  */
 public class ConnectionThread extends Thread {
+    private static final Log LOG = Log.get("tcp");
+
     private Socket clientSocket;
     private int clientId;
     private static AtomicInteger clientCounter = new AtomicInteger(0);
@@ -34,7 +38,7 @@ public class ConnectionThread extends Thread {
      */
     @Override
     public void run() {
-        System.out.println("[" + new Date() + "] Client " + clientId + " connected from " + clientSocket.getInetAddress());
+        LOG.info("[" + new Date() + "] Client " + clientId + " connected from " + clientSocket.getInetAddress());
         
         BufferedReader reader = null;
         PrintWriter writer = null;
@@ -54,7 +58,9 @@ public class ConnectionThread extends Thread {
             // Echo loop - read and echo messages
             String line;
             while ((line = reader.readLine()) != null) {
-                System.out.println("[RECEIVED] Client " + clientId + ": " + line);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("[RECEIVED] Client " + clientId + ": " + line);
+                }
                 
                 // Handle quit command
                 if (line.equalsIgnoreCase("quit")) {
@@ -67,10 +73,10 @@ public class ConnectionThread extends Thread {
             }
             
         } catch (IOException e) {
-            System.err.println("Client " + clientId + " error: " + e.getMessage());
+            LOG.error("Client " + clientId + " error: " + e.getMessage());
         } finally {
             cleanup();
-            System.out.println("[" + new Date() + "] Client " + clientId + " disconnected");
+            LOG.info("[" + new Date() + "] Client " + clientId + " disconnected");
         }
     }
     
@@ -83,7 +89,7 @@ public class ConnectionThread extends Thread {
                 clientSocket.close();
             }
         } catch (IOException e) {
-            System.err.println("Error closing socket for client " + clientId + ": " + e.getMessage());
+            LOG.error("Error closing socket for client " + clientId + ": " + e.getMessage());
         }
     }
 }
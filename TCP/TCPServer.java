@@ -1,4 +1,6 @@
 package TCP;
+
+import Common.Log;
 import java.net.*;
 import java.io.*;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -11,6 +13,8 @@ import java.util.concurrent.atomic.AtomicInteger;
  * @version 1.0
  */
 public class TCPServer {
+    private static final Log LOG = Log.get("tcp");
+
     private int port;
     private static final int DEFAULT_PORT = 8006;
     private ServerSocket serverSocket;
@@ -39,8 +43,8 @@ public class TCPServer {
      */
     public void launch() throws IOException {
         serverSocket = new ServerSocket(port);
-        System.out.println("Multithreaded TCP Server started on port " + port);
-        System.out.println("Waiting for connections...");
+        LOG.info("Multithreaded TCP Server started on port " + port);
+        LOG.info("Waiting for connections...");
         
         while (true) {
             // Accept new client connection
@@ -54,7 +58,7 @@ public class TCPServer {
             clientThread.start();
             
             // Display active thread count
-            System.out.println("Active threads: " + (Thread.activeCount() - 1));
+            LOG.info("Active threads: " + (Thread.activeCount() - 1));
         }
     }
     
@@ -80,10 +84,11 @@ public class TCPServer {
             } else {
                 server = new TCPServer();
             }
-            System.out.println(server.toString());
+            LOG.info(server.toString());
             server.launch();
         } catch (IOException e) {
-            e.printStackTrace();
+            LOG.error("Server error: " + e.getMessage(), e);
+            Log.flush();
         }
     }
 }
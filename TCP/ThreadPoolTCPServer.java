@@ -1,10 +1,16 @@
 package TCP;
+
+import Common.Log;
+import Common.StatsHttpServer;
+import Common.StatsSnapshot;
 import java.net.*;
 import java.io.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Enhanced TCP server using thread pool for better resource management.
@@ -14,6 +20,8 @@ import java.util.concurrent.atomic.AtomicInteger;
  * @version 2.0
  */
 public class ThreadPoolTCPServer {
+    private static final Log LOG = Log.get("tcp");
+
     private int port;
     private static final int DEFAULT_PORT = 8006;
     private static final int THREAD_POOL_SIZE = 10;
@@ -21,6 +29,8 @@ public class ThreadPoolTCPServer {
     private ServerSocket serverSocket;
     private static AtomicInteger clientCounter = new AtomicInteger(0);
     private static AtomicInteger activeClients = new AtomicInteger(0);
+    private final LongAdder echoedLines = new LongAdder();
+    private StatsHttpServer statsServer;
     private volatile boolean running = true;
     
     /**
@@ -47,9 +57,10 @@ public class ThreadPoolTCPServer {
      */
     public void launch() throws IOException {
         serverSocket = new ServerSocket(port);
-        System.out.println("Thread Pool TCP Server started on port " + port);
-        System.out.println("Thread pool size: " + THREAD_POOL_SIZE);
-        System.out.println("Waiting for connections...");
+        statsServer = StatsHttpServer.startIfConfigured(this::collectStats);
+        LOG.info("Thread Pool TCP Server started on port " + port);
+        LOG.info("Thread pool size: " + THREAD_POOL_SIZE);
+        LOG.info("Waiting for connections...");
         
         while (running) {
             try {
@@ -59,7 +70,7 @@ public class ThreadPoolTCPServer {
                 // Generate unique client ID (thread-safe)
                 int clientId = clientCounter.incrementAndGet();
                 
-                System.out.println("[CONNECTION] Client " + clientId + " from " + clientSocket.getInetAddress());
+                LOG.info("[CONNECTION] Client " + clientId + " from " + clientSocket.getInetAddress());
                 
                 // Increment active clients counter
                 activeClients.incrementAndGet();
@@ -79,7 +90,7 @@ public class ThreadPoolTCPServer {
                 
             } catch (IOException e) {
                 if (running) {
-                    System.err.println("Error accepting connection: " + e.getMessage());
+                    LOG.error("Error accepting connection: " + e.getMessage());
                 }
             }
         }
@@ -93,7 +104,7 @@ public class ThreadPoolTCPServer {
      * @param clientId unique identifier for this client
      */
     private void handleClient(Socket clientSocket, int clientId) {
-        System.out.println("[" + new java.util.Date() + "] Client " + clientId + " handler started");
+        LOG.info("[" + new java.util.Date() + "] Client " + clientId + " handler started");
         
         try (
             BufferedReader reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream(), "UTF-8"));
@@ -105,7 +116,9 @@ public class ThreadPoolTCPServer {
             // Echo loop
             String line;
             while ((line = reader.readLine()) != null) {
-                System.out.println("[RECEIVED] Client " + clientId + ": " + line);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("[RECEIVED] Client " + clientId + ": " + line);
+                }
                 
                 // Handle quit command
                 if (line.equalsIgnoreCase("quit")) {
@@ -115,37 +128,65 @@ public class ThreadPoolTCPServer {
                 
                 // Echo message back
                 writer.println("[ECHO] Client " + clientId + ": " + line);
+                echoedLines.increment();
             }
             
         } catch (IOException e) {
-            System.err.println("Client " + clientId + " error: " + e.getMessage());
+            LOG.error("Client " + clientId + " error: " + e.getMessage());
         } finally {
             try {
                 clientSocket.close();
-                System.out.println("[" + new java.util.Date() + "] Client " + clientId + " disconnected");
+                LOG.info("[" + new java.util.Date() + "] Client " + clientId + " disconnected");
             } catch (IOException e) {
-                System.err.println("Error closing socket for client " + clientId);
+                LOG.error("Error closing socket for client " + clientId);
             }
         }
     }
     
     /**
-     * Displays current thread pool statistics.
+     * Displays current thread pool statistics at DEBUG level.
+     * The same figures are served live by the stats endpoint (-Dstats.port).
      */
     private void printThreadStats() {
-        Runtime runtime = Runtime . getRuntime () ;
-        System . out . println ("=== Thread Statistics ===") ;
-        System . out . println (" Active threads : " + ( Thread . activeCount () - 1) ) ;
-        System . out . println (" Memory usage : " +( runtime . totalMemory () - runtime . freeMemory () ) / 1024 + " KB") ;
-        System.out.println("===============================");
+        if (!LOG.isDebugEnabled()) {
+            return;
+        }
+        Runtime runtime = Runtime.getRuntime();
+        LOG.debug("=== Thread Statistics ===");
+        LOG.debug(" Active threads : " + (Thread.activeCount() - 1));
+        LOG.debug(" Memory usage : " + (runtime.totalMemory() - runtime.freeMemory()) / 1024 + " KB");
+        LOG.debug("===============================");
+    }
+    
+    /**
+     * Fills a stats snapshot for the HTTP endpoint.
+     * Called on the endpoint's own thread; only reads atomic counters and pool gauges.
+     * 
+     * @param out snapshot being collected
+     */
+    public void collectStats(StatsSnapshot out) {
+        out.gauge("tcp_up", "1 while the server accepts connections", running ? 1 : 0);
+        out.gauge("tcp_connections", "Clients currently served", activeClients.get());
+        out.counter("tcp_connections_total", "Clients accepted since start", clientCounter.get());
+        out.counter("tcp_echoed_lines_total", "Lines echoed back to clients", echoedLines.sum());
+        if (threadPool instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) threadPool;
+            out.gauge("tcp_pool_size", "Maximum worker threads", pool.getMaximumPoolSize());
+            out.gauge("tcp_pool_active_threads", "Workers serving a client", pool.getActiveCount());
+            out.gauge("tcp_pool_queued_clients", "Accepted clients waiting for a worker", pool.getQueue().size());
+            out.counter("tcp_pool_completed_total", "Client handlers finished", pool.getCompletedTaskCount());
+        }
     }
     
     /**
      * Gracefully shuts down the server and thread pool.
      */
     public void shutdown() {
-        System.out.println("Initiating server shutdown...");
+        LOG.info("Initiating server shutdown...");
         running = false;
+        if (statsServer != null) {
+            statsServer.stop();
+        }
         
         // Close server socket
         try {
@@ -153,7 +194,7 @@ public class ThreadPoolTCPServer {
                 serverSocket.close();
             }
         } catch (IOException e) {
-            System.err.println("Error closing server socket: " + e.getMessage());
+            LOG.error("Error closing server socket: " + e.getMessage());
         }
         
         // Shutdown thread pool
@@ -164,7 +205,7 @@ public class ThreadPoolTCPServer {
                 // Force shutdown if tasks don't complete in time
                 threadPool.shutdownNow();
             }
-            System.out.println("Server shutdown completed");
+            LOG.info("Server shutdown completed");
         } catch (InterruptedException e) {
             threadPool.shutdownNow();
             Thread.currentThread().interrupt();
@@ -195,18 +236,20 @@ public class ThreadPoolTCPServer {
                 server = new ThreadPoolTCPServer();
             }
             
-            System.out.println(server.toString());
+            LOG.info(server.toString());
             
             // Add shutdown hook for graceful termination
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                System.out.println("\nShutdown signal received...");
+                LOG.info("\nShutdown signal received...");
                 server.shutdown();
+                Log.flush();
             }));
             
             server.launch();
             
         } catch (IOException e) {
-            e.printStackTrace();
+            LOG.error("Server error: " + e.getMessage(), e);
+            Log.flush();
         }
     }
 }
@@ -0,0 +1,99 @@
+package Test;
+
+import SSL.ChatMessage;
+import SSL.MessageType;
+
+/**
+ * Checks that the v2 body decoder rejects crafted field lengths with an
+ * IllegalArgumentException, which the transports treat as a malformed frame,
+ * rather than any other exception escaping to the connection's thread.
+ *
+ * Usage: java Test.BinaryBodyCodecTest
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public class BinaryBodyCodecTest {
+
+    public static void main(String[] args) {
+        decodesValidFrame();
+        rejectsContentLengthNearIntegerMax();
+        rejectsSenderLongerThanBody();
+        rejectsRoomLongerThanBody();
+        System.out.println("BinaryBodyCodecTest OK");
+    }
+
+    private static void decodesValidFrame() {
+        ChatMessage message = new ChatMessage(MessageType.TEXT_MESSAGE, "alice", "hello");
+        message.setRoomId("lobby");
+        byte[] frame = message.serialize(ChatMessage.VERSION_BINARY);
+        ChatMessage decoded = ChatMessage.decode(frame, 0, frame.length);
+        check("hello".equals(decoded.getContent()) && "lobby".equals(decoded.getRoomId()),
+              "valid frame decodes");
+    }
+
+    /**
+     * About 50 bytes announcing 0x7FFFFFF0 bytes of content: position + length
+     * wraps to a negative number, which a naive bounds check lets through.
+     */
+    private static void rejectsContentLengthNearIntegerMax() {
+        byte[] body = new byte[40];
+        int position = 9;                   // Timestamp and flags
+        position += 2;                      // Empty sender
+        writeInt(body, position, 0x7FFFFFF0);
+        expectRejected(frame(body), "content length near Integer.MAX_VALUE");
+    }
+
+    private static void rejectsSenderLongerThanBody() {
+        byte[] body = new byte[20];
+        body[9] = (byte) 0xFF;
+        body[10] = (byte) 0xFF;             // 65535-byte sender in a 20-byte body
+        expectRejected(frame(body), "sender longer than the body");
+    }
+
+    private static void rejectsRoomLongerThanBody() {
+        byte[] body = new byte[24];
+        body[8] = 0x01;                     // Room flag
+        // Empty sender, empty content, then a 65535-byte room
+        body[15] = (byte) 0xFF;
+        body[16] = (byte) 0xFF;
+        expectRejected(frame(body), "room longer than the body");
+    }
+
+    private static void expectRejected(byte[] frame, String what) {
+        try {
+            ChatMessage.decode(frame, 0, frame.length);
+        } catch (IllegalArgumentException expected) {
+            return;
+        } catch (RuntimeException e) {
+            throw new AssertionError(what + ": expected IllegalArgumentException, got " + e, e);
+        }
+        throw new AssertionError(what + ": decoded without error");
+    }
+
+    /**
+     * @param body v2 body
+     * @return the body behind a v2 TEXT_MESSAGE header
+     */
+    private static byte[] frame(byte[] body) {
+        byte[] frame = new byte[ChatMessage.HEADER_SIZE + body.length];
+        frame[0] = (byte) ChatMessage.VERSION_BINARY;
+        frame[1] = (byte) MessageType.TEXT_MESSAGE.ordinal();
+        writeInt(frame, 2, body.length);
+        System.arraycopy(body, 0, frame, ChatMessage.HEADER_SIZE, body.length);
+        return frame;
+    }
+
+    private static void writeInt(byte[] data, int index, int value) {
+        data[index] = (byte) (value >>> 24);
+        data[index + 1] = (byte) (value >>> 16);
+        data[index + 2] = (byte) (value >>> 8);
+        data[index + 3] = (byte) value;
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError("Failed: " + what);
+        }
+    }
+}
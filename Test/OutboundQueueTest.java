@@ -0,0 +1,66 @@
+package Test;
+
+import SSL.OutboundQueue;
+import SSL.OverflowPolicy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that under DROP_NOTIFICATIONS a full queue sheds its notifications
+ * before any chat frame: no chat frame is lost while a notification is still
+ * queued. The drain task is held back until the end, so the queue really fills.
+ *
+ * Usage: java Test.OutboundQueueTest
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+public class OutboundQueueTest {
+    private static final int CAPACITY = 8;
+
+    public static void main(String[] args) {
+        chatFramesEvictNotificationsFirst();
+        System.out.println("OutboundQueueTest OK");
+    }
+
+    private static void chatFramesEvictNotificationsFirst() {
+        List<Runnable> tasks = new ArrayList<>();
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        OutboundQueue queue = new OutboundQueue(new DataOutputStream(written), tasks::add, () -> true,
+                                                CAPACITY, OverflowPolicy.DROP_NOTIFICATIONS, null);
+
+        // Half chat frames, half notifications, interleaved: the queue is full
+        for (int i = 0; i < CAPACITY / 2; i++) {
+            check(queue.offer(frame('n', i), true), "notification " + i + " queued");
+            check(queue.offer(frame('c', i), false), "chat frame " + i + " queued");
+        }
+        check(queue.size() == CAPACITY, "queue full");
+
+        // Each further chat frame takes the place of one notification
+        for (int i = CAPACITY / 2; i < CAPACITY; i++) {
+            check(queue.offer(frame('c', i), false), "chat frame " + i + " queued over a notification");
+        }
+        check(!queue.offer(frame('n', 99), true), "notification dropped when full");
+        check(queue.getDroppedFrames() == CAPACITY / 2 + 1, "dropped count");
+
+        tasks.forEach(Runnable::run);
+        byte[] out = written.toByteArray();
+        check(out.length == 2 * CAPACITY, "written frames: " + out.length / 2);
+        for (int i = 0; i < CAPACITY; i++) {
+            check(out[2 * i] == 'c' && out[2 * i + 1] == i, "chat frame " + i + " written in order");
+        }
+    }
+
+    private static byte[] frame(char kind, int index) {
+        return new byte[] { (byte) kind, (byte) index };
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError("Failed: " + what);
+        }
+    }
+}
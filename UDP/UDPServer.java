@@ -1,7 +1,13 @@
 package UDP;
+
+import Common.Log;
+import Common.StatsHttpServer;
+import Common.StatsSnapshot;
+
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * UDP server that receives datagrams from clients and displays messages in the terminal (UTF-8 encoded strings up to 1024 bytes).
@@ -10,6 +16,7 @@ import java.net.DatagramSocket;
  * @version 1.0
  */
 public class UDPServer {
+    private static final Log LOG = Log.get("udp");
     
     /** Default listening port */
     private static final int DEFAULT_PORT = 7565;
@@ -20,7 +27,10 @@ public class UDPServer {
     /** Listening port number */
     private int port;
     /** Status of the server (running or not) */
-    private boolean running;
+    private volatile boolean running;
+    /** Datagrams and payload bytes received, read by the stats endpoint */
+    private final LongAdder datagrams = new LongAdder();
+    private final LongAdder receivedBytes = new LongAdder();
     
     /**
      * Constructs a UDPServer with the default port.
@@ -51,12 +61,13 @@ public class UDPServer {
      */
     public void launch() {
         DatagramSocket socket = null;
+        StatsHttpServer statsServer = StatsHttpServer.startIfConfigured(this::collectStats);
         try {
             // Create UDP socket
             socket = new DatagramSocket(port);
             running = true;
-            System.out.println("UDP Server started on port " + port);
-            System.out.println(this);// Display state after starting
+            LOG.info("UDP Server started on port " + port);
+            LOG.info(toString());// Display state after starting
             
             // Buffer for incoming data
             byte[] buffer = new byte[MAX_BYTES];
@@ -68,13 +79,17 @@ public class UDPServer {
                 
                 // Length of received data
                 int length = Math.min(packet.getLength(), MAX_BYTES);
+                datagrams.increment();
+                receivedBytes.add(length);
                 
                 // UTF-8 decoding
                 String message = new String(packet.getData(), 0, length, "UTF-8");
                 
                 // Display the client address and message
                 String clientAddress = packet.getAddress().getHostAddress() + ":" + packet.getPort();
-                System.out.println(clientAddress + " -> " + message);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug(clientAddress + " -> " + message);
+                }
                 
                 // Reset the buffer
                 buffer = new byte[MAX_BYTES];
@@ -82,16 +97,30 @@ public class UDPServer {
             }
             
         } catch (IOException e) {
-            System.err.println("Error: " + e.getMessage());
+            LOG.error("Error: " + e.getMessage());
         } finally {
         if (socket != null && !socket.isClosed()) {
             socket.close(); 
             running = false;
         }
+        if (statsServer != null) {
+            statsServer.stop();
+        }
     }
         
     }
     
+    /**
+     * Fills a stats snapshot for the HTTP endpoint (enabled with -Dstats.port).
+     * 
+     * @param out snapshot being collected
+     */
+    public void collectStats(StatsSnapshot out) {
+        out.gauge("udp_up", "1 while the server receives datagrams", running ? 1 : 0);
+        out.counter("udp_datagrams_total", "Datagrams received", datagrams.sum());
+        out.counter("udp_received_bytes_total", "Payload bytes received", receivedBytes.sum());
+    }
+    
     /**
      * Returns a string representation of the server's state.
      * 
@@ -122,7 +151,7 @@ public class UDPServer {
         }
         
         UDPServer server = new UDPServer(port);
-        System.out.println(server); // Display state before starting
+        LOG.info(server.toString()); // Display state before starting
         server.launch();
     }
 }
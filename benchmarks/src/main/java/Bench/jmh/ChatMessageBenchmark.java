@@ -0,0 +1,142 @@
+package Bench.jmh;
+
+import SSL.ChatMessage;
+import SSL.MessageType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH microbenchmarks of the ChatMessage codec: the regression gate for every
+ * codec change. Covers encoding, decoding from a standalone array and from a
+ * connection's read buffer, and validation, for both protocol versions, with
+ * message contents of 10 B to 10 KB in ASCII or multi-byte UTF-8.
+ * The v1 decode benchmarks measure the JSON body tokenizer, which replaced the
+ * old per-field extractField scans.
+ *
+ * Usage (the root build must be installed first):
+ *   mvn install
+ *   mvn -f benchmarks/pom.xml package
+ *   java -jar benchmarks/target/benchmarks.jar ChatMessageBenchmark -prof gc
+ * or run this class's main method, which enables the GC profiler
+ * (gc.alloc.rate.norm = bytes allocated per operation).
+ *
+ * @author Arthur Jouve & Ewan Zahra Thenault
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatMessageBenchmark {
+    private static final String ASCII_ALPHABET = "The quick brown fox jumps over the lazy dog. ";
+    // 2-byte (Latin-1, Greek) and 3-byte (CJK) code points, plus ASCII spacing
+    private static final String UTF8_ALPHABET = "Ça été très réussi, αβγ, 日本語のテキスト ";
+
+    /** Encoded content size in bytes */
+    @Param({"10", "100", "1000", "10000"})
+    public int payloadSize;
+
+    /** ascii or utf8 (multi-byte characters) */
+    @Param({"ascii", "utf8"})
+    public String charset;
+
+    /** Protocol version: 1 = JSON body, 2 = binary body */
+    @Param({"1", "2"})
+    public int version;
+
+    private String content;
+    private byte[] frame;
+    private ByteBuffer readBuffer;
+    private ChatMessage decoded;
+
+    @Setup
+    public void setUp() {
+        content = content("utf8".equals(charset) ? UTF8_ALPHABET : ASCII_ALPHABET, payloadSize);
+        frame = newMessage().serialize(version);
+
+        // A read buffer holding the frame after some already consumed bytes, as on a connection
+        readBuffer = ByteBuffer.allocate(frame.length + 64);
+        readBuffer.position(64);
+        readBuffer.put(frame);
+        readBuffer.flip();
+        decoded = ChatMessage.deserialize(frame);
+    }
+
+    /**
+     * Builds a content of at most the given encoded size without splitting a character.
+     */
+    private static String content(String alphabet, int bytes) {
+        StringBuilder builder = new StringBuilder();
+        int length = 0;
+        for (int i = 0; ; i = (i + 1) % alphabet.length()) {
+            char c = alphabet.charAt(i);
+            int encoded = String.valueOf(c).getBytes(StandardCharsets.UTF_8).length;
+            if (length + encoded > bytes) {
+                return builder.toString();
+            }
+            builder.append(c);
+            length += encoded;
+        }
+    }
+
+    private ChatMessage newMessage() {
+        ChatMessage message = new ChatMessage(MessageType.TEXT_MESSAGE, "alice", content);
+        message.setRoomId("lobby");
+        return message;
+    }
+
+    /**
+     * A fresh message each time: a message caches its encoded frame.
+     */
+    @Benchmark
+    public byte[] serialize() {
+        return newMessage().serialize(version);
+    }
+
+    @Benchmark
+    public ChatMessage deserialize() {
+        return ChatMessage.deserialize(frame);
+    }
+
+    /**
+     * In-place decode from a heap read buffer, as the NIO connections do.
+     */
+    @Benchmark
+    public ChatMessage decodeBuffer() {
+        readBuffer.position(64);
+        return ChatMessage.decode(readBuffer);
+    }
+
+    @Benchmark
+    public boolean validate() {
+        return decoded.validate();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ChatMessageBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}